@@ -0,0 +1,77 @@
+package org.skycraft.updater.benchmarks;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.skycraft.updater.core.Updater;
+import org.skycraft.updater.core.data.ManifestEntry;
+import org.skycraft.updater.core.hash.HashAlgorithm;
+import org.skycraft.updater.fixtures.SyntheticTree;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ClientHashingBenchmark {
+	@Param({ "1000" })
+	public int files;
+
+	@Param({ "65536" })
+	public int fileBytes;
+
+	@Param({ "md5", "xxh64" })
+	public String algorithm;
+
+	private SyntheticTree tree;
+	private List<ManifestEntry> entries;
+	private Updater updater;
+	private Method calcHashes;
+	private HashAlgorithm hashAlgorithm;
+
+	@Setup
+	public void setup() throws IOException, ReflectiveOperationException {
+		Logger logger = Logger.getLogger("UpdaterBenchmark");
+		logger.setLevel(Level.WARNING);
+		tree = SyntheticTree.create(files, fileBytes);
+		entries = Arrays.asList(
+			new ManifestEntry("mods", tree.getClientPath().resolve("mods"), Collections.emptyList(), SyntheticTree.MODS_IGNORE_CLIENT),
+			new ManifestEntry("config", tree.getClientPath().resolve("config"), Collections.emptyList(), Collections.emptyList()));
+		updater = new Updater(logger, new InetSocketAddress("127.0.0.1", 0), tree.getClientPath().resolve("Patcher.jar"), tree.getClientPath(), Collections.emptyList(), () -> {});
+		// The client walk is private to the updater, it is invoked as is so the numbers match what players see
+		calcHashes = Updater.class.getDeclaredMethod("calcHashes", String.class, ManifestEntry.class, HashAlgorithm.class);
+		calcHashes.setAccessible(true);
+		hashAlgorithm = HashAlgorithm.forName(algorithm).orElseThrow(() -> new IllegalArgumentException("Unknown hash algorithm " + algorithm));
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		tree.delete();
+	}
+
+	@Benchmark
+	public int calcHashes() throws IllegalAccessException, InvocationTargetException {
+		int count = 0;
+		for (ManifestEntry entry : entries) {
+			Optional<?> hashes = (Optional<?>) calcHashes.invoke(updater, entry.getCategory(), entry, hashAlgorithm);
+			if (hashes.isPresent()) count += ((Map<?, ?>) hashes.get()).size();
+		}
+		return count;
+	}
+}
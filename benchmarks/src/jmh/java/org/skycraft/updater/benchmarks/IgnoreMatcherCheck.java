@@ -0,0 +1,113 @@
+package org.skycraft.updater.benchmarks;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.skycraft.updater.fixtures.SyntheticTree;
+import org.skycraft.updater.utils.IgnoreMatcher;
+import org.skycraft.updater.utils.PathUtils;
+
+// Differential check of IgnoreMatcher against PathUtils.matchWildcard on generated patterns and paths
+public final class IgnoreMatcherCheck {
+	private static final String[] PATTERN_PARTS = { "a", "b", "ab", ".", "-", "\u00e9", "\u4e2d", "\ud83d\ude00", "*", "*", "?", "**", "/", "\\" };
+	private static final String[] NAMES = { "a", "b", "ab", "ba", "a.b", ".a", "b-", "\u00e9", "\u4e2d\u6587", "\ud83d\ude00", "aab", "abab" };
+	private static final int PATTERN_SETS = 2000;
+	private static final int PATHS = 300;
+	private static final int DESCENDANTS = 20;
+
+	private IgnoreMatcherCheck() {
+	}
+
+	public static void main(String[] args) {
+		long seed = args.length > 0 ? Long.parseLong(args[0]) : 0x5C1CAFEL;
+		System.out.println("Compared " + run(seed) + " paths, compiled ignore lists match PathUtils.matchWildcard");
+	}
+
+	// Returns the number of paths compared, throws on the first difference
+	public static long run(long seed) {
+		Random random = new Random(seed);
+		List<String> realPatterns = new ArrayList<>(SyntheticTree.MODS_IGNORE_SERVER);
+		realPatterns.addAll(SyntheticTree.MODS_IGNORE_CLIENT);
+		realPatterns.addAll(SyntheticTree.CONFIG_IGNORE_SERVER);
+		List<String> realPaths = new ArrayList<>();
+		for (int i = 0; i < 1000; i++) {
+			realPaths.add(SyntheticTree.relativePath(i));
+		}
+		long compared = check(realPatterns, realPaths, random);
+		for (int i = 0; i < PATTERN_SETS; i++) {
+			List<String> patterns = new ArrayList<>();
+			int count = 1 + random.nextInt(3);
+			for (int j = 0; j < count; j++) {
+				patterns.add(randomPattern(random));
+			}
+			List<String> paths = new ArrayList<>(PATHS);
+			for (int j = 0; j < PATHS; j++) {
+				paths.add(randomPath(random));
+			}
+			compared += check(patterns, paths, random);
+		}
+		return compared;
+	}
+
+	public static long check(List<String> patterns, List<String> paths, long seed) {
+		return check(patterns, paths, new Random(seed));
+	}
+
+	private static long check(List<String> patterns, List<String> paths, Random random) {
+		IgnoreMatcher matcher = IgnoreMatcher.compile(patterns);
+		Set<String> directories = new LinkedHashSet<>();
+		long compared = 0L;
+		for (String path : paths) {
+			compare(matcher, patterns, path);
+			compared++;
+			for (int i = path.indexOf('/'); i >= 0; i = path.indexOf('/', i + 1)) {
+				directories.add(path.substring(0, i));
+			}
+		}
+		// Pruning a directory is only correct when every file below it is ignored
+		for (String directory : directories) {
+			if (!matcher.matchesDirectory(directory)) continue;
+			for (int i = 0; i < DESCENDANTS; i++) {
+				String path = directory + "/" + randomPath(random);
+				if (!matchesAny(patterns, path)) throw new IllegalStateException("Directory \"" + directory + "\" pruned by " + patterns + " but \"" + path + "\" is not ignored");
+				compared++;
+			}
+		}
+		return compared;
+	}
+
+	private static void compare(IgnoreMatcher matcher, List<String> patterns, String path) {
+		boolean expected = matchesAny(patterns, path);
+		if (matcher.matches(path) != expected) throw new IllegalStateException("Path \"" + path + "\" with " + patterns + " matched " + !expected + ", PathUtils.matchWildcard matched " + expected);
+	}
+
+	private static boolean matchesAny(List<String> patterns, String path) {
+		for (String pattern : patterns) {
+			if (PathUtils.matchWildcard(path, pattern)) return true;
+		}
+		return false;
+	}
+
+	private static String randomPattern(Random random) {
+		StringBuilder pattern = new StringBuilder();
+		if (random.nextInt(4) == 0) pattern.append('/');
+		int parts = 1 + random.nextInt(6);
+		for (int i = 0; i < parts; i++) {
+			pattern.append(PATTERN_PARTS[random.nextInt(PATTERN_PARTS.length)]);
+		}
+		if (random.nextInt(4) == 0) pattern.append('/');
+		return pattern.toString();
+	}
+
+	private static String randomPath(Random random) {
+		StringBuilder path = new StringBuilder();
+		int depth = 1 + random.nextInt(4);
+		for (int i = 0; i < depth; i++) {
+			if (i > 0) path.append('/');
+			path.append(NAMES[random.nextInt(NAMES.length)]);
+		}
+		return path.toString();
+	}
+}
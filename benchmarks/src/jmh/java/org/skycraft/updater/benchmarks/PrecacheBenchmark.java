@@ -0,0 +1,87 @@
+package org.skycraft.updater.benchmarks;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.skycraft.updater.core.Provider;
+import org.skycraft.updater.core.ProviderOptions;
+import org.skycraft.updater.core.data.ManifestEntry;
+import org.skycraft.updater.core.data.PrecachedFile;
+import org.skycraft.updater.core.precache.HashIndex;
+import org.skycraft.updater.core.precache.PrecacheEngine;
+import org.skycraft.updater.core.protocol.v3.HashListFormat;
+import org.skycraft.updater.fixtures.SyntheticTree;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PrecacheBenchmark {
+	@Param({ "1000" })
+	public int files;
+
+	@Param({ "65536" })
+	public int fileBytes;
+
+	private final Logger logger = Logger.getLogger("UpdaterBenchmark");
+	private SyntheticTree tree;
+	private List<ManifestEntry> entries;
+	private Set<String> categories;
+	private Provider provider;
+
+	@Setup
+	public void setup() throws IOException {
+		logger.setLevel(Level.WARNING);
+		tree = SyntheticTree.create(files, fileBytes);
+		entries = Arrays.asList(
+			new ManifestEntry("mods", tree.getClientPath().resolve("mods"), SyntheticTree.MODS_IGNORE_SERVER, SyntheticTree.MODS_IGNORE_CLIENT),
+			new ManifestEntry("config", tree.getClientPath().resolve("config"), SyntheticTree.CONFIG_IGNORE_SERVER, Collections.emptyList()));
+		ProviderOptions options = new ProviderOptions()
+			.setWatchChanges(false)
+			.setDeltas(false)
+			.setCompression(false)
+			.setMetrics(false)
+			.setAccessLog("");
+		provider = new Provider(logger, tree.getClientPath(), tree.getManifestPath(), new InetSocketAddress("127.0.0.1", 0), options);
+		provider.run();
+		categories = new HashSet<>(Arrays.asList("mods", "config"));
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		provider.close();
+		tree.delete();
+	}
+
+	// Empty hash index, what a provider pays on its first start
+	@Benchmark
+	public int precacheEngineCold() {
+		try (PrecacheEngine engine = new PrecacheEngine(logger, provider.getOptions().getPrecacheThreads(), HashIndex.load(logger, tree.getManifestPath().resolveSibling("cold.hashindex")), HashListFormat.DIGEST_ALGORITHMS)) {
+			Optional<Map<String, List<PrecachedFile>>> precached = engine.precache(tree.getClientPath(), entries);
+			return precached.map(Map::size).orElse(0);
+		}
+	}
+
+	// Reload of every category with a warm hash index, one walk shared by all protocols plus serializing and compressing
+	@Benchmark
+	public boolean providerReloadHashes() {
+		return provider.reload(false, categories);
+	}
+}
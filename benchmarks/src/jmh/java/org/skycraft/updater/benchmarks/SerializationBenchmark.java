@@ -0,0 +1,158 @@
+package org.skycraft.updater.benchmarks;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.commons.codec.binary.Hex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.skycraft.updater.core.Protocol;
+import org.skycraft.updater.core.Provider;
+import org.skycraft.updater.core.data.PrecachedFile;
+import org.skycraft.updater.core.hash.HashAlgorithm;
+import org.skycraft.updater.core.protocol.v3.HashListFormat;
+import org.skycraft.updater.core.protocol.v3.HashListReader;
+import org.skycraft.updater.core.protocol.v3.HashListWriter;
+import org.skycraft.updater.fixtures.SyntheticTree;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SerializationBenchmark {
+	private static final int DIGEST_LENGTH = 16;
+
+	@Param({ "10000" })
+	public int files;
+
+	@Param({ "50" })
+	public int categories;
+
+	private Provider provider;
+	private String manifest;
+	private List<PrecachedFile> precachedFiles;
+	private byte[] jsonHashes;
+	private byte[] binaryHashes;
+
+	@Setup
+	public void setup() throws IOException {
+		Logger logger = Logger.getLogger("UpdaterBenchmark");
+		logger.setLevel(Level.WARNING);
+		provider = new Provider(logger, Paths.get("client"), Paths.get("manifest.json"), new InetSocketAddress("127.0.0.1", 0));
+		StringWriter manifestWriter = new StringWriter();
+		SyntheticTree.writeManifest(manifestWriter, categories);
+		manifest = manifestWriter.toString();
+		Random random = new Random(files);
+		precachedFiles = new ArrayList<>(files);
+		for (int i = 0; i < files; i++) {
+			String relativePath = SyntheticTree.relativePath(i);
+			Map<String, String> hashes = new HashMap<>();
+			hashes.put(HashAlgorithm.MD5.getName(), randomHex(random, HashAlgorithm.MD5));
+			for (HashAlgorithm algorithm : HashListFormat.DIGEST_ALGORITHMS) {
+				hashes.put(algorithm.getName(), randomHex(random, algorithm));
+			}
+			precachedFiles.add(new PrecachedFile(relativePath, Paths.get(relativePath), hashes, random.nextInt(1 << 24)));
+		}
+		precachedFiles.sort((a, b) -> a.getRelativePath().compareTo(b.getRelativePath()));
+		jsonHashes = writeJsonHashes();
+		binaryHashes = writeBinaryHashes();
+	}
+
+	// Parses the manifest and writes the client facing copy, as the provider does on every reload
+	@Benchmark
+	public boolean precacheManifest() throws IOException {
+		try (JsonReader reader = new JsonReader(new StringReader(manifest))) {
+			return Protocol.V2.getHandler().precacheManifest(provider, reader);
+		}
+	}
+
+	@Benchmark
+	public byte[] writeJsonHashes() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (JsonWriter writer = new JsonWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
+			writer.beginArray();
+			for (PrecachedFile file : precachedFiles) {
+				writer.beginObject();
+				writer.name("path").value(file.getRelativePath());
+				writer.name("hash").value(file.getHash());
+				writer.endObject();
+			}
+			writer.endArray();
+		}
+		return out.toByteArray();
+	}
+
+	@Benchmark
+	public Map<String, String> readJsonHashes() throws IOException {
+		Map<String, String> hashes = new HashMap<>();
+		try (JsonReader reader = new JsonReader(new InputStreamReader(new ByteArrayInputStream(jsonHashes), StandardCharsets.UTF_8))) {
+			reader.beginArray();
+			while (reader.hasNext()) {
+				reader.beginObject();
+				String path = null;
+				String hash = null;
+				while (reader.hasNext()) {
+					switch (reader.nextName()) {
+					case "path":
+						path = reader.nextString();
+						break;
+					case "hash":
+						hash = reader.nextString();
+						break;
+					default:
+						reader.skipValue();
+					}
+				}
+				reader.endObject();
+				hashes.put(path, hash);
+			}
+			reader.endArray();
+		}
+		return hashes;
+	}
+
+	@Benchmark
+	public byte[] writeBinaryHashes() {
+		return new HashListWriter().writeHashList(precachedFiles, DIGEST_LENGTH, HashListFormat.DIGEST_ALGORITHMS).toByteArray();
+	}
+
+	@Benchmark
+	public Map<String, String> readBinaryHashes() throws IOException {
+		Map<String, String> hashes = new HashMap<>();
+		try (HashListReader reader = new HashListReader(new ByteArrayInputStream(binaryHashes))) {
+			reader.beginHashList();
+			while (reader.next()) {
+				hashes.put(reader.getPath(), reader.getHash());
+			}
+		}
+		return hashes;
+	}
+
+	private static String randomHex(Random random, HashAlgorithm algorithm) {
+		byte[] digest = new byte[algorithm.getDigestLength()];
+		random.nextBytes(digest);
+		return Hex.encodeHexString(digest);
+	}
+}
@@ -0,0 +1,66 @@
+package org.skycraft.updater.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.skycraft.updater.fixtures.SyntheticTree;
+import org.skycraft.updater.utils.IgnoreMatcher;
+import org.skycraft.updater.utils.PathUtils;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WildcardBenchmark {
+	@Param({ "1000" })
+	public int files;
+
+	private List<String> relativePaths;
+	private List<String> ignores;
+	private IgnoreMatcher ignoreMatcher;
+
+	@Setup
+	public void setup() {
+		relativePaths = new ArrayList<>(files);
+		for (int i = 0; i < files; i++) {
+			relativePaths.add(SyntheticTree.relativePath(i));
+		}
+		ignores = new ArrayList<>(SyntheticTree.MODS_IGNORE_SERVER);
+		ignores.addAll(SyntheticTree.MODS_IGNORE_CLIENT);
+		ignores.addAll(SyntheticTree.CONFIG_IGNORE_SERVER);
+		ignoreMatcher = IgnoreMatcher.compile(ignores);
+		// Both benchmarks must ignore the same files for the comparison to mean anything
+		IgnoreMatcherCheck.check(ignores, relativePaths, files);
+	}
+
+	// Per file check the walks ran before ignore lists were compiled, kept as the baseline
+	@Benchmark
+	public int matchIgnoreList() {
+		int ignored = 0;
+		for (String relativePath : relativePaths) {
+			for (String ignore : ignores) {
+				if (PathUtils.matchWildcard(relativePath, ignore)) {
+					ignored++;
+					break;
+				}
+			}
+		}
+		return ignored;
+	}
+
+	@Benchmark
+	public int matchCompiledIgnoreList() {
+		int ignored = 0;
+		for (String relativePath : relativePaths) {
+			if (ignoreMatcher.matches(relativePath)) ignored++;
+		}
+		return ignored;
+	}
+}
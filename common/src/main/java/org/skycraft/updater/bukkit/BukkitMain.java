@@ -6,6 +6,7 @@ import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
@@ -13,6 +14,7 @@ import org.bukkit.event.Listener;
 import org.bukkit.event.player.PlayerJoinEvent;
 import org.bukkit.plugin.java.JavaPlugin;
 import org.skycraft.updater.core.Provider;
+import org.skycraft.updater.core.ProviderOptions;
 
 public final class BukkitMain extends JavaPlugin implements Listener {
 	private Provider provider;
@@ -70,7 +72,26 @@ public final class BukkitMain extends JavaPlugin implements Listener {
 				getLogger(),
 				clientPath,
 				manifestPath,
-				new InetSocketAddress(getConfig().getString("updater.listenIp"), getConfig().getInt("updater.listenPort"))
+				new InetSocketAddress(getConfig().getString("updater.listenIp"), getConfig().getInt("updater.listenPort")),
+				new ProviderOptions()
+					.setPrecacheThreads(getConfig().getInt("updater.precacheThreads"))
+					.setWatchChanges(getConfig().getBoolean("updater.watchChanges"))
+					.setWatchDelayMillis(getConfig().getLong("updater.watchDelay"))
+					.setMappedCacheBytes(getConfig().getLong("updater.mappedCacheSize") * 1024L * 1024L)
+					.setDeltas(getConfig().getBoolean("updater.deltas"))
+					.setDeltaRetentionMillis(TimeUnit.DAYS.toMillis(getConfig().getLong("updater.deltaRetentionDays")))
+					.setCompression(getConfig().getBoolean("updater.compression"))
+					.setDigests(getConfig().getBoolean("updater.digests"))
+					.setHotCacheBytes(getConfig().getLong("updater.hotCacheSize") * 1024L * 1024L)
+					.setBandwidthLimitBytes(getConfig().getLong("updater.bandwidthLimit") * 1024L)
+					.setClientBandwidthLimitBytes(getConfig().getLong("updater.clientBandwidthLimit") * 1024L)
+					.setMinThreads(getConfig().getInt("updater.minThreads"))
+					.setMaxThreads(getConfig().getInt("updater.maxThreads"))
+					.setHttp2(getConfig().getBoolean("updater.http2"))
+					.setMetrics(getConfig().getBoolean("updater.metrics"))
+					.setAccessLog(getConfig().getString("updater.accessLog"))
+					.setAccessLogFormat(getConfig().getString("updater.accessLogFormat"))
+					.setAccessLogSampling(getConfig().getInt("updater.accessLogSampling"))
 			);
 			provider.run();
 		}
@@ -3,34 +3,68 @@ package org.skycraft.updater.core;
 import java.awt.BorderLayout;
 import java.awt.Dimension;
 import java.awt.Toolkit;
+import java.io.BufferedInputStream;
 import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
-import java.net.URL;
-import java.net.URLConnection;
 import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.FileHandler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.logging.SimpleFormatter;
+import java.util.zip.GZIPInputStream;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JOptionPane;
 import javax.swing.ProgressMonitor;
 import javax.swing.SwingConstants;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.skycraft.updater.core.chunk.ChunkFormat;
+import org.skycraft.updater.core.chunk.ChunkList;
+import org.skycraft.updater.core.chunk.FastCdc;
+import org.skycraft.updater.core.client.ClientTransport;
+import org.skycraft.updater.core.client.LocalChunkIndex;
+import org.skycraft.updater.core.delta.DeltaDecoder;
+import org.skycraft.updater.core.hash.HashAlgorithm;
+import org.skycraft.updater.core.protocol.v3.BatchFormat;
 import org.skycraft.updater.translate.TranslateManager;
 import org.skycraft.updater.translate.TranslateMessage;
 
 public final class Patcher implements Runnable {
+	private static final Path PARTIAL_DOWNLOADS_PATH = Paths.get(System.getProperty("java.io.tmpdir"), "skycraft-updater", "partial");
+	private static final int MAX_DOWNLOAD_ATTEMPTS = 5;
+	private static final long RETRY_DELAY_MILLIS = 1000L;
+	private static final long BATCH_FILE_MAX_BYTES = 256L * 1024L;
+	private static final long BATCH_MAX_BYTES = 8L * 1024L * 1024L;
+	private static final int BATCH_MAX_FILES = 512;
+	private static final long DELTA_MIN_BYTES = 64L * 1024L;
+	private static final int MULTIPLEXED_DOWNLOADS = 8;
+
 	private final Logger logger;
 	private final TranslateManager translateManager;
 	private ProgressMonitor progressMonitor;
@@ -40,6 +74,18 @@ public final class Patcher implements Runnable {
 	private Path filesPath;
 	private Map<Path, String> filesToRemove;
 	private Map<Path, String> filesToUpdate;
+	private Map<String, Long> fileSizes;
+	private Map<Path, DeltaBase> deltaBases;
+	private String batchURL;
+	private String deltaURL;
+	private String chunksURL;
+	private String chunkURL;
+	private List<Path> localFiles;
+	private LocalChunkIndex localChunkIndex;
+	private boolean http2;
+	private HashAlgorithm verifyAlgorithm = HashAlgorithm.MD5;
+	private Map<String, String> verifyHashes = new HashMap<>();
+	private ClientTransport transport;
 	private Map<Path, Path> downloadedUpdates;
 
 	public Patcher(Logger logger) {
@@ -127,10 +173,36 @@ public final class Patcher implements Runnable {
 			}
 			int filesToUpdateSize = stream.readInt();
 			filesToUpdate = new HashMap<>();
+			fileSizes = new HashMap<>();
+			deltaBases = new HashMap<>();
 			for (int i = 0; i < filesToUpdateSize; i++) {
 				Path path = Paths.get(stream.readUTF());
 				String hash = stream.readUTF();
+				long size = stream.readLong();
+				String deltaBasePath = stream.readUTF();
+				String deltaBaseHash = stream.readUTF();
 				filesToUpdate.put(path, hash);
+				fileSizes.put(hash, size);
+				if (!deltaBasePath.isEmpty()) deltaBases.put(path, new DeltaBase(Paths.get(deltaBasePath), deltaBaseHash));
+			}
+			batchURL = stream.readUTF();
+			if (batchURL.isEmpty()) batchURL = null;
+			deltaURL = stream.readUTF();
+			if (deltaURL.isEmpty()) deltaURL = null;
+			chunksURL = stream.readUTF();
+			chunkURL = stream.readUTF();
+			if (chunksURL.isEmpty() || chunkURL.isEmpty()) chunksURL = chunkURL = null;
+			int localFilesSize = stream.readInt();
+			localFiles = new ArrayList<>(localFilesSize);
+			for (int i = 0; i < localFilesSize; i++) {
+				localFiles.add(Paths.get(stream.readUTF()));
+			}
+			http2 = stream.readBoolean();
+			String verifyAlgorithmName = stream.readUTF();
+			if (!verifyAlgorithmName.isEmpty()) verifyAlgorithm = HashAlgorithm.forName(verifyAlgorithmName).orElseThrow(() -> new IOException("Unknown hash algorithm " + verifyAlgorithmName));
+			int verifyHashesSize = stream.readInt();
+			for (int i = 0; i < verifyHashesSize; i++) {
+				verifyHashes.put(stream.readUTF(), stream.readUTF());
 			}
 			return true;
 		} catch (IOException | InvalidPathException e) {
@@ -159,87 +231,419 @@ public final class Patcher implements Runnable {
 	}
 
 	private boolean downloadUpdates() {
-		downloadedUpdates = new HashMap<>();
-		progressMonitor.setNote(TranslateMessage.of("patcher.main-frame.progress.downloading-note")
+		downloadedUpdates = new ConcurrentHashMap<>();
+		reportDownloadProgress();
+		try (ClientTransport transport = ClientTransport.open(logger, serverIp, serverPort, http2)) {
+			this.transport = transport;
+			Files.createDirectories(PARTIAL_DOWNLOADS_PATH);
+			if (batchURL != null && downloadBatches() == DownloadResult.FAILED) return false;
+			Map<String, List<Path>> pending = new LinkedHashMap<>();
+			for (Map.Entry<Path, String> entry : filesToUpdate.entrySet()) {
+				if (!downloadedUpdates.containsKey(entry.getKey())) pending.computeIfAbsent(entry.getValue(), hash -> new ArrayList<>()).add(entry.getKey());
+			}
+			if (!(transport.isMultiplexed() ? downloadFilesConcurrently(pending) : downloadFiles(pending))) return false;
+			if (localChunkIndex != null) localChunkIndex.save();
+		}
+		catch (IOException e) {
+			logger.log(Level.SEVERE, TranslateMessage.of("patcher.log.download-failed").translate(translateManager), e);
+			return false;
+		}
+		return true;
+	}
+
+	private boolean downloadFiles(Map<String, List<Path>> pending) {
+		for (Map.Entry<String, List<Path>> entry : pending.entrySet()) {
+			if (!downloadFile(entry.getKey(), entry.getValue())) return false;
+		}
+		return true;
+	}
+
+	private boolean downloadFilesConcurrently(Map<String, List<Path>> pending) throws IOException {
+		ExecutorService executor = Executors.newFixedThreadPool(MULTIPLEXED_DOWNLOADS, runnable -> {
+			Thread thread = new Thread(runnable, "Patcher Download");
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			List<Future<Boolean>> results = new ArrayList<>();
+			for (Map.Entry<String, List<Path>> entry : pending.entrySet()) {
+				results.add(executor.submit(() -> downloadFile(entry.getKey(), entry.getValue())));
+			}
+			for (Future<Boolean> result : results) {
+				if (!result.get()) return false;
+			}
+			return true;
+		} catch (InterruptedException e) {
+			cancelled = true;
+			logger.log(Level.INFO, TranslateMessage.of("patcher.log.update-cancelled").translate(translateManager));
+			return false;
+		} catch (ExecutionException e) {
+			throw new IOException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private boolean downloadFile(String hash, List<Path> paths) {
+		Path downloadPath = PARTIAL_DOWNLOADS_PATH.resolve(hash + ".part");
+		DeltaBase deltaBase = paths.stream().map(deltaBases::get).filter(Objects::nonNull).findFirst().orElse(null);
+		long size = fileSizes.getOrDefault(hash, -1L);
+		boolean patched = deltaURL != null && deltaBase != null && size >= DELTA_MIN_BYTES && downloadDelta(downloadPath, deltaBase, hash);
+		if (!patched && chunksURL != null && size >= ChunkFormat.MIN_FILE_BYTES) patched = downloadChunked(downloadPath, hash);
+		if (!patched && !downloadUpdate(downloadPath, hash)) return false;
+		for (Path path : paths) downloadedUpdates.put(path, downloadPath);
+		reportDownloadProgress();
+		return true;
+	}
+
+	private synchronized void reportDownloadProgress() {
+		progressMonitor.setProgress((int) ((float) downloadedUpdates.size() / (float) filesToUpdate.size() * 50));
+		logger.log(Level.INFO, TranslateMessage.of("patcher.main-frame.progress.downloading-note")
 			.with("progress", downloadedUpdates.size())
 			.with("total", filesToUpdate.size())
 			.translate(translateManager)
 		);
-		logger.log(Level.INFO, TranslateMessage.of("patcher.main-frame.progress.downloading-note")
+		progressMonitor.setNote(TranslateMessage.of("patcher.main-frame.progress.downloading-note")
 			.with("progress", downloadedUpdates.size())
 			.with("total", filesToUpdate.size())
 			.translate(translateManager)
 		);
+	}
+
+	private DownloadResult downloadBatches() {
+		Map<String, List<Path>> smallFiles = new LinkedHashMap<>();
+		for (Map.Entry<Path, String> entry : filesToUpdate.entrySet()) {
+			long size = fileSizes.getOrDefault(entry.getValue(), -1L);
+			if (size < 0L || size > BATCH_FILE_MAX_BYTES) continue;
+			smallFiles.computeIfAbsent(entry.getValue(), hash -> new ArrayList<>()).add(entry.getKey());
+		}
+		if (smallFiles.size() < 2) return DownloadResult.COMPLETED;
+		List<String> batch = new ArrayList<>();
+		long batchBytes = 0L;
+		for (String hash : smallFiles.keySet()) {
+			batch.add(hash);
+			batchBytes += fileSizes.get(hash);
+			if (batch.size() >= BATCH_MAX_FILES || batchBytes >= BATCH_MAX_BYTES) {
+				DownloadResult result = downloadBatch(batch, smallFiles);
+				if (result != DownloadResult.COMPLETED) return result;
+				batch.clear();
+				batchBytes = 0L;
+			}
+		}
+		return batch.isEmpty() ? DownloadResult.COMPLETED : downloadBatch(batch, smallFiles);
+	}
+
+	private DownloadResult downloadBatch(List<String> hashes, Map<String, List<Path>> paths) {
+		logger.log(Level.INFO, TranslateMessage.of("patcher.log.batch-downloading")
+			.with("count", hashes.size())
+			.translate(translateManager)
+		);
 		try {
-			for (Map.Entry<Path, String> entry : filesToUpdate.entrySet()) {
-				Path downloadPath = Files.createTempFile(entry.getValue() + "_", ".jar");
-				if (!downloadUpdate(downloadPath, entry.getValue())) return false;
-				downloadedUpdates.put(entry.getKey(), downloadPath);
-				progressMonitor.setProgress((int) ((float) downloadedUpdates.size() / (float) filesToUpdate.size() * 50));
-				logger.log(Level.INFO, TranslateMessage.of("patcher.main-frame.progress.downloading-note")
-					.with("progress", downloadedUpdates.size())
-					.with("total", filesToUpdate.size())
+			StringBuilder request = new StringBuilder();
+			for (String hash : hashes) {
+				request.append(hash).append('\n');
+			}
+			try (ClientTransport.Response response = transport.post(batchURL, "text/plain; charset=utf-8", request.toString().getBytes(StandardCharsets.UTF_8))) {
+				if (cancelled) {
+					logger.log(Level.INFO, TranslateMessage.of("patcher.log.update-cancelled").translate(translateManager));
+					return DownloadResult.FAILED;
+				}
+				if (response.getStatus() != HttpURLConnection.HTTP_OK) {
+					logger.log(Level.WARNING, TranslateMessage.of("patcher.log.download-failed-with-code")
+						.with("code", response.getStatus())
+						.translate(translateManager)
+					);
+					return DownloadResult.INTERRUPTED;
+				}
+				try (DataInputStream in = new DataInputStream(new BufferedInputStream(response.getBody(), 1024 * 64))) {
+					if (in.readInt() != BatchFormat.MAGIC || in.readUnsignedByte() != BatchFormat.VERSION) throw new IOException("Illegal batch response header");
+					int count = in.readInt();
+					byte[] buffer = new byte[1024 * 64];
+					for (int i = 0; i < count; i++) {
+						String hash = in.readUTF();
+						long size = in.readLong();
+						if (size == BatchFormat.MISSING_FILE) continue;
+						List<Path> targets = paths.get(hash);
+						if (targets == null || size < 0L) throw new IOException("Unexpected batch entry " + hash);
+						Path downloadPath = PARTIAL_DOWNLOADS_PATH.resolve(hash + ".part");
+						HashAlgorithm.Hasher digest = newVerifier(hash);
+						try (OutputStream out = Files.newOutputStream(downloadPath)) {
+							long remaining = size;
+							while (remaining > 0L) {
+								if (cancelled) {
+									logger.log(Level.INFO, TranslateMessage.of("patcher.log.update-cancelled").translate(translateManager));
+									return DownloadResult.FAILED;
+								}
+								int len = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+								if (len < 0) throw new EOFException();
+								digest.update(buffer, 0, len);
+								out.write(buffer, 0, len);
+								remaining -= len;
+							}
+						}
+						if (!verify(digest, hash)) {
+							logger.log(Level.WARNING, TranslateMessage.of("patcher.log.download-hash-mismatch")
+								.with("hash", hash)
+								.translate(translateManager)
+							);
+							Files.deleteIfExists(downloadPath);
+							continue;
+						}
+						for (Path path : targets) downloadedUpdates.put(path, downloadPath);
+						reportDownloadProgress();
+					}
+				}
+			}
+		} catch (IOException e) {
+			logger.log(Level.WARNING, TranslateMessage.of("patcher.log.batch-failed").translate(translateManager), e);
+			return cancelled ? DownloadResult.FAILED : DownloadResult.INTERRUPTED;
+		}
+		return DownloadResult.COMPLETED;
+	}
+
+	private boolean downloadDelta(Path downloadPath, DeltaBase deltaBase, String hash) {
+		try {
+			try (ClientTransport.Response response = transport.get(deltaURL + "?from=" + URLEncoder.encode(deltaBase.hash, "UTF-8") + "&to=" + URLEncoder.encode(hash, "UTF-8"))) {
+				if (response.getStatus() != HttpURLConnection.HTTP_OK || cancelled) return false;
+				logger.log(Level.INFO, TranslateMessage.of("patcher.log.delta-downloading")
+					.with("file", deltaBase.path)
+					.with("hash", hash)
 					.translate(translateManager)
 				);
-				progressMonitor.setNote(TranslateMessage.of("patcher.main-frame.progress.downloading-note")
-					.with("progress", downloadedUpdates.size())
-					.with("total", filesToUpdate.size())
+				HashAlgorithm.Hasher digest = newVerifier(hash);
+				try (InputStream in = new BufferedInputStream(response.getBody(), 1024 * 64); OutputStream out = Files.newOutputStream(downloadPath)) {
+					DeltaDecoder.apply(filesPath.resolve(deltaBase.path), in, out, digest);
+				}
+				if (verify(digest, hash)) return true;
+				logger.log(Level.WARNING, TranslateMessage.of("patcher.log.download-hash-mismatch")
+					.with("hash", hash)
 					.translate(translateManager)
 				);
 			}
+		} catch (IOException e) {
+			logger.log(Level.WARNING, TranslateMessage.of("patcher.log.delta-failed").translate(translateManager), e);
 		}
-		catch (IOException e) {
-			logger.log(Level.SEVERE, TranslateMessage.of("patcher.log.download-failed").translate(translateManager), e);
+		try {
+			Files.deleteIfExists(downloadPath);
+		} catch (IOException e) {
+			logger.log(Level.WARNING, TranslateMessage.of("patcher.log.delta-failed").translate(translateManager), e);
+		}
+		return false;
+	}
+
+	private boolean downloadChunked(Path downloadPath, String hash) {
+		try {
+			ChunkList chunkList;
+			try (ClientTransport.Response response = transport.get(chunksURL + "?hash=" + URLEncoder.encode(hash, "UTF-8"))) {
+				if (response.getStatus() != HttpURLConnection.HTTP_OK) return false;
+				try (InputStream in = new BufferedInputStream(response.getBody())) {
+					chunkList = ChunkList.decode(in);
+				}
+			}
+			LocalChunkIndex chunkIndex = getLocalChunkIndex();
+			LocalChunkIndex.Location[] locations = new LocalChunkIndex.Location[chunkList.size()];
+			List<Integer> missing = new ArrayList<>();
+			for (int i = 0; i < chunkList.size(); i++) {
+				locations[i] = chunkIndex.find(chunkList.getDigest(i)).orElse(null);
+				if (locations[i] == null) missing.add(i);
+			}
+			if (missing.size() == chunkList.size()) return false;
+			logger.log(Level.INFO, TranslateMessage.of("patcher.log.chunk-downloading")
+				.with("hash", hash)
+				.with("reused", chunkList.size() - missing.size())
+				.with("total", chunkList.size())
+				.translate(translateManager)
+			);
+			if (!writeChunks(downloadPath, hash, chunkList, locations, missing)) {
+				Files.deleteIfExists(downloadPath);
+				return false;
+			}
+			return true;
+		} catch (IOException e) {
+			logger.log(Level.WARNING, TranslateMessage.of("patcher.log.chunk-failed").translate(translateManager), e);
+		}
+		try {
+			Files.deleteIfExists(downloadPath);
+		} catch (IOException e) {
+			logger.log(Level.WARNING, TranslateMessage.of("patcher.log.chunk-failed").translate(translateManager), e);
+		}
+		return false;
+	}
+
+	private synchronized LocalChunkIndex getLocalChunkIndex() {
+		if (localChunkIndex == null) {
+			localChunkIndex = LocalChunkIndex.load(logger, filesPath.resolve(Updater.STATE_DIRECTORY).resolve("chunks.index"));
+			localChunkIndex.update(filesPath, localFiles);
+		}
+		return localChunkIndex;
+	}
+
+	private boolean writeChunks(Path downloadPath, String hash, ChunkList chunkList, LocalChunkIndex.Location[] locations, List<Integer> missing) throws IOException {
+		ClientTransport.Response response = null;
+		try {
+			DataInputStream remote = null;
+			if (!missing.isEmpty()) {
+				StringBuilder request = new StringBuilder();
+				for (int index : missing) {
+					request.append(index).append('\n');
+				}
+				response = transport.post(chunkURL + "?hash=" + URLEncoder.encode(hash, "UTF-8"), "text/plain; charset=utf-8", request.toString().getBytes(StandardCharsets.UTF_8));
+				if (response.getStatus() != HttpURLConnection.HTTP_OK) return false;
+				remote = new DataInputStream(new BufferedInputStream(response.getBody(), 1024 * 64));
+				if (remote.readInt() != ChunkFormat.DATA_MAGIC || remote.readUnsignedByte() != ChunkFormat.VERSION || remote.readInt() != missing.size()) throw new IOException("Illegal chunk response header");
+			}
+			HashAlgorithm.Hasher fileDigest = newVerifier(hash);
+			byte[] buffer = new byte[FastCdc.MAX_CHUNK_BYTES];
+			try (OutputStream out = Files.newOutputStream(downloadPath)) {
+				for (int i = 0; i < chunkList.size(); i++) {
+					if (cancelled) {
+						logger.log(Level.INFO, TranslateMessage.of("patcher.log.update-cancelled").translate(translateManager));
+						return false;
+					}
+					int length = chunkList.getLength(i);
+					if (locations[i] != null) {
+						try (FileChannel channel = FileChannel.open(locations[i].getPath(), StandardOpenOption.READ)) {
+							ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, length);
+							while (chunk.hasRemaining()) {
+								if (channel.read(chunk, locations[i].getOffset() + chunk.position()) < 0) throw new IOException("Local chunk truncated");
+							}
+						}
+						if (!DigestUtils.md5Hex(Arrays.copyOf(buffer, length)).equals(chunkList.getDigest(i))) throw new IOException("Local chunk changed");
+					} else {
+						if (remote.readInt() != i || remote.readInt() != length) throw new IOException("Unexpected chunk in response");
+						remote.readFully(buffer, 0, length);
+					}
+					fileDigest.update(buffer, 0, length);
+					out.write(buffer, 0, length);
+				}
+			}
+			if (verify(fileDigest, hash)) return true;
+			logger.log(Level.WARNING, TranslateMessage.of("patcher.log.download-hash-mismatch")
+				.with("hash", hash)
+				.translate(translateManager)
+			);
 			return false;
+		} finally {
+			if (response != null) response.close();
 		}
-		return true;
+	}
+
+	// Files listed with a strong digest are verified with it, the md5 download hash is the fallback
+	private HashAlgorithm.Hasher newVerifier(String hash) {
+		return (verifyHashes.containsKey(hash) ? verifyAlgorithm : HashAlgorithm.MD5).newHasher();
+	}
+
+	private boolean verify(HashAlgorithm.Hasher verifier, String hash) {
+		return verifier.hexDigest().equals(verifyHashes.getOrDefault(hash, hash));
 	}
 
 	private boolean downloadUpdate(Path downloadPath, String hash) {
-		try (OutputStream out = Files.newOutputStream(downloadPath)) {
-			URLConnection connection = new URL("http", serverIp, serverPort, "/download?hash=" + URLEncoder.encode(hash, "UTF-8")).openConnection();
-			if (!(connection instanceof HttpURLConnection)) {
-				logger.log(Level.SEVERE, TranslateMessage.of("patcher.log.download-failed").translate(translateManager));
-				return false;
+		for (int attempt = 1; attempt <= MAX_DOWNLOAD_ATTEMPTS; attempt++) {
+			HashAlgorithm.Hasher digest = newVerifier(hash);
+			DownloadResult result = tryDownloadUpdate(downloadPath, hash, digest);
+			if (result == DownloadResult.FAILED) return false;
+			if (result == DownloadResult.COMPLETED) {
+				if (verify(digest, hash)) return true;
+				logger.log(Level.WARNING, TranslateMessage.of("patcher.log.download-hash-mismatch")
+					.with("hash", hash)
+					.translate(translateManager)
+				);
+				try {
+					Files.deleteIfExists(downloadPath);
+				} catch (IOException e) {
+					logger.log(Level.SEVERE, TranslateMessage.of("patcher.log.download-failed").translate(translateManager), e);
+					return false;
+				}
 			}
-			HttpURLConnection http = (HttpURLConnection) connection;
-			try {
-				http.setRequestMethod("GET");
-				http.connect();
-				if (cancelled) {
+			if (attempt < MAX_DOWNLOAD_ATTEMPTS) {
+				logger.log(Level.INFO, TranslateMessage.of("patcher.log.download-retrying")
+					.with("attempt", attempt + 1)
+					.with("total", MAX_DOWNLOAD_ATTEMPTS)
+					.translate(translateManager)
+				);
+				try {
+					Thread.sleep(RETRY_DELAY_MILLIS * attempt);
+				} catch (InterruptedException e) {
 					logger.log(Level.INFO, TranslateMessage.of("patcher.log.update-cancelled").translate(translateManager));
 					return false;
 				}
-				if (http.getResponseCode() != 200) {
+			}
+		}
+		logger.log(Level.SEVERE, TranslateMessage.of("patcher.log.download-failed").translate(translateManager));
+		return false;
+	}
+
+	private DownloadResult tryDownloadUpdate(Path downloadPath, String hash, HashAlgorithm.Hasher digest) {
+		try {
+			long offset = Files.exists(downloadPath) ? Files.size(downloadPath) : 0L;
+			Map<String, String> headers = new HashMap<>();
+			if (offset > 0L) {
+				headers.put("Range", "bytes=" + offset + "-");
+				headers.put("If-Range", "\"" + hash + "\"");
+			} else {
+				headers.put("Accept-Encoding", "gzip");
+			}
+			try (ClientTransport.Response response = transport.get("/download?hash=" + URLEncoder.encode(hash, "UTF-8"), headers)) {
+				if (cancelled) {
+					logger.log(Level.INFO, TranslateMessage.of("patcher.log.update-cancelled").translate(translateManager));
+					return DownloadResult.FAILED;
+				}
+				boolean append;
+				if (response.getStatus() == HttpURLConnection.HTTP_PARTIAL && isResumedAt(response.getHeader("Content-Range"), offset)) {
+					logger.log(Level.INFO, TranslateMessage.of("patcher.log.download-resuming")
+						.with("hash", hash)
+						.with("offset", offset)
+						.translate(translateManager)
+					);
+					append = true;
+				} else if (response.getStatus() == HttpURLConnection.HTTP_OK) {
+					append = false;
+				} else if (response.getStatus() == 416) {
+					try (InputStream in = Files.newInputStream(downloadPath)) {
+						digest.update(in);
+					}
+					return DownloadResult.COMPLETED;
+				} else {
 					logger.log(Level.SEVERE, TranslateMessage.of("patcher.log.download-failed-with-code")
-						.with("code", http.getResponseCode())
+						.with("code", response.getStatus())
 						.translate(translateManager)
 					);
-					return false;
+					return response.getStatus() >= 500 ? DownloadResult.INTERRUPTED : DownloadResult.FAILED;
+				}
+				if (append) {
+					try (InputStream in = Files.newInputStream(downloadPath)) {
+						digest.update(in);
+					}
 				}
-				try (InputStream in = http.getInputStream()) {
+				try (InputStream in = "gzip".equalsIgnoreCase(response.getHeader("Content-Encoding")) ? new GZIPInputStream(response.getBody(), 1024 * 64) : response.getBody();
+					OutputStream out = append
+					? Files.newOutputStream(downloadPath, StandardOpenOption.WRITE, StandardOpenOption.APPEND)
+					: Files.newOutputStream(downloadPath)) {
 					byte[] buffer = new byte[1024 * 64];
 					int len;
 					while ((len = in.read(buffer)) >= 0) {
 						if (cancelled) {
 							logger.log(Level.INFO, TranslateMessage.of("patcher.log.update-cancelled").translate(translateManager));
-							return false;
+							return DownloadResult.FAILED;
 						}
+						digest.update(buffer, 0, len);
 						out.write(buffer, 0, len);
 						if (cancelled) {
 							logger.log(Level.INFO, TranslateMessage.of("patcher.log.update-cancelled").translate(translateManager));
-							return false;
+							return DownloadResult.FAILED;
 						}
 					}
 				}
-			} finally {
-				http.disconnect();
 			}
 		} catch (IOException e) {
-			logger.log(Level.SEVERE, TranslateMessage.of("patcher.log.download-failed").translate(translateManager), e);
-			return false;
+			logger.log(Level.WARNING, TranslateMessage.of("patcher.log.download-failed").translate(translateManager), e);
+			return cancelled ? DownloadResult.FAILED : DownloadResult.INTERRUPTED;
 		}
-		return true;
+		return DownloadResult.COMPLETED;
+	}
+
+	private static boolean isResumedAt(String contentRange, long offset) {
+		return contentRange != null && contentRange.trim().startsWith("bytes " + offset + "-");
 	}
 
 	private boolean applyUpdates() {
@@ -300,6 +704,11 @@ public final class Patcher implements Runnable {
 					.translate(translateManager)
 				);
 			}
+
+			// Paths sharing a hash share one download, so it can only go once every target was written
+			for (Path downloadedPath : new HashSet<>(downloadedUpdates.values())) {
+				Files.deleteIfExists(filesPath.resolve(downloadedPath));
+			}
 		} catch (IOException e) {
 			logger.log(Level.SEVERE, TranslateMessage.of("patcher.log.apply-update-failed").translate(translateManager), e);
 			return false;
@@ -320,4 +729,18 @@ public final class Patcher implements Runnable {
 		Patcher patcher = new Patcher(logger);
 		patcher.run();
 	}
+
+	private enum DownloadResult {
+		COMPLETED, INTERRUPTED, FAILED
+	}
+
+	private static final class DeltaBase {
+		final Path path;
+		final String hash;
+
+		DeltaBase(Path path, String hash) {
+			this.path = path;
+			this.hash = hash;
+		}
+	}
 }
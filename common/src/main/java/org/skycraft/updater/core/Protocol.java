@@ -6,11 +6,12 @@ import java.util.function.Supplier;
 import org.skycraft.updater.core.protocol.ProtocolHandler;
 import org.skycraft.updater.core.protocol.v1.ProtocolHandlerV1;
 import org.skycraft.updater.core.protocol.v2.ProtocolHandlerV2;
+import org.skycraft.updater.core.protocol.v3.ProtocolHandlerV3;
 
 public enum Protocol {
-	V1(ProtocolHandlerV1::new), V2(ProtocolHandlerV2::new);
+	V1(ProtocolHandlerV1::new), V2(ProtocolHandlerV2::new), V3(ProtocolHandlerV3::new);
 
-	public static final Protocol CURRENT_PROTOCOL = V2;
+	public static final Protocol CURRENT_PROTOCOL = V3;
 
 	private static final Map<Protocol, ProtocolHandler> HANDLERS = new EnumMap<>(Protocol.class);
 	static {
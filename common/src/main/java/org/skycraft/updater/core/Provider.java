@@ -4,25 +4,56 @@ import com.google.gson.stream.JsonReader;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Writer;
 import java.net.InetSocketAddress;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 import java.util.logging.FileHandler;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.logging.SimpleFormatter;
+import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
 import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.RequestLog;
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.server.handler.ErrorHandler;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
 import org.eclipse.jetty.util.log.Log;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.skycraft.updater.core.chunk.ChunkStore;
+import org.skycraft.updater.core.data.ManifestEntry;
+import org.skycraft.updater.core.data.ManifestSnapshot;
+import org.skycraft.updater.core.data.PrecachedFile;
+import org.skycraft.updater.core.delta.DeltaStore;
+import org.skycraft.updater.core.download.BandwidthLimiter;
+import org.skycraft.updater.core.download.CompressedFileStore;
+import org.skycraft.updater.core.download.FileSender;
+import org.skycraft.updater.core.download.HotFileCache;
+import org.skycraft.updater.core.hash.HashAlgorithm;
+import org.skycraft.updater.core.log.AccessLog;
+import org.skycraft.updater.core.metrics.MetricsRegistry;
+import org.skycraft.updater.core.metrics.ProviderMetrics;
+import org.skycraft.updater.core.precache.HashIndex;
+import org.skycraft.updater.core.precache.PrecacheEngine;
+import org.skycraft.updater.core.precache.PrecacheWatcher;
 import org.skycraft.updater.core.protocol.ProtocolHandler;
 
 public final class Provider implements Runnable, Closeable {
@@ -30,13 +61,28 @@ public final class Provider implements Runnable, Closeable {
 	private final Path clientPath;
 	private final Path manifestPath;
 	private final InetSocketAddress address;
+	private final ProviderOptions options;
+	private final ProviderMetrics metrics = new ProviderMetrics();
+	private PrecacheEngine precacheEngine;
+	private FileSender fileSender;
+	private DeltaStore deltaStore;
+	private ChunkStore chunkStore;
+	private CompressedFileStore compressedFileStore;
+	private HotFileCache hotFileCache;
+	private PrecacheWatcher precacheWatcher;
+	private AccessLog accessLog;
 	private Server server;
 
 	public Provider(Logger logger, Path clientPath, Path manifestPath, InetSocketAddress address) {
+		this(logger, clientPath, manifestPath, address, new ProviderOptions());
+	}
+
+	public Provider(Logger logger, Path clientPath, Path manifestPath, InetSocketAddress address, ProviderOptions options) {
 		this.logger = logger;
 		this.clientPath = clientPath;
 		this.manifestPath = manifestPath;
 		this.address = address;
+		this.options = options;
 	}
 
 	public Logger getLogger() {
@@ -51,18 +97,111 @@ public final class Provider implements Runnable, Closeable {
 		return manifestPath;
 	}
 
+	public Path getHashIndexPath() {
+		return manifestPath.resolveSibling(manifestPath.getFileName() + ".hashindex");
+	}
+
+	public Path getHistoryPath() {
+		return manifestPath.resolveSibling(manifestPath.getFileName() + ".history");
+	}
+
+	public ProviderOptions getOptions() {
+		return options;
+	}
+
+	public ProviderMetrics getMetrics() {
+		return metrics;
+	}
+
+	public PrecacheEngine getPrecacheEngine() {
+		return precacheEngine;
+	}
+
+	public FileSender getFileSender() {
+		return fileSender;
+	}
+
+	public DeltaStore getDeltaStore() {
+		return deltaStore;
+	}
+
+	public ChunkStore getChunkStore() {
+		return chunkStore;
+	}
+
+	public CompressedFileStore getCompressedFileStore() {
+		return compressedFileStore;
+	}
+
+	public HotFileCache getHotFileCache() {
+		return hotFileCache;
+	}
+
+	public AccessLog getAccessLog() {
+		return accessLog;
+	}
+
 	@Override
 	public void run() {
 		logger.log(Level.INFO, "Starting updater provider...");
+		precacheEngine = new PrecacheEngine(logger, options.getPrecacheThreads(), HashIndex.load(logger, getHashIndexPath()), getDigestAlgorithms());
+		BandwidthLimiter bandwidthLimiter = null;
+		if (options.getBandwidthLimitBytes() > 0L || options.getClientBandwidthLimitBytes() > 0L) {
+			bandwidthLimiter = new BandwidthLimiter(logger, options.getBandwidthLimitBytes(), options.getClientBandwidthLimitBytes());
+		}
+		fileSender = new FileSender(options.getMappedCacheBytes(), !options.isWatchChanges(), bandwidthLimiter);
+		if (options.isDeltas()) deltaStore = new DeltaStore(logger, getHistoryPath(), options.getDeltaRetentionMillis());
+		chunkStore = new ChunkStore(logger, getHistoryPath().resolve("chunks"));
+		if (options.getHotCacheBytes() > 0L) hotFileCache = new HotFileCache(options.getHotCacheBytes());
+		if (options.isCompression()) compressedFileStore = new CompressedFileStore(logger, getHistoryPath().resolve("compressed"));
+		openAccessLog();
+		registerMetrics();
 		if (!precacheManifest()) return;
 		if (!precacheHashes()) return;
+		precacheEngine.getHashIndex().save(true);
+		refreshHistory();
 		if (!startServer()) return;
+		if (options.isWatchChanges()) {
+			precacheWatcher = new PrecacheWatcher(this, options.getWatchDelayMillis());
+			if (!precacheWatcher.start()) precacheWatcher = null;
+		}
 		logger.log(Level.INFO, "Updater provider successfully started");
 	}
 
+	private List<HashAlgorithm> getDigestAlgorithms() {
+		List<HashAlgorithm> digestAlgorithms = new ArrayList<>();
+		for (Protocol protocol : Protocol.values()) {
+			for (HashAlgorithm algorithm : protocol.getHandler().getDigestAlgorithms(this)) {
+				if (!digestAlgorithms.contains(algorithm)) digestAlgorithms.add(algorithm);
+			}
+		}
+		return digestAlgorithms;
+	}
+
+	public synchronized boolean reload(boolean manifestChanged, Set<String> categories) {
+		if (manifestChanged) {
+			if (!precacheManifest()) return false;
+			if (!precacheHashes()) return false;
+			precacheEngine.getHashIndex().save(true);
+			refreshHistory();
+		} else {
+			logger.log(Level.INFO, "Precaching changed manifest hashes...");
+			if (!precacheHashes(categories)) return false;
+			precacheEngine.getHashIndex().save(false);
+			logger.log(Level.INFO, "Manifest hashes successfully precached");
+			refreshHistory();
+		}
+		return true;
+	}
+
 	@Override
 	public void close() {
 		logger.log(Level.INFO, "Stopping updater provider...");
+		if (hotFileCache != null) logger.log(Level.INFO, "Hot file cache: " + hotFileCache.getStats());
+		if (precacheWatcher != null) {
+			precacheWatcher.close();
+			precacheWatcher = null;
+		}
 		if (server != null) {
 			try {
 				if (server.isRunning()) server.stop();
@@ -71,6 +210,16 @@ public final class Provider implements Runnable, Closeable {
 			}
 			server = null;
 		}
+		if (accessLog != null) {
+			accessLog.close();
+			accessLog = null;
+		}
+		if (fileSender != null && fileSender.getBandwidthLimiter() != null) fileSender.getBandwidthLimiter().close();
+		if (compressedFileStore != null) compressedFileStore.close();
+		if (precacheEngine != null) {
+			precacheEngine.close();
+			precacheEngine = null;
+		}
 		logger.log(Level.INFO, "Updater provider successfully stopped");
 	}
 
@@ -91,20 +240,109 @@ public final class Provider implements Runnable, Closeable {
 
 	private boolean precacheHashes() {
 		logger.log(Level.INFO, "Precaching manifest hashes...");
+		if (!precacheHashes(null)) return false;
+		logger.log(Level.INFO, "Manifest hashes successfully precached");
+		return true;
+	}
+
+	// One parallel pass serves every protocol, a null category set precaches all of them
+	private boolean precacheHashes(Set<String> categories) {
+		Map<String, ManifestEntry> entries = new LinkedHashMap<>();
 		for (Protocol protocol : Protocol.values()) {
 			ProtocolHandler protocolHandler = protocol.getHandler();
-			if (!protocolHandler.precacheHashes(this)) return false;
+			boolean incremental = categories != null && protocolHandler.isSnapshotCurrent();
+			for (ManifestEntry entry : protocolHandler.getEntryMap().values()) {
+				if (!incremental || categories.contains(entry.getCategory())) entries.putIfAbsent(entry.getCategory(), entry);
+			}
+		}
+		Optional<Map<String, List<PrecachedFile>>> precachedFiles = precacheEngine.precache(clientPath, entries.values());
+		if (!precachedFiles.isPresent()) {
+			logger.log(Level.SEVERE, "Error occurred while precaching file hashes");
+			return false;
+		}
+		for (Protocol protocol : Protocol.values()) {
+			ProtocolHandler protocolHandler = protocol.getHandler();
+			if (!protocolHandler.precacheHashes(this, precachedFiles.get())) return false;
 		}
-		logger.log(Level.INFO, "Manifest hashes successfully precached");
 		return true;
 	}
 
+	private void refreshHistory() {
+		ManifestSnapshot snapshot = Protocol.CURRENT_PROTOCOL.getHandler().getSnapshot();
+		if (snapshot == null) return;
+		fileSender.clear();
+		if (deltaStore != null) deltaStore.archive(snapshot.getGlobalFiles());
+		chunkStore.prune(snapshot.getGlobalFiles());
+		if (compressedFileStore != null) {
+			compressedFileStore.prune(snapshot.getGlobalFiles());
+			compressedFileStore.precompress(snapshot.getGlobalFiles());
+		}
+		if (hotFileCache != null) {
+			hotFileCache.retain(snapshot.getGlobalFiles().keySet());
+			logger.log(Level.INFO, "Hot file cache: " + hotFileCache.getStats());
+		}
+	}
+
+	private void openAccessLog() {
+		if (options.getAccessLog() == null || options.getAccessLog().isEmpty()) return;
+		Path path;
+		try {
+			path = Paths.get(options.getAccessLog());
+		} catch (InvalidPathException e) {
+			logger.log(Level.SEVERE, "Invalid access log path", e);
+			return;
+		}
+		try {
+			accessLog = new AccessLog(logger, path, options.getAccessLogFormat(), options.getAccessLogSampling() / 100.0);
+		} catch (IOException | IllegalArgumentException e) {
+			logger.log(Level.SEVERE, "Could not open access log", e);
+		}
+	}
+
+	private void registerMetrics() {
+		MetricsRegistry registry = metrics.getRegistry();
+		PrecacheEngine precacheEngine = this.precacheEngine;
+		registry.histogram("updater_precache_duration_seconds", "Time taken to precache changed categories", precacheEngine.getDurations());
+		registry.counter("updater_precache_files_total", "Files precached by where their hash came from", precacheEngine::getFilesHashed, "source", "hashed");
+		registry.counter("updater_precache_files_total", "Files precached by where their hash came from", precacheEngine::getFilesIndexed, "source", "index");
+		registry.counter("updater_precache_hashed_bytes_total", "Bytes read while hashing files", precacheEngine::getBytesHashed);
+		FileSender fileSender = this.fileSender;
+		registry.counter("updater_mapped_cache_requests_total", "Memory mapped file lookups", fileSender::getMappedHits, "result", "hit");
+		registry.counter("updater_mapped_cache_requests_total", "Memory mapped file lookups", fileSender::getMappedMisses, "result", "miss");
+		HotFileCache hotFileCache = this.hotFileCache;
+		if (hotFileCache != null) {
+			registry.counter("updater_hot_cache_requests_total", "Hot file cache lookups", () -> hotFileCache.getStats().getHits(), "result", "hit");
+			registry.counter("updater_hot_cache_requests_total", "Hot file cache lookups", () -> hotFileCache.getStats().getMisses(), "result", "miss");
+			registry.counter("updater_hot_cache_coalesced_total", "Hot file cache misses that waited for a concurrent load", () -> hotFileCache.getStats().getCoalesced());
+			registry.counter("updater_hot_cache_rejections_total", "Hot file cache misses refused by admission", () -> hotFileCache.getStats().getRejections());
+			registry.counter("updater_hot_cache_evictions_total", "Files evicted from the hot file cache", () -> hotFileCache.getStats().getEvictions());
+			registry.gauge("updater_hot_cache_bytes", "Bytes held by the hot file cache", () -> hotFileCache.getStats().getUsedBytes());
+			registry.gauge("updater_hot_cache_files", "Files held by the hot file cache", () -> hotFileCache.getStats().getEntries());
+		}
+		BandwidthLimiter bandwidthLimiter = fileSender.getBandwidthLimiter();
+		if (bandwidthLimiter != null) {
+			registry.gauge("updater_send_rate_bytes", "Bytes sent per second by throttled transfers", bandwidthLimiter::getBytesPerSecond);
+			registry.gauge("updater_throttled_transfers", "Transfers currently shaped by the bandwidth limiter", bandwidthLimiter::getActiveTransfers);
+		}
+		AccessLog accessLog = this.accessLog;
+		if (accessLog != null) {
+			registry.counter("updater_access_log_events_total", "Access log lines by outcome", accessLog::getWritten, "result", "written");
+			registry.counter("updater_access_log_events_total", "Access log lines by outcome", accessLog::getDropped, "result", "dropped");
+		}
+	}
+
 	private boolean startServer() {
 		Log.setLog(new NoLog());
-		server = new Server(new InetSocketAddress(
-			address.getHostString(),
-			address.getPort()
-		));
+		QueuedThreadPool threadPool = new QueuedThreadPool(options.getMaxThreads(), options.getMinThreads());
+		threadPool.setName("Updater Provider");
+		server = new Server(threadPool);
+		HttpConfiguration config = new HttpConfiguration();
+		ServerConnector connector = options.isHttp2()
+			? new ServerConnector(server, new HttpConnectionFactory(config), new HTTP2CServerConnectionFactory(config))
+			: new ServerConnector(server, new HttpConnectionFactory(config));
+		connector.setHost(address.getHostString());
+		connector.setPort(address.getPort());
+		server.addConnector(connector);
 		ServletContextHandler handler = new ServletContextHandler();
 		handler.setErrorHandler(new ErrorHandler() {
 			@Override
@@ -114,25 +352,29 @@ public final class Provider implements Runnable, Closeable {
 		});
 		for (Protocol protocol : Protocol.values()) {
 			ProtocolHandler protocolHandler = protocol.getHandler();
+			addEndpoint(handler, protocolHandler, "GET", "manifest", protocolHandler::handleManifest);
+			addEndpoint(handler, protocolHandler, "GET", "hashes", protocolHandler::handleHashes);
+			addEndpoint(handler, protocolHandler, "GET", "download", protocolHandler::handleDownload);
+			addEndpoint(handler, protocolHandler, "GET", "all", protocolHandler::handleAll);
+			addEndpoint(handler, protocolHandler, "POST", "batch", protocolHandler::handleBatch);
+			addEndpoint(handler, protocolHandler, "GET", "delta", protocolHandler::handleDelta);
+			addEndpoint(handler, protocolHandler, "GET", "chunks", protocolHandler::handleChunks);
+			addEndpoint(handler, protocolHandler, "POST", "chunk", protocolHandler::handleChunk);
+			addEndpoint(handler, protocolHandler, "GET", "tree", protocolHandler::handleTree);
+			addEndpoint(handler, protocolHandler, "GET", "generation", protocolHandler::handleGeneration);
+		}
+		if (options.isMetrics()) {
 			handler.addServlet(new ServletHolder(new HttpServlet() {
 				@Override
 				protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
-					protocolHandler.handleManifest(Provider.this, req, resp);
-				}
-			}), protocolHandler.getProtocolURL("manifest"));
-			handler.addServlet(new ServletHolder(new HttpServlet() {
-				@Override
-				protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
-					protocolHandler.handleHashes(Provider.this, req, resp);
-				}
-			}), protocolHandler.getProtocolURL("hashes"));
-			handler.addServlet(new ServletHolder(new HttpServlet() {
-				@Override
-				protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
-					protocolHandler.handleDownload(Provider.this, req, resp);
+					resp.setContentType(MetricsRegistry.CONTENT_TYPE);
+					try (Writer writer = resp.getWriter()) {
+						metrics.getRegistry().write(writer);
+					}
 				}
-			}), protocolHandler.getProtocolURL("download"));
+			}), "/metrics");
 		}
+		server.setRequestLog(accessLog != null ? new RequestLog.Collection(metrics, accessLog) : metrics);
 		server.setHandler(handler);
 		try {
 			server.start();
@@ -143,6 +385,44 @@ public final class Provider implements Runnable, Closeable {
 		return true;
 	}
 
+	private void addEndpoint(ServletContextHandler handler, ProtocolHandler protocolHandler, String method, String url, Endpoint endpoint) {
+		String capabilities = String.join(",", protocolHandler.getCapabilities(this));
+		ProviderMetrics.Endpoint endpointMetrics = metrics.endpoint(protocolHandler.getProtocol().name().toLowerCase(Locale.ROOT), url);
+		ServletHolder holder = new ServletHolder(new HttpServlet() {
+			@Override
+			protected void service(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+				endpointMetrics.begin(req);
+				if (!capabilities.isEmpty()) resp.setHeader(ProtocolHandler.CAPABILITIES_HEADER, capabilities);
+				super.service(req, resp);
+			}
+
+			@Override
+			protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+				if (!"GET".equals(method)) {
+					super.doGet(req, resp);
+					return;
+				}
+				endpoint.handle(Provider.this, req, resp);
+			}
+
+			@Override
+			protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+				if (!"POST".equals(method)) {
+					super.doPost(req, resp);
+					return;
+				}
+				endpoint.handle(Provider.this, req, resp);
+			}
+		});
+		holder.setAsyncSupported(true);
+		handler.addServlet(holder, protocolHandler.getProtocolURL(url));
+	}
+
+	@FunctionalInterface
+	private interface Endpoint {
+		void handle(Provider provider, HttpServletRequest req, HttpServletResponse resp) throws IOException;
+	}
+
 	private static class NoLog implements org.eclipse.jetty.util.log.Logger {
 		@Override public String getName() { return "NoLog"; }
 		@Override public void warn(String msg, Object... args) { }
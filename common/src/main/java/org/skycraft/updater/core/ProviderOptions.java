@@ -0,0 +1,186 @@
+package org.skycraft.updater.core;
+
+import org.skycraft.updater.core.log.AccessLog;
+
+public final class ProviderOptions {
+	private int precacheThreads;
+	private boolean watchChanges;
+	private long watchDelayMillis = 2000L;
+	private long mappedCacheBytes = 1024L * 1024L * 1024L;
+	private boolean deltas = true;
+	private long deltaRetentionMillis = 30L * 24L * 60L * 60L * 1000L;
+	private boolean compression = true;
+	private boolean digests = true;
+	private long hotCacheBytes = 128L * 1024L * 1024L;
+	private long bandwidthLimitBytes;
+	private long clientBandwidthLimitBytes;
+	private int minThreads = 4;
+	private int maxThreads = 32;
+	private boolean http2 = true;
+	private boolean metrics;
+	private String accessLog = "skycraft-updater-access.log";
+	private String accessLogFormat = AccessLog.DEFAULT_FORMAT;
+	private int accessLogSampling = 100;
+
+	public int getPrecacheThreads() {
+		return precacheThreads;
+	}
+
+	public ProviderOptions setPrecacheThreads(int precacheThreads) {
+		this.precacheThreads = precacheThreads;
+		return this;
+	}
+
+	public boolean isWatchChanges() {
+		return watchChanges;
+	}
+
+	public ProviderOptions setWatchChanges(boolean watchChanges) {
+		this.watchChanges = watchChanges;
+		return this;
+	}
+
+	public long getWatchDelayMillis() {
+		return watchDelayMillis;
+	}
+
+	public ProviderOptions setWatchDelayMillis(long watchDelayMillis) {
+		this.watchDelayMillis = watchDelayMillis;
+		return this;
+	}
+
+	public long getMappedCacheBytes() {
+		return mappedCacheBytes;
+	}
+
+	public ProviderOptions setMappedCacheBytes(long mappedCacheBytes) {
+		this.mappedCacheBytes = mappedCacheBytes;
+		return this;
+	}
+
+	public boolean isDeltas() {
+		return deltas;
+	}
+
+	public ProviderOptions setDeltas(boolean deltas) {
+		this.deltas = deltas;
+		return this;
+	}
+
+	public long getDeltaRetentionMillis() {
+		return deltaRetentionMillis;
+	}
+
+	public ProviderOptions setDeltaRetentionMillis(long deltaRetentionMillis) {
+		this.deltaRetentionMillis = deltaRetentionMillis;
+		return this;
+	}
+
+	public boolean isCompression() {
+		return compression;
+	}
+
+	public ProviderOptions setCompression(boolean compression) {
+		this.compression = compression;
+		return this;
+	}
+
+	public boolean isDigests() {
+		return digests;
+	}
+
+	public ProviderOptions setDigests(boolean digests) {
+		this.digests = digests;
+		return this;
+	}
+
+	public long getHotCacheBytes() {
+		return hotCacheBytes;
+	}
+
+	public ProviderOptions setHotCacheBytes(long hotCacheBytes) {
+		this.hotCacheBytes = hotCacheBytes;
+		return this;
+	}
+
+	public long getBandwidthLimitBytes() {
+		return bandwidthLimitBytes;
+	}
+
+	public ProviderOptions setBandwidthLimitBytes(long bandwidthLimitBytes) {
+		this.bandwidthLimitBytes = bandwidthLimitBytes;
+		return this;
+	}
+
+	public long getClientBandwidthLimitBytes() {
+		return clientBandwidthLimitBytes;
+	}
+
+	public ProviderOptions setClientBandwidthLimitBytes(long clientBandwidthLimitBytes) {
+		this.clientBandwidthLimitBytes = clientBandwidthLimitBytes;
+		return this;
+	}
+
+	public int getMinThreads() {
+		return minThreads;
+	}
+
+	public ProviderOptions setMinThreads(int minThreads) {
+		this.minThreads = minThreads;
+		return this;
+	}
+
+	public int getMaxThreads() {
+		return maxThreads;
+	}
+
+	public ProviderOptions setMaxThreads(int maxThreads) {
+		this.maxThreads = maxThreads;
+		return this;
+	}
+
+	public boolean isHttp2() {
+		return http2;
+	}
+
+	public ProviderOptions setHttp2(boolean http2) {
+		this.http2 = http2;
+		return this;
+	}
+
+	public boolean isMetrics() {
+		return metrics;
+	}
+
+	public ProviderOptions setMetrics(boolean metrics) {
+		this.metrics = metrics;
+		return this;
+	}
+
+	public String getAccessLog() {
+		return accessLog;
+	}
+
+	public ProviderOptions setAccessLog(String accessLog) {
+		this.accessLog = accessLog;
+		return this;
+	}
+
+	public String getAccessLogFormat() {
+		return accessLogFormat;
+	}
+
+	public ProviderOptions setAccessLogFormat(String accessLogFormat) {
+		this.accessLogFormat = accessLogFormat;
+		return this;
+	}
+
+	public int getAccessLogSampling() {
+		return accessLogSampling;
+	}
+
+	public ProviderOptions setAccessLogSampling(int accessLogSampling) {
+		this.accessLogSampling = accessLogSampling;
+		return this;
+	}
+}
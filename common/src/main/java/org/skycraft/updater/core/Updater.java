@@ -1,6 +1,7 @@
 package org.skycraft.updater.core;
 
 import com.google.gson.stream.JsonReader;
+import java.io.ByteArrayInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
@@ -8,94 +9,311 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
 import java.net.InetSocketAddress;
-import java.net.URL;
-import java.net.URLConnection;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.codec.digest.DigestUtils;
+import org.skycraft.updater.core.client.ClientTransport;
+import org.skycraft.updater.core.client.ResponseCache;
+import org.skycraft.updater.core.client.SyncState;
+import org.skycraft.updater.core.client.TreeCache;
 import org.skycraft.updater.core.data.ManifestEntry;
-import org.skycraft.updater.utils.PathUtils;
+import org.skycraft.updater.core.hash.HashAlgorithm;
+import org.skycraft.updater.core.protocol.ProtocolHandler;
+import org.skycraft.updater.core.protocol.v3.HashListFormat;
+import org.skycraft.updater.core.protocol.v3.HashListReader;
+import org.skycraft.updater.utils.IgnoreMatcher;
 
 public final class Updater implements Runnable {
+	public static final String STATE_DIRECTORY = "skycraft-updater";
+	private static final String CAPABILITIES_KEY = "capabilities:" + Protocol.CURRENT_PROTOCOL;
+	private static final int MIN_RENAME_PREFIX = 4;
+
 	private final Logger logger;
 	private final InetSocketAddress address;
 	private final Path patcherPath;
 	private final Path clientPath;
+	private final Path statePath;
 	private final List<Path> ignores;
 	private final Runnable exitJava;
+	private final ResponseCache responseCache;
+	private final Map<String, Long> serverFileSizes = new HashMap<>();
+	private final Map<Path, String> serverCheckHashes = new HashMap<>();
+	private final Map<String, String> serverVerifyHashes = new HashMap<>();
+	private final Map<String, String> serverRoots = new HashMap<>();
+	private final Map<String, SyncState.Category> checkedCategories = new LinkedHashMap<>();
+	private Optional<Long> serverGeneration = Optional.empty();
+	private int manifestCategories;
+	private boolean checkDigests = true;
+	private ClientTransport transport;
 
 	public Updater(Logger logger, InetSocketAddress address, Path patcherPath, Path clientPath, List<Path> ignores, Runnable exitJava) {
 		this.logger = logger;
 		this.address = address;
 		this.patcherPath = patcherPath;
 		this.clientPath = clientPath;
+		this.statePath = clientPath.resolve(STATE_DIRECTORY).toAbsolutePath().normalize();
 		this.ignores = ignores;
 		this.exitJava = exitJava;
+		this.responseCache = new ResponseCache(statePath.resolve("cache"));
 	}
 
 	@Override
 	public void run() {
 		Map<Path, String> globalServerHashes = new HashMap<>();
 		Map<Path, String> globalClientHashes = new HashMap<>();
-		downloadManifest().forEach((category, entry) -> {
+		Map<ManifestEntry, Map<Path, String>> manifestHashes;
+		Optional<SyncState> state = SyncState.load(getSyncStatePath()).filter(loaded -> loaded.isSameServer(getServerName()));
+		try (ClientTransport transport = ClientTransport.open(logger, address.getHostString(), address.getPort(), getCapabilities().contains(ProtocolHandler.CAPABILITY_H2C))) {
+			this.transport = transport;
+			serverGeneration = downloadGeneration();
+			if (serverGeneration.isPresent() && state.isPresent() && isUnchanged(state.get(), serverGeneration.get())) {
+				logger.log(Level.INFO, "Update server generation " + serverGeneration.get() + " not changed and no local files modified, skipping update check");
+				return;
+			}
+			manifestHashes = downloadManifestHashes();
+		}
+		// The fast digest only decides whether a local file changed, downloads stay keyed and verified by the server hashes
+		HashAlgorithm checkAlgorithm = checkDigests ? HashAlgorithm.XXH64 : HashAlgorithm.MD5;
+		// Only a check that saw every category of the manifest may be recorded for the fast path
+		boolean complete = !manifestHashes.isEmpty() && manifestHashes.size() == manifestCategories;
+		for (Map.Entry<ManifestEntry, Map<Path, String>> manifestEntry : manifestHashes.entrySet()) {
+			ManifestEntry entry = manifestEntry.getKey();
+			Map<Path, String> serverHashes = manifestEntry.getValue();
+			String category = entry.getCategory();
+			SyncState.Category checked = state.isPresent() ? state.get().getCategories().get(category) : null;
+			if (checked != null && checked.isSameTree(entry.getPath(), serverRoots.get(category), entry.getIgnoreClient()) && isUnchanged(checked)) {
+				logger.log(Level.INFO, "Category \"" + category + "\" tree and local files not modified, skipping check");
+				checkedCategories.put(category, checked);
+				continue;
+			}
 			logger.log(Level.INFO, "Checking update for category \"" + category + "\" at path \"" + entry.getPath() + "\"");
-			downloadHashes(category, entry).ifPresent(serverHashes -> {
-				serverHashes.forEach((path, hash) -> logger.log(Level.INFO, "Server respond file \"" + path + "\" with hash \"" + hash + "\""));
-				calcHashes(category, entry).ifPresent(clientHashes -> {
-					clientHashes.forEach((path, hash) -> logger.log(Level.INFO, "Client found file \"" + path + "\" with hash \"" + hash + "\""));
-					globalServerHashes.putAll(serverHashes);
-					globalClientHashes.putAll(clientHashes);
-				});
+			serverHashes.forEach((path, hash) -> logger.log(Level.INFO, "Server respond file \"" + path + "\" with hash \"" + hash + "\""));
+			// Paths ignored on the client belong to the player, they are neither hashed, removed nor updated
+			IgnoreMatcher ignoreMatcher = entry.getIgnoreClientMatcher();
+			if (!ignoreMatcher.isEmpty()) serverHashes.keySet().removeIf(path -> ignoreMatcher.matches(entry.getPath().relativize(path).toString().replace('\\', '/')));
+			serverHashes.keySet().removeIf(this::isStatePath);
+			Optional<Map<Path, String>> clientHashes = calcHashes(category, entry, checkAlgorithm);
+			if (!clientHashes.isPresent()) {
+				complete = false;
+				continue;
+			}
+			clientHashes.get().forEach((path, hash) -> logger.log(Level.INFO, "Client found file \"" + path + "\" with hash \"" + hash + "\""));
+			globalServerHashes.putAll(serverHashes);
+			globalClientHashes.putAll(clientHashes.get());
+		}
+		updateFiles(globalServerHashes, globalClientHashes, checkAlgorithm, complete);
+	}
+
+	private Optional<Long> downloadGeneration() {
+		if (!getCapabilities().contains(ProtocolHandler.CAPABILITY_GENERATION)) return Optional.empty();
+		try (ClientTransport.Response response = transport.get(Protocol.CURRENT_PROTOCOL.getHandler().getProtocolURL("generation"))) {
+			if (response.getStatus() != 200) return Optional.empty();
+			updateCapabilities(response);
+			try (InputStream in = response.getBody()) {
+				return Optional.of(Long.parseLong(new String(IOUtils.toByteArray(in), StandardCharsets.UTF_8).trim()));
+			}
+		} catch (IOException | NumberFormatException e) {
+			logger.log(Level.WARNING, "Could not download update server generation", e);
+			return Optional.empty();
+		}
+	}
+
+	private boolean isUnchanged(SyncState state, long generation) {
+		if (!state.isSameGeneration(getServerName(), generation)) return false;
+		for (SyncState.Category category : state.getCategories().values()) {
+			if (!isUnchanged(category)) return false;
+		}
+		return true;
+	}
+
+	// Walks the category without hashing anything, which is enough to notice added, removed and modified files
+	private boolean isUnchanged(SyncState.Category category) {
+		try {
+			Map<String, long[]> files = new HashMap<>();
+			for (Map.Entry<Path, long[]> file : listFiles(category.getPath(), IgnoreMatcher.compile(category.getIgnoreClient())).entrySet()) {
+				files.put(getRelativePath(category.getPath(), file.getKey()), file.getValue());
+			}
+			return category.isUnchanged(files);
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	// Categories with files to update or remove are left out, the generation is only kept when every category was up to date
+	private void saveSyncState(Set<Path> changedFiles, boolean upToDate) {
+		Map<String, SyncState.Category> categories = new LinkedHashMap<>();
+		for (Map.Entry<String, SyncState.Category> category : checkedCategories.entrySet()) {
+			Path categoryPath = category.getValue().getPath().toAbsolutePath().normalize();
+			boolean changed = false;
+			for (Path file : changedFiles) {
+				if (file.toAbsolutePath().normalize().startsWith(categoryPath)) {
+					changed = true;
+					break;
+				}
+			}
+			if (!changed) categories.put(category.getKey(), category.getValue());
+		}
+		if (categories.isEmpty()) return;
+		long generation = upToDate && serverGeneration.isPresent() ? serverGeneration.get() : SyncState.NO_GENERATION;
+		try {
+			new SyncState(getServerName(), generation, categories).save(getSyncStatePath());
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Could not save update state", e);
+		}
+	}
+
+	private Path getSyncStatePath() {
+		return statePath.resolve("sync.state");
+	}
+
+	private String getServerName() {
+		return address.getHostString() + ":" + address.getPort();
+	}
+
+	private Map<ManifestEntry, Map<Path, String>> downloadManifestHashes() {
+		if (getCapabilities().contains(ProtocolHandler.CAPABILITY_TREE)) {
+			Map<ManifestEntry, Map<Path, String>> manifestHashes = new LinkedHashMap<>();
+			downloadManifest().forEach((category, entry) -> {
+				Optional<Map<Path, String>> serverHashes = serverRoots.containsKey(category) ? downloadTree(category, entry, serverRoots.get(category)) : Optional.empty();
+				if (!serverHashes.isPresent()) serverHashes = downloadHashes(category, entry);
+				serverHashes.ifPresent(hashes -> manifestHashes.put(entry, hashes));
 			});
-		});
-		updateFiles(globalServerHashes, globalClientHashes);
+			return manifestHashes;
+		}
+		if (getCapabilities().contains(ProtocolHandler.CAPABILITY_ALL)) {
+			Optional<Map<ManifestEntry, Map<Path, String>>> all = downloadAll();
+			if (all.isPresent()) return all.get();
+			logger.log(Level.INFO, "Falling back to separate manifest and hashes requests");
+		}
+		Map<ManifestEntry, Map<Path, String>> manifestHashes = new LinkedHashMap<>();
+		downloadManifest().forEach((category, entry) -> downloadHashes(category, entry).ifPresent(serverHashes -> manifestHashes.put(entry, serverHashes)));
+		return manifestHashes;
+	}
+
+	private Optional<Map<ManifestEntry, Map<Path, String>>> downloadAll() {
+		logger.log(Level.INFO, "Downloading manifest and all category hashes...");
+
+		try {
+			Optional<InputStream> response = openCachedResource(Protocol.CURRENT_PROTOCOL.getHandler().getProtocolURL("all") + getDigestsQuery("?"));
+			if (!response.isPresent()) return Optional.empty();
+			try (HashListReader reader = new HashListReader(response.get())) {
+				return parseAll(reader);
+			} catch (IllegalStateException e) {
+				logger.log(Level.WARNING, "Illegal hashes format", e);
+				return Optional.empty();
+			}
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Could not download manifest and hashes", e);
+			return Optional.empty();
+		}
+	}
+
+	private Optional<Map<ManifestEntry, Map<Path, String>>> parseAll(HashListReader reader) throws IOException {
+		reader.readAllHeader();
+		Map<String, ManifestEntry> entryMap;
+		try (JsonReader json = new JsonReader(new InputStreamReader(new ByteArrayInputStream(reader.readBlock()), StandardCharsets.UTF_8))) {
+			entryMap = parseManifest(json);
+		}
+		if (entryMap.isEmpty()) return Optional.empty();
+		Map<ManifestEntry, Map<Path, String>> manifestHashes = new LinkedHashMap<>();
+		long count = reader.readVarLong();
+		for (long i = 0; i < count; i++) {
+			ManifestEntry entry = entryMap.get(reader.readString());
+			long length = reader.readVarLong();
+			if (entry == null) {
+				reader.skip(length);
+				continue;
+			}
+			Optional<Map<Path, String>> hashes = parseHashes(reader, entry);
+			if (!hashes.isPresent()) return Optional.empty();
+			manifestHashes.put(entry, hashes.get());
+		}
+		return Optional.of(manifestHashes);
+	}
+
+	private Set<String> getCapabilities() {
+		Optional<String> capabilities = responseCache.getValue(CAPABILITIES_KEY);
+		if (!capabilities.isPresent()) return Collections.emptySet();
+		Set<String> result = new HashSet<>();
+		for (String capability : capabilities.get().split(",")) {
+			if (!capability.trim().isEmpty()) result.add(capability.trim());
+		}
+		return result;
+	}
+
+	private void updateCapabilities(ClientTransport.Response response) {
+		String capabilities = response.getHeader(ProtocolHandler.CAPABILITIES_HEADER);
+		try {
+			responseCache.putValue(CAPABILITIES_KEY, capabilities == null ? "" : capabilities);
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Could not save update server capabilities", e);
+		}
 	}
 
 	private Map<String, ManifestEntry> downloadManifest() {
 		logger.log(Level.INFO, "Downloading manifest...");
 
 		try {
-			URLConnection connection = new URL("http", address.getHostString(), address.getPort(), Protocol.CURRENT_PROTOCOL.getHandler().getProtocolURL("manifest")).openConnection();
-			if (!(connection instanceof HttpURLConnection)) {
-				logger.log(Level.WARNING, "Could not contact update server");
+			Optional<InputStream> response = openCachedResource(Protocol.CURRENT_PROTOCOL.getHandler().getProtocolURL("manifest"));
+			if (!response.isPresent()) return Collections.emptyMap();
+			try (JsonReader json = new JsonReader(new InputStreamReader(response.get(), StandardCharsets.UTF_8))) {
+				return parseManifest(json);
+			} catch (IllegalStateException e) {
+				logger.log(Level.WARNING, "Illegal hashes format", e);
 				return Collections.emptyMap();
 			}
-			HttpURLConnection http = (HttpURLConnection) connection;
-			try {
-				http.setRequestMethod("GET");
-				http.connect();
-				if (http.getResponseCode() != 200) {
-					logger.log(Level.WARNING, "Could not contact update server, response code = " + http.getResponseCode());
-					return Collections.emptyMap();
-				}
-				try (JsonReader json = new JsonReader(new InputStreamReader(http.getInputStream(), StandardCharsets.UTF_8))) {
-					return parseManifest(json);
-				} catch (IllegalStateException e) {
-					logger.log(Level.WARNING, "Illegal hashes format", e);
-					return Collections.emptyMap();
-				}
-			} finally {
-				http.disconnect();
-			}
 		} catch (IOException e) {
 			logger.log(Level.WARNING, "Could not download manifest", e);
 			return Collections.emptyMap();
 		}
 	}
 
+	private Optional<InputStream> openCachedResource(String file) throws IOException {
+		Map<String, String> headers = new HashMap<>();
+		headers.put("Accept-Encoding", "gzip");
+		Optional<String> cachedETag = responseCache.getETag(file);
+		cachedETag.ifPresent(etag -> headers.put("If-None-Match", etag));
+		try (ClientTransport.Response response = transport.get(file, headers)) {
+			if (response.getStatus() != HttpURLConnection.HTTP_NOT_FOUND) updateCapabilities(response);
+			if (response.getStatus() == HttpURLConnection.HTTP_NOT_MODIFIED && cachedETag.isPresent()) {
+				logger.log(Level.INFO, "Resource \"" + file + "\" not modified, using cached response");
+				return Optional.of(responseCache.openBody(file));
+			}
+			if (response.getStatus() != 200) {
+				logger.log(Level.WARNING, "Could not contact update server, response code = " + response.getStatus());
+				return Optional.empty();
+			}
+			try (InputStream in = "gzip".equalsIgnoreCase(response.getHeader("Content-Encoding")) ? new GZIPInputStream(response.getBody()) : response.getBody()) {
+				return Optional.of(responseCache.store(file, response.getHeader("ETag"), in));
+			}
+		}
+	}
+
 	private Map<String, ManifestEntry> parseManifest(JsonReader json) throws IOException {
 		Map<String, ManifestEntry> entryMap = new HashMap<>();
 		json.beginArray();
@@ -103,6 +321,7 @@ public final class Updater implements Runnable {
 			json.beginObject();
 			String category = null;
 			Path path = null;
+			String root = null;
 			List<String> ignoreClient = new ArrayList<>();
 			while (json.hasNext()) {
 				switch (json.nextName()) {
@@ -125,6 +344,9 @@ public final class Updater implements Runnable {
 					}
 					json.endArray();
 					break;
+				case "root":
+					root = json.nextString();
+					break;
 				default:
 					json.skipValue();
 				}
@@ -135,107 +357,221 @@ public final class Updater implements Runnable {
 			}
 			ManifestEntry entry = new ManifestEntry(category, path, new ArrayList<>(), ignoreClient);
 			entryMap.put(category, entry);
+			if (root != null) serverRoots.put(category, root);
 			json.endObject();
 		}
 		json.endArray();
+		manifestCategories = entryMap.size();
 		return entryMap;
 	}
 
 	private Optional<Map<Path, String>> downloadHashes(String category, ManifestEntry entry) {
+		Optional<Map<String, TreeCache.Record>> records = downloadRecords(category);
+		return records.isPresent() ? toServerHashes(entry, records.get()) : Optional.empty();
+	}
+
+	private Optional<Map<String, TreeCache.Record>> downloadRecords(String category) {
 		logger.log(Level.INFO, "Downloading category \"" + category + "\" hashes...");
 
 		try {
-			URLConnection connection = new URL("http", address.getHostString(), address.getPort(), Protocol.CURRENT_PROTOCOL.getHandler().getProtocolURL("hashes") + "?category=" + URLEncoder.encode(category, "UTF-8")).openConnection();
-			if (!(connection instanceof HttpURLConnection)) {
-				logger.log(Level.WARNING, "Could not contact update server");
+			Optional<InputStream> response = openCachedResource(Protocol.CURRENT_PROTOCOL.getHandler().getProtocolURL("hashes") + "?category=" + URLEncoder.encode(category, "UTF-8") + getDigestsQuery("&"));
+			if (!response.isPresent()) return Optional.empty();
+			try (HashListReader reader = new HashListReader(response.get())) {
+				return Optional.of(parseRecords(reader));
+			}
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Could not download category \"" + category + "\" hashes", e);
+			return Optional.empty();
+		}
+	}
+
+	private Optional<Map<Path, String>> parseHashes(HashListReader reader, ManifestEntry entry) throws IOException {
+		return toServerHashes(entry, parseRecords(reader));
+	}
+
+	private static Map<String, TreeCache.Record> parseRecords(HashListReader reader) throws IOException {
+		long count = reader.beginHashList();
+		Map<String, TreeCache.Record> records = new HashMap<>((int) Math.min(count * 4 / 3 + 1, 1 << 20));
+		while (reader.next()) {
+			String checkHash = reader.hasHash(HashAlgorithm.XXH64) ? reader.getHash(HashAlgorithm.XXH64) : null;
+			String verifyHash = reader.hasHash(HashAlgorithm.SHA256) ? reader.getHash(HashAlgorithm.SHA256) : null;
+			records.put(reader.getPath(), new TreeCache.Record(reader.getHash(), reader.getSize(), checkHash, verifyHash));
+		}
+		return records;
+	}
+
+	private Optional<Map<Path, String>> toServerHashes(ManifestEntry entry, Map<String, TreeCache.Record> records) {
+		Map<Path, String> hashes = new HashMap<>((int) Math.min(records.size() * 4L / 3L + 1L, 1 << 20));
+		for (Map.Entry<String, TreeCache.Record> file : records.entrySet()) {
+			Path path;
+			try {
+				path = entry.getPath().resolve(Paths.get(file.getKey()));
+			} catch (InvalidPathException e) {
+				logger.log(Level.WARNING, "Illegal hashes format", e);
 				return Optional.empty();
 			}
-			HttpURLConnection http = (HttpURLConnection) connection;
+			TreeCache.Record record = file.getValue();
+			addServerFile(hashes, path, record.getHash(), record.getSize(), record.getCheckHash(), record.getVerifyHash());
+		}
+		return Optional.of(hashes);
+	}
+
+	private void addServerFile(Map<Path, String> hashes, Path path, String hash, long size, String checkHash, String verifyHash) {
+		hashes.put(path, hash);
+		serverFileSizes.put(hash, size);
+		if (checkHash != null) {
+			serverCheckHashes.put(path, checkHash);
+		} else {
+			checkDigests = false;
+		}
+		if (verifyHash != null) serverVerifyHashes.put(hash, verifyHash);
+	}
+
+	private Optional<Map<Path, String>> downloadTree(String category, ManifestEntry entry, String root) {
+		Path cachePath = statePath.resolve("trees").resolve(DigestUtils.md5Hex(category) + ".tree");
+		Optional<TreeCache> cached = TreeCache.load(cachePath);
+		TreeCache tree;
+		if (cached.isPresent() && cached.get().getRoot().equals(root)) {
+			logger.log(Level.INFO, "Category \"" + category + "\" tree not modified, using cached hashes");
+			tree = cached.get();
+		} else if (!cached.isPresent()) {
+			// Walking a whole tree costs a request per directory, the full list is one request and the tree is built from it
+			Optional<Map<String, TreeCache.Record>> records = downloadRecords(category);
+			if (!records.isPresent()) return Optional.empty();
 			try {
-				http.setRequestMethod("GET");
-				http.connect();
-				if (http.getResponseCode() != 200) {
-					logger.log(Level.WARNING, "Could not contact update server, response code = " + http.getResponseCode());
-					return Optional.empty();
-				}
-				try (JsonReader json = new JsonReader(new InputStreamReader(http.getInputStream(), StandardCharsets.UTF_8))) {
-					return parseHashes(json, entry);
-				} catch (IllegalStateException e) {
-					logger.log(Level.WARNING, "Illegal hashes format", e);
-					return Optional.empty();
-				}
-			} finally {
-				http.disconnect();
+				tree = TreeCache.build(records.get());
+			} catch (IllegalArgumentException e) {
+				logger.log(Level.WARNING, "Illegal hashes format", e);
+				return Optional.empty();
+			}
+			if (tree.getRoot().equals(root)) {
+				saveTree(category, tree, cachePath);
+			} else {
+				logger.log(Level.WARNING, "Category \"" + category + "\" changed while synchronizing tree");
+			}
+		} else {
+			logger.log(Level.INFO, "Synchronizing category \"" + category + "\" tree...");
+			try {
+				Optional<TreeCache> synced = syncTree(category, root, cached);
+				if (!synced.isPresent()) return Optional.empty();
+				tree = synced.get();
+			} catch (IOException e) {
+				logger.log(Level.WARNING, "Could not synchronize category \"" + category + "\" tree", e);
+				return Optional.empty();
 			}
+			saveTree(category, tree, cachePath);
+		}
+		return toServerHashes(entry, tree.getFiles());
+	}
+
+	private void saveTree(String category, TreeCache tree, Path cachePath) {
+		try {
+			tree.save(cachePath);
 		} catch (IOException e) {
-			logger.log(Level.WARNING, "Could not download category \"" + category + "\" hashes", e);
-			return Optional.empty();
+			logger.log(Level.WARNING, "Could not save category \"" + category + "\" tree", e);
 		}
 	}
 
-	private Optional<Map<Path, String>> parseHashes(JsonReader json, ManifestEntry entry) throws IOException {
-		Map<Path, String> hashes = new HashMap<>();
-		json.beginArray();
-		while (json.hasNext()) {
-			json.beginObject();
-			Path path = null;
-			String hash = null;
-			while (json.hasNext()) {
-				switch (json.nextName()) {
-				case "path":
-					try {
-						path = entry.getPath().resolve(Paths.get(json.nextString()));
-					} catch (InvalidPathException e) {
-						logger.log(Level.WARNING, "Illegal hashes format", e);
+	// Walks the server tree breadth first, directories whose hash matches the cached one are not requested again
+	private Optional<TreeCache> syncTree(String category, String root, Optional<TreeCache> cached) throws IOException {
+		Map<String, String> directories = new HashMap<>();
+		Map<String, TreeCache.Record> files = new HashMap<>();
+		Deque<String> pending = new ArrayDeque<>();
+		directories.put("", root);
+		pending.add("");
+		int requests = 0;
+		while (!pending.isEmpty()) {
+			String directory = pending.poll();
+			String file = Protocol.CURRENT_PROTOCOL.getHandler().getProtocolURL("tree") + "?category=" + URLEncoder.encode(category, "UTF-8") + "&path=" + URLEncoder.encode(directory, "UTF-8") + getDigestsQuery("&");
+			requests++;
+			try (ClientTransport.Response response = transport.get(file)) {
+				if (response.getStatus() != 200) {
+					logger.log(Level.WARNING, "Could not download category \"" + category + "\" tree, response code = " + response.getStatus());
+					return Optional.empty();
+				}
+				updateCapabilities(response);
+				try (HashListReader reader = new HashListReader(response.getBody())) {
+					reader.readTreeHeader();
+					String hash = Hex.encodeHexString(reader.readBlock());
+					if (!hash.equals(directories.get(directory))) {
+						logger.log(Level.WARNING, "Category \"" + category + "\" changed while synchronizing tree");
 						return Optional.empty();
 					}
-					break;
-				case "hash":
-					hash = json.nextString();
-					break;
-				default:
-					json.skipValue();
+					long count = reader.readVarLong();
+					for (long i = 0; i < count; i++) {
+						String name = reader.readString();
+						String child = directory.isEmpty() ? name : directory + "/" + name;
+						String childHash = Hex.encodeHexString(reader.readBlock());
+						if (cached.isPresent() && childHash.equals(cached.get().getDirectories().get(child))) {
+							cached.get().copySubtree(child, directories, files);
+						} else {
+							directories.put(child, childHash);
+							pending.add(child);
+						}
+					}
+					reader.beginHashList();
+					while (reader.next()) {
+						String checkHash = reader.hasHash(HashAlgorithm.XXH64) ? reader.getHash(HashAlgorithm.XXH64) : null;
+						String verifyHash = reader.hasHash(HashAlgorithm.SHA256) ? reader.getHash(HashAlgorithm.SHA256) : null;
+						files.put(reader.getPath(), new TreeCache.Record(reader.getHash(), reader.getSize(), checkHash, verifyHash));
+					}
 				}
 			}
-			if (path == null || hash == null) {
-				logger.log(Level.WARNING, "Illegal hashes format");
-				return Optional.empty();
-			}
-			hashes.put(path, hash);
-			json.endObject();
 		}
-		json.endArray();
-		return Optional.of(hashes);
+		logger.log(Level.INFO, "Synchronized category \"" + category + "\" tree with " + requests + " requests");
+		return Optional.of(new TreeCache(root, directories, files));
 	}
 
-	private Optional<Map<Path, String>> calcHashes(String category, ManifestEntry entry) {
+	private Optional<Map<Path, String>> calcHashes(String category, ManifestEntry entry, HashAlgorithm algorithm) {
 		logger.log(Level.INFO, "Calculating category \"" + category + "\" file hashes...");
 
 		Map<Path, String> hashes = new HashMap<>();
+		Map<String, long[]> checkedFiles = new HashMap<>();
+		Path categoryPath = entry.getPath();
 		try {
-			if (Files.exists(entry.getPath())) {
-				for (Path path : (Iterable<? extends Path>) Files.walk(entry.getPath())::iterator) {
-					if (!Files.isRegularFile(path)) continue;
-					String relativePath = entry.getPath().relativize(path).toString().replace('\\', '/');
-					if (entry.getIgnoreServer().stream().anyMatch(ignore -> PathUtils.matchWildcard(relativePath, ignore.replace('\\', '/')))) continue;
-					String hash;
-					try (InputStream stream = Files.newInputStream(path)) {
-						hash = DigestUtils.md5Hex(stream);
-					} catch (IOException e) {
-						logger.log(Level.WARNING, "Could not calculate file hash", e);
-						continue;
-					}
-					hashes.put(path, hash);
+			for (Map.Entry<Path, long[]> file : listFiles(categoryPath, entry.getIgnoreClientMatcher()).entrySet()) {
+				String hash;
+				try (InputStream stream = Files.newInputStream(file.getKey())) {
+					hash = algorithm.hashHex(stream);
+				} catch (IOException e) {
+					logger.log(Level.WARNING, "Could not calculate file hash", e);
+					continue;
 				}
+				hashes.put(file.getKey(), hash);
+				checkedFiles.put(getRelativePath(categoryPath, file.getKey()), file.getValue());
 			}
 		} catch (IOException e) {
 			logger.log(Level.WARNING, "Error occurred while calculating category \"" + category + "\" file hashes", e);
 			return Optional.empty();
 		}
+		checkedCategories.put(category, new SyncState.Category(categoryPath, serverRoots.get(category), entry.getIgnoreClient(), checkedFiles));
 		return Optional.of(hashes);
 	}
 
-	private void updateFiles(Map<Path, String> serverHashes, Map<Path, String> clientHashes) {
+	// Files the updater manages in a category with their size and modification time, client ignores are never even looked at
+	private Map<Path, long[]> listFiles(Path categoryPath, IgnoreMatcher ignoreMatcher) throws IOException {
+		Map<Path, long[]> files = new LinkedHashMap<>();
+		if (!Files.exists(categoryPath)) return files;
+		Files.walkFileTree(categoryPath, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+				if (isStatePath(dir)) return FileVisitResult.SKIP_SUBTREE;
+				if (!dir.equals(categoryPath) && ignoreMatcher.matchesDirectory(getRelativePath(categoryPath, dir))) return FileVisitResult.SKIP_SUBTREE;
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				if (!attrs.isRegularFile() && !(attrs.isSymbolicLink() && Files.isRegularFile(file))) return FileVisitResult.CONTINUE;
+				if (ignoreMatcher.matches(getRelativePath(categoryPath, file))) return FileVisitResult.CONTINUE;
+				files.put(file, attrs.isRegularFile() ? SyncState.readMetadata(attrs) : SyncState.readMetadata(file));
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		return files;
+	}
+
+	private void updateFiles(Map<Path, String> serverHashes, Map<Path, String> clientHashes, HashAlgorithm checkAlgorithm, boolean complete) {
 		logger.log(Level.INFO, "Calculating file differences...");
 
 		Map<Path, String> filesToRemove;
@@ -246,11 +582,19 @@ public final class Updater implements Runnable {
 		filesToRemove.keySet().removeIf(ignores::contains);
 
 		filesToUpdate = new HashMap<>(serverHashes);
-		filesToUpdate.entrySet().removeAll(clientHashes.entrySet());
+		Map<Path, String> checkHashes = checkAlgorithm == HashAlgorithm.MD5 ? serverHashes : serverCheckHashes;
+		filesToUpdate.keySet().removeIf(path -> {
+			String checkHash = checkHashes.get(path);
+			return checkHash != null && checkHash.equals(clientHashes.get(path));
+		});
 
 		filesToRemove.keySet().forEach(path -> logger.log(Level.INFO, "Found file \"" + path + "\" to remove"));
 		filesToUpdate.keySet().forEach(path -> logger.log(Level.INFO, "Found file \"" + path + "\" to update"));
 
+		Set<Path> changedFiles = new HashSet<>(filesToRemove.keySet());
+		changedFiles.addAll(filesToUpdate.keySet());
+		saveSyncState(changedFiles, complete && changedFiles.isEmpty());
+
 		if (filesToRemove.isEmpty() && filesToUpdate.isEmpty()) {
 			logger.log(Level.INFO, "No updates found");
 			return;
@@ -274,6 +618,8 @@ public final class Updater implements Runnable {
 		try {
 			String javaHome = System.getProperty("java.home");
         	String javaBin = javaHome + File.separator + "bin" + File.separator + "java";
+			Map<Path, Path> deltaBases = findDeltaBases(filesToUpdate, clientHashes, filesToRemove);
+			Set<String> capabilities = getCapabilities();
 			Process process = Runtime.getRuntime().exec(new String[] { javaBin, "-cp" , patcherPath.toAbsolutePath().toString(), Patcher.class.getName() });
 			try (DataOutputStream stream = new DataOutputStream(process.getOutputStream())) {
 				stream.writeUTF(address.getHostString());
@@ -288,6 +634,31 @@ public final class Updater implements Runnable {
 				for (Map.Entry<Path, String> entry : filesToUpdate.entrySet()) {
 					stream.writeUTF(entry.getKey().toString());
 					stream.writeUTF(entry.getValue());
+					stream.writeLong(serverFileSizes.getOrDefault(entry.getValue(), -1L));
+					Path deltaBase = deltaBases.get(entry.getKey());
+					stream.writeUTF(deltaBase == null ? "" : deltaBase.toString());
+					stream.writeUTF(deltaBase == null ? "" : getDeltaBaseHash(deltaBase, clientHashes, checkAlgorithm));
+				}
+				stream.writeUTF(capabilities.contains(ProtocolHandler.CAPABILITY_BATCH) ? Protocol.CURRENT_PROTOCOL.getHandler().getProtocolURL("batch") : "");
+				stream.writeUTF(capabilities.contains(ProtocolHandler.CAPABILITY_DELTA) ? Protocol.CURRENT_PROTOCOL.getHandler().getProtocolURL("delta") : "");
+				stream.writeUTF(capabilities.contains(ProtocolHandler.CAPABILITY_CHUNKS) ? Protocol.CURRENT_PROTOCOL.getHandler().getProtocolURL("chunks") : "");
+				stream.writeUTF(capabilities.contains(ProtocolHandler.CAPABILITY_CHUNKS) ? Protocol.CURRENT_PROTOCOL.getHandler().getProtocolURL("chunk") : "");
+				stream.writeInt(clientHashes.size());
+				for (Path path : clientHashes.keySet()) {
+					stream.writeUTF(path.toString());
+				}
+				stream.writeBoolean(capabilities.contains(ProtocolHandler.CAPABILITY_H2C));
+				stream.writeUTF(serverVerifyHashes.isEmpty() ? "" : HashAlgorithm.SHA256.getName());
+				int verifyCount = 0;
+				for (String hash : filesToUpdate.values()) {
+					if (serverVerifyHashes.containsKey(hash)) verifyCount++;
+				}
+				stream.writeInt(verifyCount);
+				for (String hash : filesToUpdate.values()) {
+					String verifyHash = serverVerifyHashes.get(hash);
+					if (verifyHash == null) continue;
+					stream.writeUTF(hash);
+					stream.writeUTF(verifyHash);
 				}
 			}
 		} catch (IOException e) {
@@ -296,4 +667,60 @@ public final class Updater implements Runnable {
 		}
 		exitJava.run();
 	}
+
+	private Map<Path, Path> findDeltaBases(Map<Path, String> filesToUpdate, Map<Path, String> clientHashes, Map<Path, String> filesToRemove) {
+		Map<Path, Path> deltaBases = new HashMap<>();
+		for (Path path : filesToUpdate.keySet()) {
+			if (clientHashes.containsKey(path)) {
+				deltaBases.put(path, path);
+				continue;
+			}
+			String name = path.getFileName().toString();
+			Path bestBase = null;
+			int bestPrefix = MIN_RENAME_PREFIX - 1;
+			for (Path removed : filesToRemove.keySet()) {
+				if (!Objects.equals(removed.getParent(), path.getParent())) continue;
+				String removedName = removed.getFileName().toString();
+				if (!getExtension(removedName).equals(getExtension(name))) continue;
+				int prefix = 0;
+				while (prefix < name.length() && prefix < removedName.length() && name.charAt(prefix) == removedName.charAt(prefix)) prefix++;
+				if (prefix > bestPrefix) {
+					bestBase = removed;
+					bestPrefix = prefix;
+				}
+			}
+			if (bestBase != null) deltaBases.put(path, bestBase);
+		}
+		return deltaBases;
+	}
+
+	// Deltas are stored under the md5 download hash, so the base is hashed again when a faster digest was compared
+	private String getDeltaBaseHash(Path deltaBase, Map<Path, String> clientHashes, HashAlgorithm checkAlgorithm) {
+		if (checkAlgorithm == HashAlgorithm.MD5) return clientHashes.get(deltaBase);
+		try (InputStream stream = Files.newInputStream(deltaBase)) {
+			return HashAlgorithm.MD5.hashHex(stream);
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Could not calculate delta base hash", e);
+			return "";
+		}
+	}
+
+	// The updater keeps its state inside the game directory, a category rooted there must neither hash, update nor remove it
+	private boolean isStatePath(Path path) {
+		return path.toAbsolutePath().normalize().startsWith(statePath);
+	}
+
+	private static String getRelativePath(Path categoryPath, Path path) {
+		return categoryPath.relativize(path).toString().replace('\\', '/');
+	}
+
+	private String getDigestsQuery(String separator) {
+		if (!getCapabilities().contains(ProtocolHandler.CAPABILITY_DIGESTS)) return "";
+		return separator + HashListFormat.DIGESTS_PARAMETER + "=" + HashAlgorithm.XXH64.getName() + "," + HashAlgorithm.SHA256.getName();
+	}
+
+	private static String getExtension(String name) {
+		int dot = name.lastIndexOf('.');
+		return dot < 0 ? "" : name.substring(dot);
+	}
 }
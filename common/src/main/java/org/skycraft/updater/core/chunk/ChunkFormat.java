@@ -0,0 +1,14 @@
+package org.skycraft.updater.core.chunk;
+
+public final class ChunkFormat {
+	public static final int LIST_MAGIC = 0x5343434c;
+	public static final int DATA_MAGIC = 0x53434344;
+	public static final int VERSION = 1;
+	public static final String LIST_CONTENT_TYPE = "application/x-skycraft-chunks";
+	public static final String DATA_CONTENT_TYPE = "application/x-skycraft-chunk-data";
+	public static final long MIN_FILE_BYTES = 1024L * 1024L;
+	public static final long MAX_FILE_BYTES = Integer.MAX_VALUE;
+
+	private ChunkFormat() {
+	}
+}
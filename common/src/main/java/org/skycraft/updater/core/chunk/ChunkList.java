@@ -0,0 +1,110 @@
+package org.skycraft.updater.core.chunk;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.skycraft.updater.utils.VarIntUtils;
+
+public final class ChunkList {
+	private static final int DIGEST_BYTES = 16;
+
+	private final int[] lengths;
+	private final long[] offsets;
+	private final byte[] digests;
+
+	private ChunkList(int[] lengths, byte[] digests) {
+		this.lengths = lengths;
+		this.digests = digests;
+		this.offsets = new long[lengths.length];
+		long offset = 0L;
+		for (int i = 0; i < lengths.length; i++) {
+			offsets[i] = offset;
+			offset += lengths[i];
+		}
+	}
+
+	public int size() {
+		return lengths.length;
+	}
+
+	public long getOffset(int index) {
+		return offsets[index];
+	}
+
+	public int getLength(int index) {
+		return lengths[index];
+	}
+
+	public String getDigest(int index) {
+		return Hex.encodeHexString(Arrays.copyOfRange(digests, index * DIGEST_BYTES, (index + 1) * DIGEST_BYTES));
+	}
+
+	public byte[] encode() {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(8 + lengths.length * (DIGEST_BYTES + 3));
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeInt(ChunkFormat.LIST_MAGIC);
+			out.writeByte(ChunkFormat.VERSION);
+			VarIntUtils.writeVarLong(out, lengths.length);
+			for (int i = 0; i < lengths.length; i++) {
+				VarIntUtils.writeVarLong(out, lengths[i]);
+				out.write(digests, i * DIGEST_BYTES, DIGEST_BYTES);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	public static ChunkList decode(InputStream stream) throws IOException {
+		DataInputStream in = new DataInputStream(stream);
+		if (in.readInt() != ChunkFormat.LIST_MAGIC || in.readUnsignedByte() != ChunkFormat.VERSION) throw new IOException("Illegal chunk list header");
+		long count = VarIntUtils.readVarLong(in);
+		if (count < 0L || count > ChunkFormat.MAX_FILE_BYTES / FastCdc.MIN_CHUNK_BYTES + 1L) throw new IOException("Illegal chunk count " + count);
+		int[] lengths = new int[(int) count];
+		byte[] digests = new byte[(int) count * DIGEST_BYTES];
+		for (int i = 0; i < lengths.length; i++) {
+			long length = VarIntUtils.readVarLong(in);
+			if (length <= 0L || length > FastCdc.MAX_CHUNK_BYTES) throw new IOException("Illegal chunk length " + length);
+			lengths[i] = (int) length;
+			in.readFully(digests, i * DIGEST_BYTES, DIGEST_BYTES);
+		}
+		return new ChunkList(lengths, digests);
+	}
+
+	public static ChunkList compute(Path path, String expectedHash) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (channel.size() > ChunkFormat.MAX_FILE_BYTES) throw new IOException("File too large for chunking");
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0L, channel.size());
+			int length = buffer.capacity();
+			int[] lengths = new int[length / FastCdc.MIN_CHUNK_BYTES + 1];
+			byte[] digests = new byte[lengths.length * DIGEST_BYTES];
+			MessageDigest fileDigest = DigestUtils.getMd5Digest();
+			MessageDigest chunkDigest = DigestUtils.getMd5Digest();
+			int count = 0;
+			for (int offset = 0; offset < length; count++) {
+				int chunkLength = FastCdc.nextChunkLength(buffer, offset, length - offset);
+				ByteBuffer chunk = buffer.duplicate();
+				chunk.position(offset);
+				chunk.limit(offset + chunkLength);
+				fileDigest.update(chunk.duplicate());
+				chunkDigest.update(chunk);
+				System.arraycopy(chunkDigest.digest(), 0, digests, count * DIGEST_BYTES, DIGEST_BYTES);
+				lengths[count] = chunkLength;
+				offset += chunkLength;
+			}
+			if (expectedHash != null && !Hex.encodeHexString(fileDigest.digest()).equals(expectedHash)) throw new IOException("File changed since it was hashed");
+			return new ChunkList(Arrays.copyOf(lengths, count), Arrays.copyOf(digests, count * DIGEST_BYTES));
+		}
+	}
+}
@@ -0,0 +1,87 @@
+package org.skycraft.updater.core.chunk;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+public final class ChunkStore {
+	private static final Pattern HASH_PATTERN = Pattern.compile("[0-9a-f]{32}");
+	private static final String CHUNKS_SUFFIX = ".chunks";
+
+	private final Logger logger;
+	private final Path cachePath;
+	private final Map<String, ChunkList> chunkLists = new ConcurrentHashMap<>();
+
+	public ChunkStore(Logger logger, Path cachePath) {
+		this.logger = logger;
+		this.cachePath = cachePath;
+	}
+
+	public Optional<ChunkList> getChunks(String hash, Path path) {
+		ChunkList chunkList = chunkLists.get(hash);
+		if (chunkList != null) return Optional.of(chunkList);
+		if (!HASH_PATTERN.matcher(hash).matches()) return Optional.empty();
+		Path chunksPath = cachePath.resolve(hash + CHUNKS_SUFFIX);
+		try (InputStream in = Files.newInputStream(chunksPath)) {
+			chunkList = ChunkList.decode(in);
+		} catch (NoSuchFileException e) {
+			// Not chunked yet
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Could not load chunk list of \"" + hash + "\", chunking it again", e);
+		}
+		if (chunkList == null) {
+			try {
+				chunkList = ChunkList.compute(path, hash);
+			} catch (IOException e) {
+				logger.log(Level.WARNING, "Could not chunk file \"" + path + "\"", e);
+				return Optional.empty();
+			}
+			save(chunksPath, chunkList);
+		}
+		chunkLists.put(hash, chunkList);
+		return Optional.of(chunkList);
+	}
+
+	public void prune(Map<String, Path> currentFiles) {
+		chunkLists.keySet().retainAll(currentFiles.keySet());
+		if (!Files.isDirectory(cachePath)) return;
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(cachePath, "*" + CHUNKS_SUFFIX)) {
+			for (Path file : files) {
+				String name = file.getFileName().toString();
+				if (!currentFiles.containsKey(name.substring(0, name.length() - CHUNKS_SUFFIX.length()))) Files.deleteIfExists(file);
+			}
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Could not prune chunk lists", e);
+		}
+	}
+
+	private void save(Path chunksPath, ChunkList chunkList) {
+		try {
+			Files.createDirectories(cachePath);
+			Path tempPath = Files.createTempFile(cachePath, chunksPath.getFileName().toString(), ".tmp");
+			try {
+				Files.write(tempPath, chunkList.encode());
+				try {
+					Files.move(tempPath, chunksPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				} catch (AtomicMoveNotSupportedException e) {
+					Files.move(tempPath, chunksPath, StandardCopyOption.REPLACE_EXISTING);
+				}
+			} finally {
+				Files.deleteIfExists(tempPath);
+			}
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Could not save chunk list", e);
+		}
+	}
+}
@@ -0,0 +1,44 @@
+package org.skycraft.updater.core.chunk;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+public final class FastCdc {
+	public static final int MIN_CHUNK_BYTES = 16 * 1024;
+	public static final int AVG_CHUNK_BYTES = 64 * 1024;
+	public static final int MAX_CHUNK_BYTES = 256 * 1024;
+	// The table must never change, chunk boundaries of both sides depend on it
+	private static final long GEAR_SEED = 0x5343_4344_4331L;
+	private static final long[] GEAR = new long[256];
+	private static final long MASK_SMALL;
+	private static final long MASK_LARGE;
+	static {
+		Random random = new Random(GEAR_SEED);
+		for (int i = 0; i < GEAR.length; i++) {
+			GEAR[i] = random.nextLong();
+		}
+		int bits = Integer.numberOfTrailingZeros(AVG_CHUNK_BYTES);
+		MASK_SMALL = ((1L << (bits + 1)) - 1L) << (64 - (bits + 1));
+		MASK_LARGE = ((1L << (bits - 1)) - 1L) << (64 - (bits - 1));
+	}
+
+	private FastCdc() {
+	}
+
+	public static int nextChunkLength(ByteBuffer buffer, int offset, int remaining) {
+		if (remaining <= MIN_CHUNK_BYTES) return remaining;
+		int limit = Math.min(remaining, MAX_CHUNK_BYTES);
+		int normal = Math.min(limit, AVG_CHUNK_BYTES);
+		long fingerprint = 0L;
+		int i = MIN_CHUNK_BYTES;
+		for (; i < normal; i++) {
+			fingerprint = (fingerprint << 1) + GEAR[buffer.get(offset + i) & 0xFF];
+			if ((fingerprint & MASK_SMALL) == 0L) return i + 1;
+		}
+		for (; i < limit; i++) {
+			fingerprint = (fingerprint << 1) + GEAR[buffer.get(offset + i) & 0xFF];
+			if ((fingerprint & MASK_LARGE) == 0L) return i + 1;
+		}
+		return limit;
+	}
+}
@@ -0,0 +1,46 @@
+package org.skycraft.updater.core.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public abstract class ClientTransport implements Closeable {
+	public static ClientTransport open(Logger logger, String host, int port, boolean http2) {
+		if (http2) {
+			try {
+				return Http2Transport.connect(host, port);
+			} catch (IOException e) {
+				logger.log(Level.WARNING, "Could not connect to update server over HTTP/2, falling back to HTTP/1.1", e);
+			}
+		}
+		return new UrlConnectionTransport(host, port);
+	}
+
+	public Response get(String file) throws IOException {
+		return get(file, Collections.emptyMap());
+	}
+
+	public abstract Response get(String file, Map<String, String> headers) throws IOException;
+
+	public abstract Response post(String file, String contentType, byte[] content) throws IOException;
+
+	public abstract boolean isMultiplexed();
+
+	@Override
+	public abstract void close();
+
+	public abstract static class Response implements Closeable {
+		public abstract int getStatus() throws IOException;
+
+		public abstract String getHeader(String name);
+
+		public abstract InputStream getBody() throws IOException;
+
+		@Override
+		public abstract void close();
+	}
+}
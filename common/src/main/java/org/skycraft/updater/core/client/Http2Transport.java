@@ -0,0 +1,135 @@
+package org.skycraft.updater.core.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.api.Request;
+import org.eclipse.jetty.client.util.BytesContentProvider;
+import org.eclipse.jetty.client.util.InputStreamResponseListener;
+import org.eclipse.jetty.http.HttpMethod;
+import org.eclipse.jetty.http2.client.HTTP2Client;
+import org.eclipse.jetty.http2.client.http.HttpClientTransportOverHTTP2;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.eclipse.jetty.util.thread.ScheduledExecutorScheduler;
+
+public final class Http2Transport extends ClientTransport {
+	private static final long RESPONSE_TIMEOUT_SECONDS = 30L;
+
+	private final HttpClient client;
+	private final String baseURL;
+
+	private Http2Transport(HttpClient client, String baseURL) {
+		this.client = client;
+		this.baseURL = baseURL;
+	}
+
+	public static Http2Transport connect(String host, int port) throws IOException {
+		QueuedThreadPool threadPool = new QueuedThreadPool();
+		threadPool.setName("Updater Client");
+		threadPool.setDaemon(true);
+		// Cleartext prior-knowledge HTTP/2, every request becomes a stream on the same connection
+		HttpClient client = new HttpClient(new HttpClientTransportOverHTTP2(new HTTP2Client()), null);
+		client.setExecutor(threadPool);
+		client.setScheduler(new ScheduledExecutorScheduler("Updater Client Scheduler", true));
+		client.setMaxConnectionsPerDestination(1);
+		client.setFollowRedirects(false);
+		try {
+			client.start();
+		} catch (Exception e) {
+			throw new IOException("Could not start http client", e);
+		}
+		// Content encoding is handled by the callers, as with HttpURLConnection
+		client.getContentDecoderFactories().clear();
+		Http2Transport transport = new Http2Transport(client, "http://" + host + ":" + port);
+		try {
+			// Any response proves the server speaks h2c, servers without it reset the connection
+			transport.send(client.newRequest(transport.baseURL + "/").method(HttpMethod.HEAD)).close();
+		} catch (IOException e) {
+			transport.close();
+			throw e;
+		}
+		return transport;
+	}
+
+	@Override
+	public Response get(String file, Map<String, String> headers) throws IOException {
+		Request request = client.newRequest(baseURL + file).method(HttpMethod.GET);
+		headers.forEach(request::header);
+		return send(request);
+	}
+
+	@Override
+	public Response post(String file, String contentType, byte[] content) throws IOException {
+		return send(client.newRequest(baseURL + file).method(HttpMethod.POST).content(new BytesContentProvider(contentType, content)));
+	}
+
+	@Override
+	public boolean isMultiplexed() {
+		return true;
+	}
+
+	@Override
+	public void close() {
+		try {
+			client.stop();
+		} catch (Exception e) {
+			// Stopping is best effort
+		}
+	}
+
+	private Response send(Request request) throws IOException {
+		InputStreamResponseListener listener = new InputStreamResponseListener();
+		request.send(listener);
+		try {
+			return new Http2Response(listener.get(RESPONSE_TIMEOUT_SECONDS, TimeUnit.SECONDS), listener.getInputStream());
+		} catch (InterruptedException e) {
+			request.abort(e);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		} catch (TimeoutException e) {
+			request.abort(e);
+			throw new IOException("Timed out waiting for update server response", e);
+		} catch (ExecutionException e) {
+			throw new IOException("Could not contact update server", e.getCause());
+		}
+	}
+
+	private static final class Http2Response extends Response {
+		private final org.eclipse.jetty.client.api.Response response;
+		private final InputStream body;
+
+		Http2Response(org.eclipse.jetty.client.api.Response response, InputStream body) {
+			this.response = response;
+			this.body = body;
+		}
+
+		@Override
+		public int getStatus() {
+			return response.getStatus();
+		}
+
+		@Override
+		public String getHeader(String name) {
+			return response.getHeaders().get(name);
+		}
+
+		@Override
+		public InputStream getBody() {
+			return body;
+		}
+
+		@Override
+		public void close() {
+			try {
+				body.close();
+			} catch (IOException e) {
+				// Resets the stream if the body was not fully read
+			}
+		}
+	}
+}
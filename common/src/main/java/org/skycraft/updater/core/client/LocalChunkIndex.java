@@ -0,0 +1,168 @@
+package org.skycraft.updater.core.client;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.skycraft.updater.core.chunk.ChunkFormat;
+import org.skycraft.updater.core.chunk.ChunkList;
+
+public final class LocalChunkIndex {
+	private static final int MAGIC = 0x53434c49;
+	private static final int VERSION = 1;
+
+	private final Logger logger;
+	private final Path indexPath;
+	private final Map<Path, Entry> entries;
+	private final Map<String, Location> locations = new HashMap<>();
+
+	private LocalChunkIndex(Logger logger, Path indexPath, Map<Path, Entry> entries) {
+		this.logger = logger;
+		this.indexPath = indexPath;
+		this.entries = entries;
+	}
+
+	public void update(Path basePath, Collection<Path> files) {
+		Map<Path, Entry> updated = new HashMap<>();
+		for (Path file : files) {
+			Path path = basePath.resolve(file);
+			BasicFileAttributes attributes;
+			try {
+				attributes = Files.readAttributes(path, BasicFileAttributes.class);
+			} catch (IOException e) {
+				continue;
+			}
+			if (attributes.size() < ChunkFormat.MIN_FILE_BYTES || attributes.size() > ChunkFormat.MAX_FILE_BYTES) continue;
+			Entry entry = entries.get(path);
+			if (entry == null || entry.size != attributes.size() || entry.lastModified != attributes.lastModifiedTime().toMillis()) {
+				try {
+					entry = new Entry(attributes.size(), attributes.lastModifiedTime().toMillis(), ChunkList.compute(path, null));
+				} catch (IOException e) {
+					logger.log(Level.WARNING, "Could not chunk local file \"" + path + "\"", e);
+					continue;
+				}
+			}
+			updated.put(path, entry);
+		}
+		entries.clear();
+		entries.putAll(updated);
+		locations.clear();
+		for (Map.Entry<Path, Entry> mapEntry : entries.entrySet()) {
+			ChunkList chunkList = mapEntry.getValue().chunkList;
+			for (int i = 0; i < chunkList.size(); i++) {
+				locations.putIfAbsent(chunkList.getDigest(i), new Location(mapEntry.getKey(), chunkList.getOffset(i), chunkList.getLength(i)));
+			}
+		}
+	}
+
+	public Optional<Location> find(String digest) {
+		return Optional.ofNullable(locations.get(digest));
+	}
+
+	public boolean save() {
+		try {
+			Files.createDirectories(indexPath.toAbsolutePath().getParent());
+			Path tempPath = Files.createTempFile(indexPath.toAbsolutePath().getParent(), indexPath.getFileName().toString(), ".tmp");
+			try {
+				try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath)))) {
+					out.writeInt(MAGIC);
+					out.writeInt(VERSION);
+					out.writeInt(entries.size());
+					for (Map.Entry<Path, Entry> mapEntry : entries.entrySet()) {
+						Entry entry = mapEntry.getValue();
+						byte[] chunkList = entry.chunkList.encode();
+						out.writeUTF(mapEntry.getKey().toString());
+						out.writeLong(entry.size);
+						out.writeLong(entry.lastModified);
+						out.writeInt(chunkList.length);
+						out.write(chunkList);
+					}
+				}
+				try {
+					Files.move(tempPath, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				} catch (AtomicMoveNotSupportedException e) {
+					Files.move(tempPath, indexPath, StandardCopyOption.REPLACE_EXISTING);
+				}
+			} finally {
+				Files.deleteIfExists(tempPath);
+			}
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Could not save local chunk index", e);
+			return false;
+		}
+		return true;
+	}
+
+	public static LocalChunkIndex load(Logger logger, Path indexPath) {
+		Map<Path, Entry> entries = new HashMap<>();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexPath)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) return new LocalChunkIndex(logger, indexPath, new HashMap<>());
+			int size = in.readInt();
+			for (int i = 0; i < size; i++) {
+				Path path = Paths.get(in.readUTF());
+				long fileSize = in.readLong();
+				long lastModified = in.readLong();
+				byte[] chunkList = new byte[in.readInt()];
+				in.readFully(chunkList);
+				entries.put(path, new Entry(fileSize, lastModified, ChunkList.decode(new ByteArrayInputStream(chunkList))));
+			}
+		} catch (NoSuchFileException e) {
+			// First chunked update
+		} catch (IOException | RuntimeException e) {
+			logger.log(Level.WARNING, "Local chunk index is corrupt, rebuilding", e);
+			entries.clear();
+		}
+		return new LocalChunkIndex(logger, indexPath, entries);
+	}
+
+	public static final class Location {
+		private final Path path;
+		private final long offset;
+		private final int length;
+
+		Location(Path path, long offset, int length) {
+			this.path = path;
+			this.offset = offset;
+			this.length = length;
+		}
+
+		public Path getPath() {
+			return path;
+		}
+
+		public long getOffset() {
+			return offset;
+		}
+
+		public int getLength() {
+			return length;
+		}
+	}
+
+	private static final class Entry {
+		final long size;
+		final long lastModified;
+		final ChunkList chunkList;
+
+		Entry(long size, long lastModified, ChunkList chunkList) {
+			this.size = size;
+			this.lastModified = lastModified;
+			this.chunkList = chunkList;
+		}
+	}
+}
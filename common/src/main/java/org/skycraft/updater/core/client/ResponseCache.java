@@ -0,0 +1,84 @@
+package org.skycraft.updater.core.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Optional;
+import org.apache.commons.codec.digest.DigestUtils;
+
+public final class ResponseCache {
+	private final Path cachePath;
+
+	public ResponseCache(Path cachePath) {
+		this.cachePath = cachePath;
+	}
+
+	public Optional<String> getETag(String key) {
+		Path etagPath = etagPath(key);
+		if (!Files.isRegularFile(etagPath) || !Files.isRegularFile(bodyPath(key))) return Optional.empty();
+		try {
+			return Optional.of(new String(Files.readAllBytes(etagPath), StandardCharsets.UTF_8));
+		} catch (IOException e) {
+			return Optional.empty();
+		}
+	}
+
+	public InputStream openBody(String key) throws IOException {
+		return Files.newInputStream(bodyPath(key));
+	}
+
+	public InputStream store(String key, String etag, InputStream body) throws IOException {
+		Files.createDirectories(cachePath);
+		Files.deleteIfExists(etagPath(key));
+		Path tempPath = Files.createTempFile(cachePath, DigestUtils.md5Hex(key), ".tmp");
+		try {
+			Files.copy(body, tempPath, StandardCopyOption.REPLACE_EXISTING);
+			move(tempPath, bodyPath(key));
+		} finally {
+			Files.deleteIfExists(tempPath);
+		}
+		if (etag != null) Files.write(etagPath(key), etag.getBytes(StandardCharsets.UTF_8));
+		return openBody(key);
+	}
+
+	public void invalidate(String key) throws IOException {
+		Files.deleteIfExists(etagPath(key));
+	}
+
+	public Optional<String> getValue(String key) {
+		try {
+			return Optional.of(new String(Files.readAllBytes(valuePath(key)), StandardCharsets.UTF_8));
+		} catch (IOException e) {
+			return Optional.empty();
+		}
+	}
+
+	public void putValue(String key, String value) throws IOException {
+		Files.createDirectories(cachePath);
+		Files.write(valuePath(key), value.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private Path bodyPath(String key) {
+		return cachePath.resolve(DigestUtils.md5Hex(key) + ".body");
+	}
+
+	private Path etagPath(String key) {
+		return cachePath.resolve(DigestUtils.md5Hex(key) + ".etag");
+	}
+
+	private Path valuePath(String key) {
+		return cachePath.resolve(DigestUtils.md5Hex(key) + ".value");
+	}
+
+	private static void move(Path source, Path target) throws IOException {
+		try {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+}
@@ -0,0 +1,162 @@
+package org.skycraft.updater.core.client;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+// Checked files of every category that was up to date, and the server generation when all of them were
+public final class SyncState {
+	public static final long NO_GENERATION = -1L;
+
+	private static final int MAGIC = 0x53435353;
+	private static final int VERSION = 3;
+
+	private final String server;
+	private final long generation;
+	private final Map<String, Category> categories;
+
+	public SyncState(String server, long generation, Map<String, Category> categories) {
+		this.server = server;
+		this.generation = generation;
+		this.categories = categories;
+	}
+
+	public static Optional<SyncState> load(Path path) {
+		if (!Files.isRegularFile(path)) return Optional.empty();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) return Optional.empty();
+			String server = in.readUTF();
+			long generation = in.readLong();
+			int categoryCount = in.readInt();
+			Map<String, Category> categories = new LinkedHashMap<>();
+			for (int i = 0; i < categoryCount; i++) {
+				String name = in.readUTF();
+				Path categoryPath = Paths.get(in.readUTF());
+				String root = in.readUTF();
+				int ignoreCount = in.readInt();
+				List<String> ignoreClient = new ArrayList<>(ignoreCount);
+				for (int j = 0; j < ignoreCount; j++) {
+					ignoreClient.add(in.readUTF());
+				}
+				int fileCount = in.readInt();
+				Map<String, long[]> files = new HashMap<>();
+				for (int j = 0; j < fileCount; j++) {
+					files.put(in.readUTF(), new long[] { in.readLong(), in.readLong() });
+				}
+				categories.put(name, new Category(categoryPath, root.isEmpty() ? null : root, ignoreClient, files));
+			}
+			return Optional.of(new SyncState(server, generation, categories));
+		} catch (IOException | RuntimeException e) {
+			return Optional.empty();
+		}
+	}
+
+	public void save(Path path) throws IOException {
+		Files.createDirectories(path.getParent());
+		Path tempPath = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath)))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeUTF(server);
+				out.writeLong(generation);
+				out.writeInt(categories.size());
+				for (Map.Entry<String, Category> category : categories.entrySet()) {
+					out.writeUTF(category.getKey());
+					out.writeUTF(category.getValue().path.toString());
+					out.writeUTF(category.getValue().root == null ? "" : category.getValue().root);
+					out.writeInt(category.getValue().ignoreClient.size());
+					for (String ignore : category.getValue().ignoreClient) {
+						out.writeUTF(ignore);
+					}
+					out.writeInt(category.getValue().files.size());
+					for (Map.Entry<String, long[]> file : category.getValue().files.entrySet()) {
+						out.writeUTF(file.getKey());
+						out.writeLong(file.getValue()[0]);
+						out.writeLong(file.getValue()[1]);
+					}
+				}
+			}
+			try {
+				Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(tempPath);
+		}
+	}
+
+	public boolean isSameServer(String server) {
+		return this.server.equals(server);
+	}
+
+	public boolean isSameGeneration(String server, long generation) {
+		return !categories.isEmpty() && this.server.equals(server) && this.generation != NO_GENERATION && this.generation == generation;
+	}
+
+	public Map<String, Category> getCategories() {
+		return Collections.unmodifiableMap(categories);
+	}
+
+	public static long[] readMetadata(Path path) throws IOException {
+		return readMetadata(Files.readAttributes(path, BasicFileAttributes.class));
+	}
+
+	public static long[] readMetadata(BasicFileAttributes attributes) {
+		return new long[] { attributes.size(), attributes.lastModifiedTime().toMillis() };
+	}
+
+	public static final class Category {
+		private final Path path;
+		private final String root;
+		private final List<String> ignoreClient;
+		private final Map<String, long[]> files;
+
+		// Files are keyed by their path relative to the category, with size and modification time
+		public Category(Path path, String root, List<String> ignoreClient, Map<String, long[]> files) {
+			this.path = path;
+			this.root = root;
+			this.ignoreClient = ignoreClient;
+			this.files = files;
+		}
+
+		public Path getPath() {
+			return path;
+		}
+
+		// Checked against the same server tree with the same client rules, so only local changes could make it outdated
+		public boolean isSameTree(Path path, String root, List<String> ignoreClient) {
+			return this.root != null && this.root.equals(root) && this.path.equals(path) && this.ignoreClient.equals(ignoreClient);
+		}
+
+		public List<String> getIgnoreClient() {
+			return Collections.unmodifiableList(ignoreClient);
+		}
+
+		// Added, removed and modified files all show up as a difference, ignored files were never recorded
+		public boolean isUnchanged(Map<String, long[]> files) {
+			if (files.size() != this.files.size()) return false;
+			for (Map.Entry<String, long[]> file : files.entrySet()) {
+				long[] metadata = this.files.get(file.getKey());
+				if (metadata == null || metadata[0] != file.getValue()[0] || metadata[1] != file.getValue()[1]) return false;
+			}
+			return true;
+		}
+	}
+}
@@ -0,0 +1,169 @@
+package org.skycraft.updater.core.client;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import org.skycraft.updater.core.data.MerkleTree;
+import org.skycraft.updater.core.data.PrecachedFile;
+import org.skycraft.updater.core.hash.HashAlgorithm;
+
+// Last synchronized tree of a category, unchanged subtrees are taken from here instead of the server
+public final class TreeCache {
+	private static final int MAGIC = 0x53435443;
+	private static final int VERSION = 1;
+
+	private final String root;
+	private final Map<String, String> directories;
+	private final Map<String, Record> files;
+
+	public TreeCache(String root, Map<String, String> directories, Map<String, Record> files) {
+		this.root = root;
+		this.directories = directories;
+		this.files = files;
+	}
+
+	// Computes the same directory digests as the server, so a tree first synchronized from the full hash list can later be walked incrementally
+	public static TreeCache build(Map<String, Record> files) throws IllegalArgumentException {
+		List<PrecachedFile> precachedFiles = new ArrayList<>(files.size());
+		for (Map.Entry<String, Record> file : files.entrySet()) {
+			precachedFiles.add(new PrecachedFile(file.getKey(), null, Collections.singletonMap(HashAlgorithm.MD5.getName(), file.getValue().hash), file.getValue().size));
+		}
+		precachedFiles.sort(Comparator.comparing(PrecachedFile::getRelativePath));
+		MerkleTree tree = MerkleTree.build(precachedFiles);
+		Map<String, String> directories = new HashMap<>();
+		addDirectories(tree.getRoot(), directories);
+		return new TreeCache(tree.getRoot().getHash(), directories, new HashMap<>(files));
+	}
+
+	private static void addDirectories(MerkleTree.Node node, Map<String, String> directories) {
+		directories.put(node.getPath(), node.getHash());
+		for (MerkleTree.Node child : node.getDirectories().values()) {
+			addDirectories(child, directories);
+		}
+	}
+
+	public static Optional<TreeCache> load(Path path) {
+		if (!Files.isRegularFile(path)) return Optional.empty();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) return Optional.empty();
+			String root = in.readUTF();
+			int directoryCount = in.readInt();
+			Map<String, String> directories = new HashMap<>();
+			for (int i = 0; i < directoryCount; i++) {
+				directories.put(in.readUTF(), in.readUTF());
+			}
+			int fileCount = in.readInt();
+			Map<String, Record> files = new HashMap<>();
+			for (int i = 0; i < fileCount; i++) {
+				String relativePath = in.readUTF();
+				String hash = in.readUTF();
+				long size = in.readLong();
+				String checkHash = in.readUTF();
+				String verifyHash = in.readUTF();
+				files.put(relativePath, new Record(hash, size, checkHash.isEmpty() ? null : checkHash, verifyHash.isEmpty() ? null : verifyHash));
+			}
+			return Optional.of(new TreeCache(root, directories, files));
+		} catch (IOException e) {
+			return Optional.empty();
+		}
+	}
+
+	public void save(Path path) throws IOException {
+		Files.createDirectories(path.getParent());
+		Path tempPath = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempPath)))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeUTF(root);
+				out.writeInt(directories.size());
+				for (Map.Entry<String, String> directory : directories.entrySet()) {
+					out.writeUTF(directory.getKey());
+					out.writeUTF(directory.getValue());
+				}
+				out.writeInt(files.size());
+				for (Map.Entry<String, Record> file : files.entrySet()) {
+					Record record = file.getValue();
+					out.writeUTF(file.getKey());
+					out.writeUTF(record.hash);
+					out.writeLong(record.size);
+					out.writeUTF(record.checkHash == null ? "" : record.checkHash);
+					out.writeUTF(record.verifyHash == null ? "" : record.verifyHash);
+				}
+			}
+			try {
+				Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(tempPath);
+		}
+	}
+
+	public String getRoot() {
+		return root;
+	}
+
+	public Map<String, String> getDirectories() {
+		return Collections.unmodifiableMap(directories);
+	}
+
+	public Map<String, Record> getFiles() {
+		return Collections.unmodifiableMap(files);
+	}
+
+	public void copySubtree(String directory, Map<String, String> directories, Map<String, Record> files) {
+		String prefix = directory + "/";
+		directories.put(directory, this.directories.get(directory));
+		this.directories.forEach((path, hash) -> {
+			if (path.startsWith(prefix)) directories.put(path, hash);
+		});
+		this.files.forEach((path, record) -> {
+			if (path.startsWith(prefix)) files.put(path, record);
+		});
+	}
+
+	public static final class Record {
+		private final String hash;
+		private final long size;
+		private final String checkHash;
+		private final String verifyHash;
+
+		public Record(String hash, long size, String checkHash, String verifyHash) {
+			this.hash = hash;
+			this.size = size;
+			this.checkHash = checkHash;
+			this.verifyHash = verifyHash;
+		}
+
+		public String getHash() {
+			return hash;
+		}
+
+		public long getSize() {
+			return size;
+		}
+
+		public String getCheckHash() {
+			return checkHash;
+		}
+
+		public String getVerifyHash() {
+			return verifyHash;
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package org.skycraft.updater.core.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.Map;
+
+public final class UrlConnectionTransport extends ClientTransport {
+	private final String host;
+	private final int port;
+
+	public UrlConnectionTransport(String host, int port) {
+		this.host = host;
+		this.port = port;
+	}
+
+	@Override
+	public Response get(String file, Map<String, String> headers) throws IOException {
+		HttpURLConnection http = open(file);
+		try {
+			http.setRequestMethod("GET");
+			headers.forEach(http::setRequestProperty);
+			http.connect();
+			return new UrlConnectionResponse(http);
+		} catch (IOException | RuntimeException e) {
+			http.disconnect();
+			throw e;
+		}
+	}
+
+	@Override
+	public Response post(String file, String contentType, byte[] content) throws IOException {
+		HttpURLConnection http = open(file);
+		try {
+			http.setRequestMethod("POST");
+			http.setDoOutput(true);
+			http.setRequestProperty("Content-Type", contentType);
+			try (OutputStream out = http.getOutputStream()) {
+				out.write(content);
+			}
+			return new UrlConnectionResponse(http);
+		} catch (IOException | RuntimeException e) {
+			http.disconnect();
+			throw e;
+		}
+	}
+
+	@Override
+	public boolean isMultiplexed() {
+		return false;
+	}
+
+	@Override
+	public void close() {
+
+	}
+
+	private HttpURLConnection open(String file) throws IOException {
+		URLConnection connection = new URL("http", host, port, file).openConnection();
+		if (!(connection instanceof HttpURLConnection)) throw new IOException("Unsupported connection " + connection.getClass().getName());
+		return (HttpURLConnection) connection;
+	}
+
+	private static final class UrlConnectionResponse extends Response {
+		private final HttpURLConnection http;
+
+		UrlConnectionResponse(HttpURLConnection http) {
+			this.http = http;
+		}
+
+		@Override
+		public int getStatus() throws IOException {
+			return http.getResponseCode();
+		}
+
+		@Override
+		public String getHeader(String name) {
+			return http.getHeaderField(name);
+		}
+
+		@Override
+		public InputStream getBody() throws IOException {
+			return http.getInputStream();
+		}
+
+		@Override
+		public void close() {
+			http.disconnect();
+		}
+	}
+}
@@ -0,0 +1,60 @@
+package org.skycraft.updater.core.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.zip.GZIPOutputStream;
+import org.apache.commons.codec.digest.DigestUtils;
+
+public final class EncodedBody {
+	private final byte[] identity;
+	private final byte[] gzip;
+	private final String etag;
+	private final String gzipETag;
+
+	private EncodedBody(byte[] identity, byte[] gzip, String etag, String gzipETag) {
+		this.identity = identity;
+		this.gzip = gzip;
+		this.etag = etag;
+		this.gzipETag = gzipETag;
+	}
+
+	public byte[] getIdentity() {
+		return identity;
+	}
+
+	public byte[] getGzip() {
+		return gzip;
+	}
+
+	public boolean hasGzip() {
+		return gzip != null;
+	}
+
+	public String getETag() {
+		return etag;
+	}
+
+	public String getGzipETag() {
+		return gzipETag;
+	}
+
+	public static EncodedBody of(byte[] identity) {
+		String hash = DigestUtils.md5Hex(identity);
+		byte[] gzip = compress(identity);
+		if (gzip.length >= identity.length) {
+			return new EncodedBody(identity, null, "\"" + hash + "\"", null);
+		}
+		return new EncodedBody(identity, gzip, "\"" + hash + "\"", "\"" + hash + "-gzip\"");
+	}
+
+	private static byte[] compress(byte[] identity) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(32, identity.length / 4));
+		try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+			gzip.write(identity);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return out.toByteArray();
+	}
+}
@@ -2,18 +2,23 @@ package org.skycraft.updater.core.data;
 
 import java.nio.file.Path;
 import java.util.List;
+import org.skycraft.updater.utils.IgnoreMatcher;
 
 public final class ManifestEntry {
 	private final String category;
 	private final Path path;
 	private final List<String> ignoreServer;
 	private final List<String> ignoreClient;
+	private final IgnoreMatcher ignoreServerMatcher;
+	private final IgnoreMatcher ignoreClientMatcher;
 
 	public ManifestEntry(String category, Path path, List<String> ignoreServer, List<String> ignoreClient) {
 		this.category = category;
 		this.path = path;
 		this.ignoreServer = ignoreServer;
 		this.ignoreClient = ignoreClient;
+		this.ignoreServerMatcher = IgnoreMatcher.compile(ignoreServer);
+		this.ignoreClientMatcher = IgnoreMatcher.compile(ignoreClient);
 	}
 
 	public String getCategory() {
@@ -31,4 +36,12 @@ public final class ManifestEntry {
 	public List<String> getIgnoreClient() {
 		return ignoreClient;
 	}
+
+	public IgnoreMatcher getIgnoreServerMatcher() {
+		return ignoreServerMatcher;
+	}
+
+	public IgnoreMatcher getIgnoreClientMatcher() {
+		return ignoreClientMatcher;
+	}
 }
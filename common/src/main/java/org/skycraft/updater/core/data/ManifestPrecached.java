@@ -6,12 +6,20 @@ import java.util.Map;
 public final class ManifestPrecached {
 	private final ManifestEntry entry;
 	private final Map<String, Path> files;
-	private final String precachedHashes;
+	private final EncodedBody precachedHashes;
+	private final EncodedBody precachedDigestHashes;
+	private final MerkleTree tree;
 
-	public ManifestPrecached(ManifestEntry entry, Map<String, Path> files, String precachedHashes) {
+	public ManifestPrecached(ManifestEntry entry, Map<String, Path> files, EncodedBody precachedHashes) {
+		this(entry, files, precachedHashes, null, null);
+	}
+
+	public ManifestPrecached(ManifestEntry entry, Map<String, Path> files, EncodedBody precachedHashes, EncodedBody precachedDigestHashes, MerkleTree tree) {
 		this.entry = entry;
 		this.files = files;
 		this.precachedHashes = precachedHashes;
+		this.precachedDigestHashes = precachedDigestHashes;
+		this.tree = tree;
 	}
 
 	public ManifestEntry getEntry() {
@@ -22,7 +30,15 @@ public final class ManifestPrecached {
 		return files;
 	}
 
-	public String getPrecachedHashes() {
+	public EncodedBody getPrecachedHashes() {
 		return precachedHashes;
 	}
+
+	public EncodedBody getPrecachedDigestHashes() {
+		return precachedDigestHashes;
+	}
+
+	public MerkleTree getTree() {
+		return tree;
+	}
 }
@@ -0,0 +1,51 @@
+package org.skycraft.updater.core.data;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Map;
+
+public final class ManifestSnapshot {
+	private final Map<String, ManifestEntry> entryMap;
+	private final EncodedBody precachedManifest;
+	private final Map<String, ManifestPrecached> precachedMap;
+	private final Map<String, Path> globalFiles;
+	private final EncodedBody precachedAll;
+	private final EncodedBody precachedDigestAll;
+
+	public ManifestSnapshot(Map<String, ManifestEntry> entryMap, EncodedBody precachedManifest, Map<String, ManifestPrecached> precachedMap, Map<String, Path> globalFiles) {
+		this(entryMap, precachedManifest, precachedMap, globalFiles, null, null);
+	}
+
+	public ManifestSnapshot(Map<String, ManifestEntry> entryMap, EncodedBody precachedManifest, Map<String, ManifestPrecached> precachedMap, Map<String, Path> globalFiles, EncodedBody precachedAll, EncodedBody precachedDigestAll) {
+		this.entryMap = entryMap;
+		this.precachedManifest = precachedManifest;
+		this.precachedMap = Collections.unmodifiableMap(precachedMap);
+		this.globalFiles = Collections.unmodifiableMap(globalFiles);
+		this.precachedAll = precachedAll;
+		this.precachedDigestAll = precachedDigestAll;
+	}
+
+	public Map<String, ManifestEntry> getEntryMap() {
+		return entryMap;
+	}
+
+	public EncodedBody getPrecachedManifest() {
+		return precachedManifest;
+	}
+
+	public Map<String, ManifestPrecached> getPrecachedMap() {
+		return precachedMap;
+	}
+
+	public Map<String, Path> getGlobalFiles() {
+		return globalFiles;
+	}
+
+	public EncodedBody getPrecachedAll() {
+		return precachedAll;
+	}
+
+	public EncodedBody getPrecachedDigestAll() {
+		return precachedDigestAll;
+	}
+}
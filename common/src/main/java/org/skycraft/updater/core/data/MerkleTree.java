@@ -0,0 +1,123 @@
+package org.skycraft.updater.core.data;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+import org.skycraft.updater.core.hash.HashAlgorithm;
+
+public final class MerkleTree {
+	private static final byte DIRECTORY = 'd';
+	private static final byte FILE = 'f';
+
+	private final Node root;
+	private final Map<String, Node> directories;
+
+	private MerkleTree(Node root, Map<String, Node> directories) {
+		this.root = root;
+		this.directories = directories;
+	}
+
+	// Files must be sorted by relative path, as the precache engine returns them
+	public static MerkleTree build(List<PrecachedFile> files) {
+		Node root = new Node("");
+		Map<String, Node> directories = new HashMap<>();
+		directories.put("", root);
+		for (PrecachedFile file : files) {
+			String relativePath = file.getRelativePath();
+			Node node = root;
+			int start = 0;
+			int slash;
+			while ((slash = relativePath.indexOf('/', start)) >= 0) {
+				String name = relativePath.substring(start, slash);
+				String directoryPath = relativePath.substring(0, slash);
+				node = node.directories.computeIfAbsent(name, key -> {
+					Node child = new Node(directoryPath);
+					directories.put(child.path, child);
+					return child;
+				});
+				start = slash + 1;
+			}
+			node.files.add(file);
+		}
+		root.computeDigest();
+		return new MerkleTree(root, Collections.unmodifiableMap(directories));
+	}
+
+	public Node getRoot() {
+		return root;
+	}
+
+	public Optional<Node> getDirectory(String path) {
+		return Optional.ofNullable(directories.get(path));
+	}
+
+	public static final class Node {
+		private final String path;
+		private final Map<String, Node> directories = new TreeMap<>();
+		private final List<PrecachedFile> files = new ArrayList<>();
+		private byte[] digest;
+
+		private Node(String path) {
+			this.path = path;
+		}
+
+		public String getPath() {
+			return path;
+		}
+
+		public Map<String, Node> getDirectories() {
+			return Collections.unmodifiableMap(directories);
+		}
+
+		public List<PrecachedFile> getFiles() {
+			return Collections.unmodifiableList(files);
+		}
+
+		public byte[] getDigest() {
+			return digest.clone();
+		}
+
+		public String getHash() {
+			return Hex.encodeHexString(digest);
+		}
+
+		private void computeDigest() {
+			HashAlgorithm.Hasher hasher = HashAlgorithm.SHA256.newHasher();
+			for (Map.Entry<String, Node> directory : directories.entrySet()) {
+				directory.getValue().computeDigest();
+				update(hasher, DIRECTORY, directory.getKey(), directory.getValue().digest);
+			}
+			for (PrecachedFile file : files) {
+				byte[] hash;
+				try {
+					hash = Hex.decodeHex(file.getHash().toCharArray());
+				} catch (DecoderException e) {
+					throw new IllegalArgumentException("Illegal hash \"" + file.getHash() + "\"", e);
+				}
+				String relativePath = file.getRelativePath();
+				update(hasher, FILE, relativePath.substring(relativePath.lastIndexOf('/') + 1), hash);
+				byte[] size = new byte[8];
+				for (int i = 0; i < size.length; i++) {
+					size[i] = (byte) (file.getSize() >>> (56 - i * 8));
+				}
+				hasher.update(size, 0, size.length);
+			}
+			digest = hasher.digest();
+		}
+
+		private static void update(HashAlgorithm.Hasher hasher, byte type, String name, byte[] digest) {
+			byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+			hasher.update(new byte[] { type }, 0, 1);
+			hasher.update(nameBytes, 0, nameBytes.length);
+			hasher.update(new byte[1], 0, 1);
+			hasher.update(digest, 0, digest.length);
+		}
+	}
+}
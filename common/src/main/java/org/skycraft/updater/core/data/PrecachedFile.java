@@ -0,0 +1,39 @@
+package org.skycraft.updater.core.data;
+
+import java.nio.file.Path;
+import java.util.Map;
+import org.skycraft.updater.core.hash.HashAlgorithm;
+
+public final class PrecachedFile {
+	private final String relativePath;
+	private final Path path;
+	private final Map<String, String> hashes;
+	private final long size;
+
+	public PrecachedFile(String relativePath, Path path, Map<String, String> hashes, long size) {
+		this.relativePath = relativePath;
+		this.path = path;
+		this.hashes = hashes;
+		this.size = size;
+	}
+
+	public String getRelativePath() {
+		return relativePath;
+	}
+
+	public Path getPath() {
+		return path;
+	}
+
+	public String getHash() {
+		return hashes.get(HashAlgorithm.MD5.getName());
+	}
+
+	public String getHash(HashAlgorithm algorithm) {
+		return hashes.get(algorithm.getName());
+	}
+
+	public long getSize() {
+		return size;
+	}
+}
@@ -0,0 +1,69 @@
+package org.skycraft.updater.core.delta;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.skycraft.updater.core.hash.HashAlgorithm;
+import org.skycraft.updater.utils.VarIntUtils;
+
+public final class DeltaDecoder {
+	private static final int COPY_BUFFER_BYTES = 64 * 1024;
+
+	private DeltaDecoder() {
+	}
+
+	// The rebuilt file is fed to the caller's digest so it can be verified like any other download
+	public static void apply(Path basePath, InputStream delta, OutputStream out, HashAlgorithm.Hasher digest) throws IOException {
+		DataInputStream in = new DataInputStream(delta);
+		if (in.readInt() != DeltaFormat.MAGIC || in.readUnsignedByte() != DeltaFormat.VERSION) throw new IOException("Illegal delta header");
+		long baseSize = VarIntUtils.readVarLong(in);
+		long targetSize = VarIntUtils.readVarLong(in);
+		byte[] buffer = new byte[COPY_BUFFER_BYTES];
+		long written = 0L;
+		try (FileChannel base = FileChannel.open(basePath, StandardOpenOption.READ)) {
+			if (base.size() != baseSize) throw new IOException("Delta base size mismatch");
+			ByteBuffer copyBuffer = ByteBuffer.wrap(buffer);
+			int op;
+			while ((op = in.readUnsignedByte()) != DeltaFormat.OP_END) {
+				long length;
+				switch (op) {
+				case DeltaFormat.OP_COPY:
+					long offset = VarIntUtils.readVarLong(in);
+					length = VarIntUtils.readVarLong(in);
+					if (offset < 0L || length < 0L || offset + length > baseSize) throw new IOException("Illegal delta copy range");
+					for (long copied = 0L; copied < length;) {
+						copyBuffer.clear();
+						copyBuffer.limit((int) Math.min(buffer.length, length - copied));
+						int read = base.read(copyBuffer, offset + copied);
+						if (read < 0) throw new IOException("Delta base truncated");
+						digest.update(buffer, 0, read);
+						out.write(buffer, 0, read);
+						copied += read;
+					}
+					break;
+				case DeltaFormat.OP_DATA:
+					length = VarIntUtils.readVarLong(in);
+					if (length < 0L) throw new IOException("Illegal delta data length");
+					for (long copied = 0L; copied < length;) {
+						int read = in.read(buffer, 0, (int) Math.min(buffer.length, length - copied));
+						if (read < 0) throw new IOException("Delta truncated");
+						digest.update(buffer, 0, read);
+						out.write(buffer, 0, read);
+						copied += read;
+					}
+					break;
+				default:
+					throw new IOException("Illegal delta op " + op);
+				}
+				written += length;
+				if (written > targetSize) throw new IOException("Delta exceeds target size");
+			}
+		}
+		if (written != targetSize) throw new IOException("Delta target size mismatch");
+	}
+}
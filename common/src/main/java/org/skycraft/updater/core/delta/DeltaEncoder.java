@@ -0,0 +1,158 @@
+package org.skycraft.updater.core.delta;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.skycraft.updater.utils.VarIntUtils;
+
+public final class DeltaEncoder {
+	public static final long MAX_FILE_BYTES = 1024L * 1024L * 1024L;
+	private static final int MIN_BLOCK_BYTES = 1024;
+	private static final int MAX_BLOCK_BYTES = 64 * 1024;
+	private static final int LITERAL_BUFFER_BYTES = 64 * 1024;
+
+	private final ByteBuffer base;
+	private final ByteBuffer target;
+	private final int blockSize;
+	private final byte[] literalBuffer = new byte[LITERAL_BUFFER_BYTES];
+
+	private DeltaEncoder(ByteBuffer base, ByteBuffer target) {
+		this.base = base;
+		this.target = target;
+		this.blockSize = blockSizeFor(base.capacity());
+	}
+
+	public static boolean encode(Path basePath, String baseHash, Path targetPath, String targetHash, OutputStream out) throws IOException {
+		try (FileChannel baseChannel = FileChannel.open(basePath, StandardOpenOption.READ);
+			FileChannel targetChannel = FileChannel.open(targetPath, StandardOpenOption.READ)) {
+			if (baseChannel.size() > MAX_FILE_BYTES || targetChannel.size() > MAX_FILE_BYTES) return false;
+			ByteBuffer base = baseChannel.map(FileChannel.MapMode.READ_ONLY, 0L, baseChannel.size());
+			ByteBuffer target = targetChannel.map(FileChannel.MapMode.READ_ONLY, 0L, targetChannel.size());
+			if (!md5Hex(base).equals(baseHash) || !md5Hex(target).equals(targetHash)) return false;
+			new DeltaEncoder(base, target).write(new DataOutputStream(out));
+			return true;
+		}
+	}
+
+	private void write(DataOutputStream out) throws IOException {
+		out.writeInt(DeltaFormat.MAGIC);
+		out.writeByte(DeltaFormat.VERSION);
+		VarIntUtils.writeVarLong(out, base.capacity());
+		VarIntUtils.writeVarLong(out, target.capacity());
+		Map<Integer, int[]> blocks = indexBlocks();
+		int targetLength = target.capacity();
+		int literalStart = 0;
+		int position = 0;
+		int weak = position + blockSize <= targetLength ? checksum(target, 0, blockSize) : 0;
+		while (position + blockSize <= targetLength) {
+			int match = findBlock(blocks.get(weak), position);
+			if (match >= 0) {
+				int baseOffset = match * blockSize;
+				int length = blockSize;
+				while (baseOffset + length < base.capacity() && position + length < targetLength && base.get(baseOffset + length) == target.get(position + length)) length++;
+				writeData(out, literalStart, position);
+				out.writeByte(DeltaFormat.OP_COPY);
+				VarIntUtils.writeVarLong(out, baseOffset);
+				VarIntUtils.writeVarLong(out, length);
+				position += length;
+				literalStart = position;
+				if (position + blockSize <= targetLength) weak = checksum(target, position, blockSize);
+				continue;
+			}
+			if (position + blockSize >= targetLength) break;
+			weak = roll(weak, target.get(position), target.get(position + blockSize));
+			position++;
+		}
+		writeData(out, literalStart, targetLength);
+		out.writeByte(DeltaFormat.OP_END);
+		out.flush();
+	}
+
+	private Map<Integer, int[]> indexBlocks() {
+		int count = base.capacity() / blockSize;
+		Map<Integer, int[]> blocks = new HashMap<>(count * 4 / 3 + 1);
+		for (int i = 0; i < count; i++) {
+			int weak = checksum(base, i * blockSize, blockSize);
+			int[] previous = blocks.get(weak);
+			if (previous == null) {
+				blocks.put(weak, new int[] { i });
+			} else {
+				int[] indexes = new int[previous.length + 1];
+				System.arraycopy(previous, 0, indexes, 0, previous.length);
+				indexes[previous.length] = i;
+				blocks.put(weak, indexes);
+			}
+		}
+		return blocks;
+	}
+
+	private int findBlock(int[] candidates, int position) {
+		if (candidates == null) return -1;
+		for (int candidate : candidates) {
+			int baseOffset = candidate * blockSize;
+			ByteBuffer baseBlock = slice(base, baseOffset, blockSize);
+			ByteBuffer targetBlock = slice(target, position, blockSize);
+			if (baseBlock.equals(targetBlock)) return candidate;
+		}
+		return -1;
+	}
+
+	private void writeData(DataOutputStream out, int start, int end) throws IOException {
+		if (start >= end) return;
+		out.writeByte(DeltaFormat.OP_DATA);
+		VarIntUtils.writeVarLong(out, end - start);
+		ByteBuffer literal = slice(target, start, end - start);
+		while (literal.hasRemaining()) {
+			int length = Math.min(literal.remaining(), literalBuffer.length);
+			literal.get(literalBuffer, 0, length);
+			out.write(literalBuffer, 0, length);
+		}
+	}
+
+	// rsync style weak checksum, the low half is the byte sum and the high half the weighted sum
+	private static int checksum(ByteBuffer buffer, int offset, int length) {
+		int a = 0;
+		int b = 0;
+		for (int i = 0; i < length; i++) {
+			int value = buffer.get(offset + i) & 0xFF;
+			a += value;
+			b += (length - i) * value;
+		}
+		return (a & 0xFFFF) | (b << 16);
+	}
+
+	private int roll(int weak, byte out, byte in) {
+		int a = weak & 0xFFFF;
+		int b = weak >>> 16;
+		a = (a - (out & 0xFF) + (in & 0xFF)) & 0xFFFF;
+		b = (b - blockSize * (out & 0xFF) + a) & 0xFFFF;
+		return a | (b << 16);
+	}
+
+	private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+		ByteBuffer slice = buffer.duplicate();
+		slice.position(offset);
+		slice.limit(offset + length);
+		return slice;
+	}
+
+	private static int blockSizeFor(long baseSize) {
+		int size = Integer.highestOneBit((int) Math.max(1L, (long) Math.sqrt((double) baseSize)));
+		return Math.max(MIN_BLOCK_BYTES, Math.min(MAX_BLOCK_BYTES, size));
+	}
+
+	private static String md5Hex(ByteBuffer buffer) {
+		MessageDigest digest = DigestUtils.getMd5Digest();
+		digest.update(buffer.duplicate());
+		return Hex.encodeHexString(digest.digest());
+	}
+}
@@ -0,0 +1,13 @@
+package org.skycraft.updater.core.delta;
+
+public final class DeltaFormat {
+	public static final int MAGIC = 0x53434844;
+	public static final int VERSION = 1;
+	public static final String CONTENT_TYPE = "application/x-skycraft-delta";
+	public static final int OP_END = 0;
+	public static final int OP_COPY = 1;
+	public static final int OP_DATA = 2;
+
+	private DeltaFormat() {
+	}
+}
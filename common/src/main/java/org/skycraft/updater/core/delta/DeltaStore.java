@@ -0,0 +1,173 @@
+package org.skycraft.updater.core.delta;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+public final class DeltaStore {
+	private static final Pattern HASH_PATTERN = Pattern.compile("[0-9a-f]{32}");
+	private static final String RETIRED_SUFFIX = ".retired";
+	private static final String DELTA_SUFFIX = ".delta";
+	private static final String NO_DELTA_SUFFIX = ".none";
+	// Deltas larger than this share of the target file are not worth an extra request
+	private static final double MAX_DELTA_RATIO = 0.75D;
+
+	private final Logger logger;
+	private final Path objectsPath;
+	private final Path deltasPath;
+	private final long retentionMillis;
+	private final Map<String, Object> generating = new ConcurrentHashMap<>();
+
+	public DeltaStore(Logger logger, Path historyPath, long retentionMillis) {
+		this.logger = logger;
+		this.objectsPath = historyPath.resolve("objects");
+		this.deltasPath = historyPath.resolve("deltas");
+		this.retentionMillis = retentionMillis;
+	}
+
+	public void archive(Map<String, Path> currentFiles) {
+		long start = System.nanoTime();
+		int archived = 0;
+		int retired = 0;
+		try {
+			Files.createDirectories(objectsPath);
+			Files.createDirectories(deltasPath);
+			for (Map.Entry<String, Path> file : currentFiles.entrySet()) {
+				if (!isHash(file.getKey())) continue;
+				Path objectPath = objectsPath.resolve(file.getKey());
+				Files.deleteIfExists(objectsPath.resolve(file.getKey() + RETIRED_SUFFIX));
+				try {
+					// Objects hard linked by older versions share the inode with the served file, they are replaced by copies
+					if (Files.exists(objectPath) && !Files.isSameFile(objectPath, file.getValue())) continue;
+					archiveFile(file.getValue(), objectPath);
+					archived++;
+				} catch (IOException e) {
+					logger.log(Level.WARNING, "Could not archive file \"" + file.getValue() + "\" for deltas", e);
+				}
+			}
+			long now = System.currentTimeMillis();
+			try (DirectoryStream<Path> objects = Files.newDirectoryStream(objectsPath)) {
+				for (Path objectPath : objects) {
+					String hash = objectPath.getFileName().toString();
+					if (!isHash(hash) || currentFiles.containsKey(hash)) continue;
+					Path retiredPath = objectsPath.resolve(hash + RETIRED_SUFFIX);
+					if (!Files.exists(retiredPath)) {
+						Files.createFile(retiredPath);
+						retired++;
+					} else if (now - Files.getLastModifiedTime(retiredPath).toMillis() > retentionMillis) {
+						Files.deleteIfExists(objectPath);
+						Files.deleteIfExists(retiredPath);
+					}
+				}
+			}
+			try (DirectoryStream<Path> deltas = Files.newDirectoryStream(deltasPath)) {
+				for (Path deltaPath : deltas) {
+					String name = deltaPath.getFileName().toString();
+					int separator = name.indexOf('-');
+					int suffix = name.lastIndexOf('.');
+					if (separator < 0 || suffix < separator) continue;
+					String from = name.substring(0, separator);
+					String to = name.substring(separator + 1, suffix);
+					if (!currentFiles.containsKey(to) || !Files.exists(objectsPath.resolve(from))) Files.deleteIfExists(deltaPath);
+				}
+			}
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Error occurred while archiving file history", e);
+			return;
+		}
+		logger.log(Level.INFO, "File history updated in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms (" + archived + " archived, " + retired + " retired)");
+	}
+
+	public Optional<Path> getDelta(String fromHash, String toHash, Path targetPath) {
+		if (!isHash(fromHash) || !isHash(toHash) || fromHash.equals(toHash)) return Optional.empty();
+		String key = fromHash + "-" + toHash;
+		Path deltaPath = deltasPath.resolve(key + DELTA_SUFFIX);
+		Path noDeltaPath = deltasPath.resolve(key + NO_DELTA_SUFFIX);
+		Path basePath = objectsPath.resolve(fromHash);
+		if (Files.exists(deltaPath)) return Optional.of(deltaPath);
+		if (Files.exists(noDeltaPath) || !Files.exists(basePath)) return Optional.empty();
+		Object lock = generating.computeIfAbsent(key, k -> new Object());
+		try {
+			synchronized (lock) {
+				if (Files.exists(deltaPath)) return Optional.of(deltaPath);
+				if (Files.exists(noDeltaPath)) return Optional.empty();
+				return generate(basePath, fromHash, targetPath, toHash, deltaPath, noDeltaPath);
+			}
+		} finally {
+			generating.remove(key, lock);
+		}
+	}
+
+	private Optional<Path> generate(Path basePath, String fromHash, Path targetPath, String toHash, Path deltaPath, Path noDeltaPath) {
+		long start = System.nanoTime();
+		try {
+			Files.createDirectories(deltasPath);
+			Path tempPath = Files.createTempFile(deltasPath, fromHash, ".tmp");
+			try {
+				boolean encoded;
+				try (OutputStream out = Files.newOutputStream(tempPath)) {
+					encoded = DeltaEncoder.encode(basePath, fromHash, targetPath, toHash, out);
+				}
+				if (!encoded) {
+					logger.log(Level.WARNING, "Could not generate delta from \"" + fromHash + "\" to \"" + toHash + "\", files changed since they were hashed");
+					return Optional.empty();
+				}
+				long deltaSize = Files.size(tempPath);
+				long targetSize = Files.size(targetPath);
+				if (deltaSize > targetSize * MAX_DELTA_RATIO) {
+					logger.log(Level.INFO, "Delta from \"" + fromHash + "\" to \"" + toHash + "\" is too large (" + deltaSize + " of " + targetSize + " bytes), skipping");
+					try {
+						Files.createFile(noDeltaPath);
+					} catch (FileAlreadyExistsException e) {
+						// Another generation finished first
+					}
+					return Optional.empty();
+				}
+				move(tempPath, deltaPath);
+				logger.log(Level.INFO, "Generated delta from \"" + fromHash + "\" to \"" + toHash + "\" (" + deltaSize + " of " + targetSize + " bytes) in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+				return Optional.of(deltaPath);
+			} finally {
+				Files.deleteIfExists(tempPath);
+			}
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Error occurred while generating delta from \"" + fromHash + "\" to \"" + toHash + "\"", e);
+			return Optional.empty();
+		}
+	}
+
+	private void archiveFile(Path source, Path objectPath) throws IOException {
+		Path tempPath = objectsPath.resolve(objectPath.getFileName() + ".tmp");
+		Files.deleteIfExists(tempPath);
+		try {
+			// Always a copy, a link would let in place edits of the served file change the archived version
+			Files.copy(source, tempPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+			move(tempPath, objectPath);
+		} finally {
+			Files.deleteIfExists(tempPath);
+		}
+	}
+
+	private static boolean isHash(String hash) {
+		return HASH_PATTERN.matcher(hash).matches();
+	}
+
+	private static void move(Path source, Path target) throws IOException {
+		try {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+}
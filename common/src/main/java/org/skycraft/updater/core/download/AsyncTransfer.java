@@ -0,0 +1,126 @@
+package org.skycraft.updater.core.download;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.eclipse.jetty.server.HttpOutput;
+
+public final class AsyncTransfer implements WriteListener, Runnable {
+	private static final int COPY_BUFFER_BYTES = 64 * 1024;
+
+	private final AsyncContext async;
+	private final ServletOutputStream out;
+	private final Iterator<ByteBuffer> content;
+	private final BandwidthLimiter.Throttle throttle;
+	private ByteBuffer current;
+	private boolean finished;
+
+	private AsyncTransfer(AsyncContext async, ServletOutputStream out, Iterator<ByteBuffer> content, BandwidthLimiter.Throttle throttle) {
+		this.async = async;
+		this.out = out;
+		this.content = content;
+		this.throttle = throttle;
+	}
+
+	public static void send(HttpServletRequest req, HttpServletResponse resp, Iterator<ByteBuffer> content, BandwidthLimiter.Throttle throttle) throws IOException {
+		if (!req.isAsyncSupported() || "HEAD".equals(req.getMethod())) {
+			try (ServletOutputStream out = resp.getOutputStream()) {
+				while (content.hasNext()) {
+					write(out, content.next());
+				}
+			} finally {
+				if (throttle != null) throttle.close();
+				close(content);
+			}
+			return;
+		}
+		try {
+			AsyncContext async = req.startAsync();
+			// Stalled clients are closed by the connector idle timeout instead
+			async.setTimeout(0L);
+			ServletOutputStream out = resp.getOutputStream();
+			out.setWriteListener(new AsyncTransfer(async, out, content, throttle));
+		} catch (IOException | RuntimeException e) {
+			if (throttle != null) throttle.close();
+			close(content);
+			throw e;
+		}
+	}
+
+	@Override
+	public synchronized void onWritePossible() throws IOException {
+		while (!finished && out.isReady()) {
+			if (current == null || !current.hasRemaining()) {
+				if (!content.hasNext()) {
+					finish();
+					return;
+				}
+				current = content.next().duplicate();
+				continue;
+			}
+			ByteBuffer slice = current;
+			if (throttle != null) {
+				int length = throttle.acquire(current.remaining());
+				if (length == 0) {
+					throttle.resumeLater(this, current.remaining());
+					return;
+				}
+				slice = current.duplicate();
+				slice.limit(slice.position() + length);
+				current.position(current.position() + length);
+			}
+			write(out, slice);
+		}
+	}
+
+	@Override
+	public void run() {
+		try {
+			onWritePossible();
+		} catch (IOException | RuntimeException e) {
+			onError(e);
+		}
+	}
+
+	@Override
+	public synchronized void onError(Throwable t) {
+		// The client went away, nothing is left to report to
+		if (!finished) finish();
+	}
+
+	private void finish() {
+		finished = true;
+		if (throttle != null) throttle.close();
+		close(content);
+		async.complete();
+	}
+
+	// Releases mapped regions and open files, every write of the content has completed by now
+	static void close(Iterator<ByteBuffer> content) {
+		if (!(content instanceof Closeable)) return;
+		try {
+			((Closeable) content).close();
+		} catch (IOException e) {
+			// Nothing is left to send from the content
+		}
+	}
+
+	private static void write(ServletOutputStream out, ByteBuffer buffer) throws IOException {
+		if (out instanceof HttpOutput) {
+			((HttpOutput) out).write(buffer);
+			return;
+		}
+		byte[] bytes = new byte[Math.min(buffer.remaining(), COPY_BUFFER_BYTES)];
+		while (buffer.hasRemaining()) {
+			int length = Math.min(buffer.remaining(), bytes.length);
+			buffer.get(bytes, 0, length);
+			out.write(bytes, 0, length);
+		}
+	}
+}
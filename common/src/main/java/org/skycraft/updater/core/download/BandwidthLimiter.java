@@ -0,0 +1,157 @@
+package org.skycraft.updater.core.download;
+
+import java.io.Closeable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public final class BandwidthLimiter implements Closeable {
+	private static final int SLICE_BYTES = 16 * 1024;
+	private static final long MIN_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(1L);
+	private static final long CLIENT_IDLE_NANOS = TimeUnit.MINUTES.toNanos(1L);
+	private static final long REPORT_INTERVAL_SECONDS = 30L;
+
+	private final Logger logger;
+	private final TokenBucket global;
+	private final long clientBytesPerSecond;
+	private final Map<String, TokenBucket> clients = new ConcurrentHashMap<>();
+	private final ScheduledExecutorService scheduler;
+	private final LongAdder sentBytes = new LongAdder();
+	private final AtomicInteger activeTransfers = new AtomicInteger();
+	private volatile long bytesPerSecond;
+	private long lastSentBytes;
+	private long lastSampleNanos = System.nanoTime();
+	private int samples;
+
+	public BandwidthLimiter(Logger logger, long globalBytesPerSecond, long clientBytesPerSecond) {
+		this.logger = logger;
+		this.global = globalBytesPerSecond > 0L ? new TokenBucket(globalBytesPerSecond) : null;
+		this.clientBytesPerSecond = clientBytesPerSecond;
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "Updater Bandwidth Limiter");
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduler.scheduleAtFixedRate(this::sample, 1L, 1L, TimeUnit.SECONDS);
+	}
+
+	public Throttle open(String remoteAddress) {
+		TokenBucket client = clientBytesPerSecond > 0L ? clients.computeIfAbsent(remoteAddress, address -> new TokenBucket(clientBytesPerSecond)) : null;
+		activeTransfers.incrementAndGet();
+		return new Throttle(client);
+	}
+
+	public long getBytesPerSecond() {
+		return bytesPerSecond;
+	}
+
+	public int getActiveTransfers() {
+		return activeTransfers.get();
+	}
+
+	@Override
+	public void close() {
+		scheduler.shutdownNow();
+	}
+
+	private void sample() {
+		long now = System.nanoTime();
+		long sent = sentBytes.sum();
+		bytesPerSecond = (sent - lastSentBytes) * TimeUnit.SECONDS.toNanos(1L) / Math.max(1L, now - lastSampleNanos);
+		lastSentBytes = sent;
+		lastSampleNanos = now;
+		clients.values().removeIf(bucket -> now - bucket.lastUsed > CLIENT_IDLE_NANOS);
+		if (++samples % REPORT_INTERVAL_SECONDS == 0 && activeTransfers.get() > 0) {
+			logger.log(Level.INFO, "Sending updates at " + bytesPerSecond / 1024L + " KiB/s (" + activeTransfers.get() + " active transfers"
+				+ (global != null ? ", limit " + global.rate / 1024L + " KiB/s)" : ")"));
+		}
+	}
+
+	public final class Throttle {
+		private final TokenBucket client;
+		private boolean closed;
+
+		private Throttle(TokenBucket client) {
+			this.client = client;
+		}
+
+		public int acquire(int wanted) {
+			int bytes = Math.min(wanted, SLICE_BYTES);
+			long now = System.nanoTime();
+			if (global != null && !global.tryConsume(bytes, now)) return 0;
+			if (client != null && !client.tryConsume(bytes, now)) {
+				if (global != null) global.refund(bytes);
+				return 0;
+			}
+			sentBytes.add(bytes);
+			return bytes;
+		}
+
+		public void resumeLater(Runnable task, int wanted) {
+			int bytes = Math.min(wanted, SLICE_BYTES);
+			long now = System.nanoTime();
+			long wait = 0L;
+			if (global != null) wait = global.nanosUntil(bytes, now);
+			if (client != null) wait = Math.max(wait, client.nanosUntil(bytes, now));
+			// Resume from the scheduler instead of parking a server thread until tokens are available
+			scheduler.schedule(task, Math.max(wait, MIN_WAIT_NANOS), TimeUnit.NANOSECONDS);
+		}
+
+		public synchronized void close() {
+			if (closed) return;
+			closed = true;
+			activeTransfers.decrementAndGet();
+		}
+	}
+
+	private static final class TokenBucket {
+		private final long rate;
+		private final long capacity;
+		private long tokens;
+		private long lastRefill = System.nanoTime();
+		private volatile long lastUsed = lastRefill;
+
+		private TokenBucket(long rate) {
+			this.rate = rate;
+			this.capacity = Math.max(rate, SLICE_BYTES);
+			this.tokens = capacity;
+		}
+
+		private synchronized boolean tryConsume(long bytes, long now) {
+			refill(now);
+			lastUsed = now;
+			if (tokens < bytes) return false;
+			tokens -= bytes;
+			return true;
+		}
+
+		private synchronized void refund(long bytes) {
+			tokens = Math.min(capacity, tokens + bytes);
+		}
+
+		private synchronized long nanosUntil(long bytes, long now) {
+			refill(now);
+			if (tokens >= bytes) return 0L;
+			return (bytes - tokens) * TimeUnit.SECONDS.toNanos(1L) / rate;
+		}
+
+		private void refill(long now) {
+			long elapsed = now - lastRefill;
+			if (elapsed >= capacity * TimeUnit.SECONDS.toNanos(1L) / rate) {
+				tokens = capacity;
+				lastRefill = now;
+				return;
+			}
+			long added = elapsed * rate / TimeUnit.SECONDS.toNanos(1L);
+			if (added <= 0L) return;
+			tokens = Math.min(capacity, tokens + added);
+			lastRefill += added * TimeUnit.SECONDS.toNanos(1L) / rate;
+		}
+	}
+}
@@ -0,0 +1,205 @@
+package org.skycraft.updater.core.download;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+
+public final class CompressedFileStore implements Closeable {
+	private static final Pattern HASH_PATTERN = Pattern.compile("[0-9a-f]{32}");
+	private static final String GZIP_SUFFIX = ".gz";
+	private static final String STORED_SUFFIX = ".stored";
+	private static final long MIN_FILE_BYTES = 1024L;
+	private static final int SAMPLE_BYTES = 256 * 1024;
+	private static final int BUFFER_BYTES = 64 * 1024;
+	// Compressed copies saving less than this are not worth decompressing on the client
+	private static final double MAX_COMPRESSED_RATIO = 0.9D;
+
+	private final Logger logger;
+	private final Path cachePath;
+	private final Set<String> compressing = ConcurrentHashMap.newKeySet();
+	private final ExecutorService executor;
+
+	public CompressedFileStore(Logger logger, Path cachePath) {
+		this.logger = logger;
+		this.cachePath = cachePath;
+		this.executor = Executors.newSingleThreadExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "Updater Compressor");
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		});
+	}
+
+	public Optional<Path> getCompressed(String hash, Path path) {
+		if (!HASH_PATTERN.matcher(hash).matches()) return Optional.empty();
+		Path gzipPath = cachePath.resolve(hash + GZIP_SUFFIX);
+		if (Files.exists(gzipPath)) return Optional.of(gzipPath);
+		Path storedPath = cachePath.resolve(hash + STORED_SUFFIX);
+		if (Files.exists(storedPath)) return Optional.empty();
+		// Compressing a large file takes seconds, so the request is served uncompressed and later ones get the gzip copy
+		schedule(hash, path);
+		return Optional.empty();
+	}
+
+	public void precompress(Map<String, Path> currentFiles) {
+		for (Map.Entry<String, Path> file : currentFiles.entrySet()) {
+			if (!HASH_PATTERN.matcher(file.getKey()).matches()) continue;
+			if (Files.exists(cachePath.resolve(file.getKey() + GZIP_SUFFIX)) || Files.exists(cachePath.resolve(file.getKey() + STORED_SUFFIX))) continue;
+			schedule(file.getKey(), file.getValue());
+		}
+	}
+
+	private void schedule(String hash, Path path) {
+		if (!compressing.add(hash)) return;
+		try {
+			executor.execute(() -> {
+				try {
+					Path gzipPath = cachePath.resolve(hash + GZIP_SUFFIX);
+					Path storedPath = cachePath.resolve(hash + STORED_SUFFIX);
+					if (!Files.exists(gzipPath) && !Files.exists(storedPath)) compress(hash, path, gzipPath, storedPath);
+				} finally {
+					compressing.remove(hash);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			compressing.remove(hash);
+		}
+	}
+
+	// Runs on the compressor thread so it never deletes the temporary file of a compression in progress
+	public void prune(Map<String, Path> currentFiles) {
+		try {
+			executor.execute(() -> deleteOutdated(currentFiles));
+		} catch (RejectedExecutionException e) {
+			// Store already closed
+		}
+	}
+
+	private void deleteOutdated(Map<String, Path> currentFiles) {
+		if (!Files.isDirectory(cachePath)) return;
+		try (DirectoryStream<Path> entries = Files.newDirectoryStream(cachePath)) {
+			for (Path entry : entries) {
+				String name = entry.getFileName().toString();
+				int suffix = name.indexOf('.');
+				if (suffix < 0 || !currentFiles.containsKey(name.substring(0, suffix))) Files.deleteIfExists(entry);
+			}
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Error occurred while pruning compressed files", e);
+		}
+	}
+
+	private void compress(String hash, Path path, Path gzipPath, Path storedPath) {
+		long start = System.nanoTime();
+		try {
+			Files.createDirectories(cachePath);
+			long size = Files.size(path);
+			if (size < MIN_FILE_BYTES || !isCompressible(path)) {
+				markStored(storedPath);
+				return;
+			}
+			Path tempPath = Files.createTempFile(cachePath, hash, ".tmp");
+			try {
+				MessageDigest digest = DigestUtils.getMd5Digest();
+				try (InputStream in = new DigestInputStream(Files.newInputStream(path), digest);
+					OutputStream out = new BestGZIPOutputStream(Files.newOutputStream(tempPath))) {
+					byte[] buffer = new byte[BUFFER_BYTES];
+					int len;
+					while ((len = in.read(buffer)) >= 0) {
+						out.write(buffer, 0, len);
+					}
+				}
+				if (!Hex.encodeHexString(digest.digest()).equals(hash)) {
+					logger.log(Level.WARNING, "Could not compress file \"" + path + "\", file changed since it was hashed");
+					return;
+				}
+				long compressedSize = Files.size(tempPath);
+				if (compressedSize > size * MAX_COMPRESSED_RATIO) {
+					markStored(storedPath);
+					return;
+				}
+				move(tempPath, gzipPath);
+				logger.log(Level.FINE, "Compressed file \"" + path + "\" (" + compressedSize + " of " + size + " bytes) in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+			} finally {
+				Files.deleteIfExists(tempPath);
+			}
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Error occurred while compressing file \"" + path + "\"", e);
+		}
+	}
+
+	@Override
+	public void close() {
+		executor.shutdownNow();
+	}
+
+	private static boolean isCompressible(Path path) throws IOException {
+		byte[] sample = new byte[SAMPLE_BYTES];
+		int sampleLength = 0;
+		try (InputStream in = Files.newInputStream(path)) {
+			int len;
+			while (sampleLength < sample.length && (len = in.read(sample, sampleLength, sample.length - sampleLength)) >= 0) {
+				sampleLength += len;
+			}
+		}
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		try {
+			deflater.setInput(sample, 0, sampleLength);
+			deflater.finish();
+			byte[] output = new byte[BUFFER_BYTES];
+			long compressedLength = 0L;
+			while (!deflater.finished()) {
+				compressedLength += deflater.deflate(output);
+			}
+			return compressedLength <= sampleLength * MAX_COMPRESSED_RATIO;
+		} finally {
+			deflater.end();
+		}
+	}
+
+	private static void markStored(Path storedPath) throws IOException {
+		try {
+			Files.createFile(storedPath);
+		} catch (FileAlreadyExistsException e) {
+			// Another compression finished first
+		}
+	}
+
+	private static void move(Path source, Path target) throws IOException {
+		try {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	private static final class BestGZIPOutputStream extends GZIPOutputStream {
+		private BestGZIPOutputStream(OutputStream out) throws IOException {
+			super(out, BUFFER_BYTES);
+			def.setLevel(Deflater.BEST_COMPRESSION);
+		}
+	}
+}
@@ -0,0 +1,418 @@
+package org.skycraft.updater.core.download;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.atomic.LongAdder;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.eclipse.jetty.server.InclusiveByteRange;
+
+public final class FileSender {
+	private static final long REGION_MAP_BYTES = 16L * 1024L * 1024L;
+	private static final int REGION_READ_BYTES = 256 * 1024;
+	private static final int MAX_MAPPED_FILES = 4096;
+	private static final Object UNSAFE;
+	private static final Method INVOKE_CLEANER;
+
+	static {
+		Object unsafe = null;
+		Method invokeCleaner = null;
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+			Field field = unsafeClass.getDeclaredField("theUnsafe");
+			field.setAccessible(true);
+			unsafe = field.get(null);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			// Java 8 has no invokeCleaner, the cleaner of the buffer is used instead
+			invokeCleaner = null;
+		}
+		UNSAFE = unsafe;
+		INVOKE_CLEANER = invokeCleaner;
+	}
+
+	private final long maxMappedBytes;
+	private final long maxMappedFileBytes;
+	private final boolean mapFiles;
+	private final BandwidthLimiter bandwidthLimiter;
+	private final Map<Path, MappedFile> mappedFiles = new LinkedHashMap<>(16, 0.75F, true);
+	private final LongAdder mappedHits = new LongAdder();
+	private final LongAdder mappedMisses = new LongAdder();
+	private long mappedBytes;
+
+	// Files that may be rewritten while being sent are read instead, truncating a mapped file crashes the JVM
+	public FileSender(long maxMappedBytes, boolean mapFiles, BandwidthLimiter bandwidthLimiter) {
+		this.maxMappedBytes = maxMappedBytes;
+		this.maxMappedFileBytes = Math.min(maxMappedBytes / 4, Integer.MAX_VALUE);
+		this.mapFiles = mapFiles;
+		this.bandwidthLimiter = bandwidthLimiter;
+	}
+
+	public BandwidthLimiter getBandwidthLimiter() {
+		return bandwidthLimiter;
+	}
+
+	public long getMappedHits() {
+		return mappedHits.sum();
+	}
+
+	public long getMappedMisses() {
+		return mappedMisses.sum();
+	}
+
+	// Cached mappings are unmapped as soon as no send uses them, so the files can be replaced or deleted
+	public void clear() {
+		synchronized (mappedFiles) {
+			for (MappedFile mappedFile : mappedFiles.values()) {
+				release(mappedFile);
+			}
+			mappedFiles.clear();
+			mappedBytes = 0L;
+		}
+	}
+
+	public void send(HttpServletRequest req, HttpServletResponse resp, Path path, String hash) throws IOException {
+		BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+		String etag = "\"" + hash + "\"";
+		resp.setHeader("Accept-Ranges", "bytes");
+		resp.setHeader("ETag", etag);
+		resp.setDateHeader("Last-Modified", attributes.lastModifiedTime().toMillis());
+		Enumeration<String> rangeHeaders = req.getHeaders("Range");
+		if (rangeHeaders == null || !rangeHeaders.hasMoreElements() || !isRangeApplicable(req, etag, attributes)) {
+			sendFull(req, resp, path, attributes);
+			return;
+		}
+		List<InclusiveByteRange> ranges = InclusiveByteRange.satisfiableRanges(rangeHeaders, attributes.size());
+		if (ranges == null || ranges.isEmpty()) {
+			resp.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+			resp.setHeader("Content-Range", InclusiveByteRange.to416HeaderRangeString(attributes.size()));
+			return;
+		}
+		if (ranges.size() == 1) {
+			InclusiveByteRange range = ranges.get(0);
+			resp.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+			resp.setHeader("Content-Range", range.toHeaderRangeString(attributes.size()));
+			resp.setContentLengthLong(range.getSize());
+			sendContent(req, resp, regions(path, attributes, range.getFirst(), range.getSize()));
+			return;
+		}
+		sendMultipart(req, resp, path, attributes, ranges);
+	}
+
+	public void sendBuffer(HttpServletRequest req, HttpServletResponse resp, ByteBuffer buffer, String hash, BasicFileAttributes attributes) throws IOException {
+		resp.setHeader("Accept-Ranges", "bytes");
+		resp.setHeader("ETag", "\"" + hash + "\"");
+		resp.setDateHeader("Last-Modified", attributes.lastModifiedTime().toMillis());
+		resp.setContentLengthLong(buffer.remaining());
+		sendContent(req, resp, buffer);
+	}
+
+	public void sendEncoded(HttpServletRequest req, HttpServletResponse resp, Path path, String etag, String contentEncoding, HotFileCache hotFileCache) throws IOException {
+		BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+		resp.setHeader("ETag", "\"" + etag + "\"");
+		resp.setHeader("Content-Encoding", contentEncoding);
+		Optional<ByteBuffer> cached = hotFileCache != null ? hotFileCache.get(etag, path, attributes.size(), null) : Optional.empty();
+		if (cached.isPresent()) {
+			resp.setContentLengthLong(cached.get().remaining());
+			sendContent(req, resp, cached.get());
+			return;
+		}
+		sendFull(req, resp, path, attributes);
+	}
+
+	public void sendContent(HttpServletRequest req, HttpServletResponse resp, Iterator<ByteBuffer> content) throws IOException {
+		AsyncTransfer.send(req, resp, content, bandwidthLimiter != null ? bandwidthLimiter.open(req.getRemoteAddr()) : null);
+	}
+
+	public Iterator<ByteBuffer> regions(Path path, BasicFileAttributes attributes) throws IOException {
+		return regions(path, attributes, 0L, attributes.size());
+	}
+
+	public Iterator<ByteBuffer> regions(Path path, BasicFileAttributes attributes, long start, long length) throws IOException {
+		if (start < 0L || length < 0L || start + length > attributes.size()) throw new IOException("Region out of file bounds");
+		return regions(path, getMappedContent(path, attributes), start, length);
+	}
+
+	private void sendContent(HttpServletRequest req, HttpServletResponse resp, ByteBuffer buffer) throws IOException {
+		sendContent(req, resp, Collections.singletonList(buffer).iterator());
+	}
+
+	private void sendFull(HttpServletRequest req, HttpServletResponse resp, Path path, BasicFileAttributes attributes) throws IOException {
+		resp.setContentLengthLong(attributes.size());
+		sendContent(req, resp, regions(path, getMappedContent(path, attributes), 0L, attributes.size()));
+	}
+
+	// Same layout as Jetty's MultiPartOutputStream, with the part headers written between lazy file regions
+	private void sendMultipart(HttpServletRequest req, HttpServletResponse resp, Path path, BasicFileAttributes attributes, List<InclusiveByteRange> ranges) throws IOException {
+		MappedFile mapped = getMappedContent(path, attributes);
+		String boundary = "jetty" + System.identityHashCode(resp) + Long.toString(System.currentTimeMillis(), 36);
+		String contentType = resp.getContentType();
+		ResponseBody body = new ResponseBody();
+		long length = 0L;
+		for (int i = 0; i < ranges.size(); i++) {
+			InclusiveByteRange range = ranges.get(i);
+			StringBuilder header = new StringBuilder();
+			if (i > 0) header.append("\r\n");
+			header.append("--").append(boundary).append("\r\n");
+			if (contentType != null) header.append("Content-Type: ").append(contentType).append("\r\n");
+			header.append("Content-Range: ").append(range.toHeaderRangeString(attributes.size())).append("\r\n\r\n");
+			byte[] headerBytes = header.toString().getBytes(StandardCharsets.ISO_8859_1);
+			body.append(ByteBuffer.wrap(headerBytes));
+			if (mapped != null) retain(mapped);
+			body.append(regions(path, mapped, range.getFirst(), range.getSize()));
+			length += headerBytes.length + range.getSize();
+		}
+		if (mapped != null) release(mapped);
+		byte[] end = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.ISO_8859_1);
+		body.append(ByteBuffer.wrap(end));
+		length += end.length;
+		resp.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+		resp.setContentType("multipart/byteranges; boundary=" + boundary);
+		resp.setContentLengthLong(length);
+		sendContent(req, resp, body);
+	}
+
+	// Takes over the reference to the mapped file, released once the transfer is done with the region
+	private Iterator<ByteBuffer> regions(Path path, MappedFile mapped, long start, long length) {
+		if (mapped != null) return new MappedFileRegion(mapped, start, length);
+		return mapFiles ? new MappedRegions(path, start, length) : new ReadRegions(path, start, length);
+	}
+
+	private static boolean isRangeApplicable(HttpServletRequest req, String etag, BasicFileAttributes attributes) {
+		String ifRange = req.getHeader("If-Range");
+		if (ifRange == null) return true;
+		ifRange = ifRange.trim();
+		if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) return ifRange.equals(etag);
+		try {
+			long date = req.getDateHeader("If-Range");
+			return attributes.lastModifiedTime().toMillis() / 1000L <= date / 1000L;
+		} catch (IllegalArgumentException e) {
+			return false;
+		}
+	}
+
+	private MappedFile getMappedContent(Path path, BasicFileAttributes attributes) throws IOException {
+		if (!mapFiles || attributes.size() > maxMappedFileBytes) return null;
+		synchronized (mappedFiles) {
+			MappedFile mappedFile = mappedFiles.get(path);
+			if (mappedFile != null && mappedFile.matches(attributes)) {
+				mappedHits.increment();
+				mappedFile.references++;
+				return mappedFile;
+			}
+		}
+		mappedMisses.increment();
+		MappedByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0L, attributes.size());
+		}
+		MappedFile mappedFile = new MappedFile(attributes, buffer);
+		synchronized (mappedFiles) {
+			MappedFile previous = mappedFiles.put(path, mappedFile);
+			if (previous != null) {
+				mappedBytes -= previous.buffer.capacity();
+				release(previous);
+			}
+			mappedBytes += buffer.capacity();
+			Iterator<MappedFile> iterator = mappedFiles.values().iterator();
+			while ((mappedBytes > maxMappedBytes || mappedFiles.size() > MAX_MAPPED_FILES) && iterator.hasNext()) {
+				MappedFile eldest = iterator.next();
+				if (eldest == mappedFile) continue;
+				mappedBytes -= eldest.buffer.capacity();
+				iterator.remove();
+				release(eldest);
+			}
+		}
+		return mappedFile;
+	}
+
+	private void retain(MappedFile mappedFile) {
+		synchronized (mappedFiles) {
+			mappedFile.references++;
+		}
+	}
+
+	private void release(MappedFile mappedFile) {
+		synchronized (mappedFiles) {
+			if (--mappedFile.references == 0) unmap(mappedFile.buffer);
+		}
+	}
+
+	// Unmapping has no public API, a buffer that cannot be unmapped is left to the garbage collector
+	private static void unmap(MappedByteBuffer buffer) {
+		try {
+			if (INVOKE_CLEANER != null) {
+				INVOKE_CLEANER.invoke(UNSAFE, buffer);
+				return;
+			}
+			Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+			cleanerMethod.setAccessible(true);
+			Object cleaner = cleanerMethod.invoke(buffer);
+			if (cleaner != null) cleaner.getClass().getMethod("clean").invoke(cleaner);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			// Unmapped by the garbage collector instead
+		}
+	}
+
+	private static final class MappedFile {
+		final long size;
+		final long lastModified;
+		final Object fileKey;
+		final MappedByteBuffer buffer;
+		// One for the cache while it holds the file and one for every region not sent yet
+		int references = 2;
+
+		MappedFile(BasicFileAttributes attributes, MappedByteBuffer buffer) {
+			this.size = attributes.size();
+			this.lastModified = attributes.lastModifiedTime().toMillis();
+			this.fileKey = attributes.fileKey();
+			this.buffer = buffer;
+		}
+
+		boolean matches(BasicFileAttributes attributes) {
+			return size == attributes.size() && lastModified == attributes.lastModifiedTime().toMillis() && Objects.equals(fileKey, attributes.fileKey());
+		}
+	}
+
+	private final class MappedFileRegion implements Iterator<ByteBuffer>, Closeable {
+		private MappedFile mapped;
+		private final long start;
+		private final long length;
+		private boolean sent;
+
+		MappedFileRegion(MappedFile mapped, long start, long length) {
+			this.mapped = mapped;
+			this.start = start;
+			this.length = length;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return !sent;
+		}
+
+		@Override
+		public ByteBuffer next() {
+			if (!hasNext()) throw new NoSuchElementException();
+			sent = true;
+			ByteBuffer region = mapped.buffer.duplicate();
+			region.position((int) start);
+			region.limit((int) (start + length));
+			return region;
+		}
+
+		@Override
+		public void close() {
+			if (mapped == null) return;
+			release(mapped);
+			mapped = null;
+		}
+	}
+
+	// Only the region being sent stays mapped, a region is done with once the next one is requested
+	private static final class MappedRegions implements Iterator<ByteBuffer>, Closeable {
+		private final Path path;
+		private final long end;
+		private long position;
+		private MappedByteBuffer region;
+
+		MappedRegions(Path path, long start, long length) {
+			this.path = path;
+			this.end = start + length;
+			this.position = start;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return position < end;
+		}
+
+		@Override
+		public ByteBuffer next() {
+			if (!hasNext()) throw new NoSuchElementException();
+			close();
+			long regionLength = Math.min(end - position, REGION_MAP_BYTES);
+			try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+				region = channel.map(FileChannel.MapMode.READ_ONLY, position, regionLength);
+				position += regionLength;
+				return region;
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		@Override
+		public void close() {
+			if (region == null) return;
+			unmap(region);
+			region = null;
+		}
+	}
+
+	private static final class ReadRegions implements Iterator<ByteBuffer>, Closeable {
+		private final Path path;
+		private final long end;
+		private long position;
+		private FileChannel channel;
+
+		ReadRegions(Path path, long start, long length) {
+			this.path = path;
+			this.end = start + length;
+			this.position = start;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return position < end;
+		}
+
+		@Override
+		public ByteBuffer next() {
+			if (!hasNext()) throw new NoSuchElementException();
+			ByteBuffer region = ByteBuffer.allocate((int) Math.min(end - position, REGION_READ_BYTES));
+			try {
+				if (channel == null) channel = FileChannel.open(path, StandardOpenOption.READ);
+				while (region.hasRemaining()) {
+					if (channel.read(region, position + region.position()) < 0) throw new IOException("File was truncated while being sent");
+				}
+			} catch (IOException e) {
+				close();
+				throw new UncheckedIOException(e);
+			}
+			position += region.capacity();
+			region.flip();
+			return region;
+		}
+
+		@Override
+		public void close() {
+			if (channel == null) return;
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// Nothing was written through the channel
+			}
+			channel = null;
+		}
+	}
+}
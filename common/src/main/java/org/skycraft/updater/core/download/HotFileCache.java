@@ -0,0 +1,269 @@
+package org.skycraft.updater.core.download;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+
+public final class HotFileCache {
+	// A single file may take at most this share of the budget
+	private static final int MAX_ENTRY_SHARE = 8;
+
+	private final long maxBytes;
+	private final long maxEntryBytes;
+	private final FrequencySketch sketch;
+	private final Map<String, ByteBuffer> entries = new LinkedHashMap<>(16, 0.75F, true);
+	private final Map<String, CompletableFuture<ByteBuffer>> loading = new ConcurrentHashMap<>();
+	private long usedBytes;
+
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder coalesced = new LongAdder();
+	private final LongAdder rejections = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+
+	public HotFileCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+		this.maxEntryBytes = Math.min(maxBytes / MAX_ENTRY_SHARE, Integer.MAX_VALUE);
+		this.sketch = new FrequencySketch(maxBytes);
+	}
+
+	public Optional<ByteBuffer> get(String key, Path path, long size, String expectedHash) throws IOException {
+		sketch.increment(key);
+		synchronized (entries) {
+			ByteBuffer buffer = entries.get(key);
+			if (buffer != null) {
+				hits.increment();
+				return Optional.of(buffer.duplicate());
+			}
+		}
+		misses.increment();
+		if (size > maxEntryBytes) return Optional.empty();
+		CompletableFuture<ByteBuffer> future = new CompletableFuture<>();
+		CompletableFuture<ByteBuffer> existing = loading.putIfAbsent(key, future);
+		if (existing != null) {
+			coalesced.increment();
+			return Optional.ofNullable(join(existing)).map(ByteBuffer::duplicate);
+		}
+		try {
+			if (!admit(key, size)) {
+				rejections.increment();
+				future.complete(null);
+				return Optional.empty();
+			}
+			ByteBuffer buffer = load(path, size, expectedHash);
+			if (buffer != null) insert(key, buffer);
+			future.complete(buffer);
+			return Optional.ofNullable(buffer).map(ByteBuffer::duplicate);
+		} catch (IOException | RuntimeException e) {
+			future.completeExceptionally(e);
+			throw e;
+		} finally {
+			loading.remove(key, future);
+		}
+	}
+
+	public void retain(Set<String> hashes) {
+		synchronized (entries) {
+			Iterator<Map.Entry<String, ByteBuffer>> iterator = entries.entrySet().iterator();
+			while (iterator.hasNext()) {
+				Map.Entry<String, ByteBuffer> entry = iterator.next();
+				String key = entry.getKey();
+				int suffix = key.indexOf('-');
+				if (hashes.contains(suffix < 0 ? key : key.substring(0, suffix))) continue;
+				usedBytes -= entry.getValue().capacity();
+				iterator.remove();
+			}
+		}
+	}
+
+	public Stats getStats() {
+		synchronized (entries) {
+			return new Stats(hits.sum(), misses.sum(), coalesced.sum(), rejections.sum(), evictions.sum(), entries.size(), usedBytes, maxBytes);
+		}
+	}
+
+	private boolean admit(String key, long size) {
+		synchronized (entries) {
+			if (usedBytes + size <= maxBytes) return true;
+			int frequency = sketch.frequency(key);
+			long freed = 0L;
+			for (Map.Entry<String, ByteBuffer> victim : entries.entrySet()) {
+				if (sketch.frequency(victim.getKey()) >= frequency) return false;
+				freed += victim.getValue().capacity();
+				if (usedBytes - freed + size <= maxBytes) return true;
+			}
+			return false;
+		}
+	}
+
+	private void insert(String key, ByteBuffer buffer) {
+		synchronized (entries) {
+			ByteBuffer previous = entries.put(key, buffer);
+			if (previous != null) usedBytes -= previous.capacity();
+			usedBytes += buffer.capacity();
+			Iterator<ByteBuffer> iterator = entries.values().iterator();
+			while (usedBytes > maxBytes && iterator.hasNext()) {
+				ByteBuffer eldest = iterator.next();
+				if (eldest == buffer) continue;
+				usedBytes -= eldest.capacity();
+				iterator.remove();
+				evictions.increment();
+			}
+		}
+	}
+
+	private static ByteBuffer load(Path path, long size, String expectedHash) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocateDirect((int) size);
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer, buffer.position()) < 0) return null;
+			}
+		}
+		buffer.flip();
+		if (expectedHash != null) {
+			MessageDigest digest = DigestUtils.getMd5Digest();
+			digest.update(buffer.duplicate());
+			if (!Hex.encodeHexString(digest.digest()).equals(expectedHash)) return null;
+		}
+		return buffer.asReadOnlyBuffer();
+	}
+
+	private static ByteBuffer join(CompletableFuture<ByteBuffer> future) throws IOException {
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+			if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+			throw new IOException(e.getCause());
+		}
+	}
+
+	public static final class Stats {
+		private final long hits;
+		private final long misses;
+		private final long coalesced;
+		private final long rejections;
+		private final long evictions;
+		private final int entries;
+		private final long usedBytes;
+		private final long maxBytes;
+
+		private Stats(long hits, long misses, long coalesced, long rejections, long evictions, int entries, long usedBytes, long maxBytes) {
+			this.hits = hits;
+			this.misses = misses;
+			this.coalesced = coalesced;
+			this.rejections = rejections;
+			this.evictions = evictions;
+			this.entries = entries;
+			this.usedBytes = usedBytes;
+			this.maxBytes = maxBytes;
+		}
+
+		public long getHits() {
+			return hits;
+		}
+
+		public long getMisses() {
+			return misses;
+		}
+
+		public long getCoalesced() {
+			return coalesced;
+		}
+
+		public long getRejections() {
+			return rejections;
+		}
+
+		public long getEvictions() {
+			return evictions;
+		}
+
+		public int getEntries() {
+			return entries;
+		}
+
+		public long getUsedBytes() {
+			return usedBytes;
+		}
+
+		public long getMaxBytes() {
+			return maxBytes;
+		}
+
+		@Override
+		public String toString() {
+			return hits + " hits, " + misses + " misses (" + coalesced + " coalesced, " + rejections + " rejected), "
+				+ evictions + " evictions, " + entries + " files using " + usedBytes / 1024L + " of " + maxBytes / 1024L + " KiB";
+		}
+	}
+
+	// Count-min sketch with counters capped at 15 and halved periodically so popularity ages out (TinyLFU)
+	private static final class FrequencySketch {
+		private static final int DEPTH = 4;
+		private static final int MAX_COUNT = 15;
+		private static final long[] SEEDS = { 0x97cb3127L, 0xb492b66fL, 0x9ae16a3bL, 0xc3a5c85cL };
+
+		private final byte[][] table;
+		private final int mask;
+		private final int sampleSize;
+		private int additions;
+
+		FrequencySketch(long maxBytes) {
+			int width = Integer.highestOneBit((int) Math.max(1024L, Math.min(1L << 20, maxBytes / 8192L)));
+			this.table = new byte[DEPTH][width];
+			this.mask = width - 1;
+			this.sampleSize = width * 10;
+		}
+
+		synchronized void increment(String key) {
+			int hash = key.hashCode();
+			boolean added = false;
+			for (int i = 0; i < DEPTH; i++) {
+				int index = index(hash, i);
+				if (table[i][index] < MAX_COUNT) {
+					table[i][index]++;
+					added = true;
+				}
+			}
+			if (added && ++additions >= sampleSize) reset();
+		}
+
+		synchronized int frequency(String key) {
+			int hash = key.hashCode();
+			int frequency = MAX_COUNT;
+			for (int i = 0; i < DEPTH; i++) {
+				frequency = Math.min(frequency, table[i][index(hash, i)]);
+			}
+			return frequency;
+		}
+
+		private int index(int hash, int row) {
+			long h = (hash + SEEDS[row]) * SEEDS[row];
+			return (int) (h ^ (h >>> 32)) & mask;
+		}
+
+		private void reset() {
+			for (byte[] row : table) {
+				for (int i = 0; i < row.length; i++) {
+					row[i] >>= 1;
+				}
+			}
+			additions /= 2;
+		}
+	}
+}
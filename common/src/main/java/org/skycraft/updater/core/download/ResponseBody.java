@@ -0,0 +1,60 @@
+package org.skycraft.updater.core.download;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+public final class ResponseBody implements Iterator<ByteBuffer>, Closeable {
+	private final Deque<Iterator<ByteBuffer>> parts = new ArrayDeque<>();
+	private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+	private final DataOutputStream data = new DataOutputStream(pending);
+
+	public DataOutputStream data() {
+		return data;
+	}
+
+	public ResponseBody append(ByteBuffer buffer) {
+		return append(Collections.singletonList(buffer).iterator());
+	}
+
+	public ResponseBody append(Iterator<ByteBuffer> buffers) {
+		flushPending();
+		parts.add(buffers);
+		return this;
+	}
+
+	@Override
+	public boolean hasNext() {
+		flushPending();
+		while (!parts.isEmpty()) {
+			if (parts.peek().hasNext()) return true;
+			AsyncTransfer.close(parts.poll());
+		}
+		return false;
+	}
+
+	@Override
+	public ByteBuffer next() {
+		if (!hasNext()) throw new NoSuchElementException();
+		return parts.peek().next();
+	}
+
+	@Override
+	public void close() {
+		while (!parts.isEmpty()) {
+			AsyncTransfer.close(parts.poll());
+		}
+	}
+
+	private void flushPending() {
+		if (pending.size() == 0) return;
+		parts.add(Collections.singletonList(ByteBuffer.wrap(pending.toByteArray())).iterator());
+		pending.reset();
+	}
+}
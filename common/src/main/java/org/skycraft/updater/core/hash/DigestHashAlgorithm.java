@@ -0,0 +1,29 @@
+package org.skycraft.updater.core.hash;
+
+import java.security.MessageDigest;
+import org.apache.commons.codec.digest.DigestUtils;
+
+final class DigestHashAlgorithm extends HashAlgorithm {
+	private final String digestName;
+
+	DigestHashAlgorithm(String name, String digestName, int digestLength) {
+		super(name, digestLength);
+		this.digestName = digestName;
+	}
+
+	@Override
+	public Hasher newHasher() {
+		MessageDigest digest = DigestUtils.getDigest(digestName);
+		return new Hasher() {
+			@Override
+			public void update(byte[] data, int offset, int length) {
+				digest.update(data, offset, length);
+			}
+
+			@Override
+			public byte[] digest() {
+				return digest.digest();
+			}
+		};
+	}
+}
@@ -0,0 +1,77 @@
+package org.skycraft.updater.core.hash;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import org.apache.commons.codec.binary.Hex;
+
+public abstract class HashAlgorithm {
+	public static final HashAlgorithm MD5 = new DigestHashAlgorithm("md5", "MD5", 16);
+	public static final HashAlgorithm SHA256 = new DigestHashAlgorithm("sha256", "SHA-256", 32);
+	public static final HashAlgorithm XXH64 = new Xxh64();
+	private static final List<HashAlgorithm> ALGORITHMS = Arrays.asList(MD5, SHA256, XXH64);
+
+	private final String name;
+	private final int digestLength;
+
+	protected HashAlgorithm(String name, int digestLength) {
+		this.name = name;
+		this.digestLength = digestLength;
+	}
+
+	public static Optional<HashAlgorithm> forName(String name) {
+		for (HashAlgorithm algorithm : ALGORITHMS) {
+			if (algorithm.name.equals(name)) return Optional.of(algorithm);
+		}
+		return Optional.empty();
+	}
+
+	public final String getName() {
+		return name;
+	}
+
+	public final int getDigestLength() {
+		return digestLength;
+	}
+
+	public abstract Hasher newHasher();
+
+	public final String hashHex(InputStream in) throws IOException {
+		Hasher hasher = newHasher();
+		hasher.update(in);
+		return hasher.hexDigest();
+	}
+
+	public final String hashHex(byte[] data) {
+		Hasher hasher = newHasher();
+		hasher.update(data, 0, data.length);
+		return hasher.hexDigest();
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+	public abstract static class Hasher {
+		private static final int BUFFER_BYTES = 64 * 1024;
+
+		public abstract void update(byte[] data, int offset, int length);
+
+		public abstract byte[] digest();
+
+		public final void update(InputStream in) throws IOException {
+			byte[] buffer = new byte[BUFFER_BYTES];
+			int len;
+			while ((len = in.read(buffer)) >= 0) {
+				update(buffer, 0, len);
+			}
+		}
+
+		public final String hexDigest() {
+			return Hex.encodeHexString(digest());
+		}
+	}
+}
@@ -0,0 +1,142 @@
+package org.skycraft.updater.core.hash;
+
+// xxHash64 with seed 0, digests are written big endian like the reference xxhsum output
+final class Xxh64 extends HashAlgorithm {
+	private static final long PRIME1 = 0x9E3779B185EBCA87L;
+	private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+	private static final long PRIME3 = 0x165667B19E3779F9L;
+	private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+	private static final long PRIME5 = 0x27D4EB2F165667C5L;
+	private static final int STRIPE_BYTES = 32;
+
+	Xxh64() {
+		super("xxh64", 8);
+	}
+
+	@Override
+	public Hasher newHasher() {
+		return new Xxh64Hasher();
+	}
+
+	private static long round(long acc, long input) {
+		acc += input * PRIME2;
+		acc = Long.rotateLeft(acc, 31);
+		return acc * PRIME1;
+	}
+
+	private static long mergeRound(long acc, long value) {
+		acc ^= round(0L, value);
+		return acc * PRIME1 + PRIME4;
+	}
+
+	private static long readLong(byte[] data, int offset) {
+		return (data[offset] & 0xFFL)
+			| (data[offset + 1] & 0xFFL) << 8
+			| (data[offset + 2] & 0xFFL) << 16
+			| (data[offset + 3] & 0xFFL) << 24
+			| (data[offset + 4] & 0xFFL) << 32
+			| (data[offset + 5] & 0xFFL) << 40
+			| (data[offset + 6] & 0xFFL) << 48
+			| (data[offset + 7] & 0xFFL) << 56;
+	}
+
+	private static long readInt(byte[] data, int offset) {
+		return (data[offset] & 0xFFL)
+			| (data[offset + 1] & 0xFFL) << 8
+			| (data[offset + 2] & 0xFFL) << 16
+			| (data[offset + 3] & 0xFFL) << 24;
+	}
+
+	private static final class Xxh64Hasher extends Hasher {
+		private final byte[] buffer = new byte[STRIPE_BYTES];
+		private int buffered;
+		private long total;
+		private long v1 = PRIME1 + PRIME2;
+		private long v2 = PRIME2;
+		private long v3 = 0L;
+		private long v4 = -PRIME1;
+
+		@Override
+		public void update(byte[] data, int offset, int length) {
+			total += length;
+			if (buffered + length < STRIPE_BYTES) {
+				System.arraycopy(data, offset, buffer, buffered, length);
+				buffered += length;
+				return;
+			}
+			if (buffered > 0) {
+				int fill = STRIPE_BYTES - buffered;
+				System.arraycopy(data, offset, buffer, buffered, fill);
+				stripe(buffer, 0);
+				offset += fill;
+				length -= fill;
+				buffered = 0;
+			}
+			int end = offset + length - STRIPE_BYTES;
+			long v1 = this.v1;
+			long v2 = this.v2;
+			long v3 = this.v3;
+			long v4 = this.v4;
+			while (offset <= end) {
+				v1 = round(v1, readLong(data, offset));
+				v2 = round(v2, readLong(data, offset + 8));
+				v3 = round(v3, readLong(data, offset + 16));
+				v4 = round(v4, readLong(data, offset + 24));
+				offset += STRIPE_BYTES;
+			}
+			this.v1 = v1;
+			this.v2 = v2;
+			this.v3 = v3;
+			this.v4 = v4;
+			buffered = end + STRIPE_BYTES - offset;
+			System.arraycopy(data, offset, buffer, 0, buffered);
+		}
+
+		@Override
+		public byte[] digest() {
+			long hash;
+			if (total >= STRIPE_BYTES) {
+				hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+				hash = mergeRound(hash, v1);
+				hash = mergeRound(hash, v2);
+				hash = mergeRound(hash, v3);
+				hash = mergeRound(hash, v4);
+			} else {
+				hash = PRIME5;
+			}
+			hash += total;
+			int offset = 0;
+			for (; offset + 8 <= buffered; offset += 8) {
+				hash ^= round(0L, readLong(buffer, offset));
+				hash = Long.rotateLeft(hash, 27) * PRIME1 + PRIME4;
+			}
+			if (offset + 4 <= buffered) {
+				hash ^= readInt(buffer, offset) * PRIME1;
+				hash = Long.rotateLeft(hash, 23) * PRIME2 + PRIME3;
+				offset += 4;
+			}
+			for (; offset < buffered; offset++) {
+				hash ^= (buffer[offset] & 0xFFL) * PRIME5;
+				hash = Long.rotateLeft(hash, 11) * PRIME1;
+			}
+			hash ^= hash >>> 33;
+			hash *= PRIME2;
+			hash ^= hash >>> 29;
+			hash *= PRIME3;
+			hash ^= hash >>> 32;
+			byte[] digest = new byte[8];
+			for (int i = 7; i >= 0; i--) {
+				digest[i] = (byte) hash;
+				hash >>>= 8;
+			}
+			return digest;
+		}
+
+		private void stripe(byte[] data, int offset) {
+			v1 = round(v1, readLong(data, offset));
+			v2 = round(v2, readLong(data, offset + 8));
+			v3 = round(v3, readLong(data, offset + 16));
+			v4 = round(v4, readLong(data, offset + 24));
+		}
+	}
+}
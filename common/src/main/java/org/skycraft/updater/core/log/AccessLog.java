@@ -0,0 +1,366 @@
+package org.skycraft.updater.core.log;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.servlet.http.HttpServletRequest;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.RequestLog;
+import org.eclipse.jetty.server.Response;
+
+public final class AccessLog implements RequestLog, Closeable {
+	public static final String DEFAULT_FORMAT = "%h - - %t \"%r\" %s %b %D %x";
+
+	private static final String DETAIL_ATTRIBUTE = AccessLog.class.getName() + ".detail";
+	private static final int RING_SIZE = 8192;
+	private static final int BATCH_SIZE = 512;
+	private static final long FLUSH_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100L);
+	private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("dd/MMM/yyyy:HH:mm:ss Z", Locale.ENGLISH).withZone(ZoneId.systemDefault());
+
+	private final Logger logger;
+	private final List<Token> tokens;
+	private final String[] headers;
+	private final double sampleRate;
+	private final BufferedWriter writer;
+	private final Event[] ring = new Event[RING_SIZE];
+	private final AtomicLong head = new AtomicLong();
+	private volatile long tail;
+	private final LongAdder written = new LongAdder();
+	private final LongAdder dropped = new LongAdder();
+	private final StringBuilder line = new StringBuilder(256);
+	private final Thread thread;
+	private volatile boolean running = true;
+
+	public AccessLog(Logger logger, Path path, String format, double sampleRate) throws IOException {
+		this.logger = logger;
+		List<String> headers = new ArrayList<>();
+		this.tokens = parse(format, headers);
+		this.headers = headers.toArray(new String[0]);
+		this.sampleRate = sampleRate;
+		for (int i = 0; i < ring.length; i++) {
+			ring[i] = new Event(this.headers.length);
+		}
+		Path parent = path.toAbsolutePath().getParent();
+		if (parent != null) Files.createDirectories(parent);
+		this.writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		this.thread = new Thread(this::drainLoop, "Updater Access Log");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	// Handlers attach a small value, rendered with %x, the object is only formatted on the writer thread
+	public static void detail(HttpServletRequest req, Object detail) {
+		req.setAttribute(DETAIL_ATTRIBUTE, detail);
+	}
+
+	public long getWritten() {
+		return written.sum();
+	}
+
+	public long getDropped() {
+		return dropped.sum();
+	}
+
+	@Override
+	public void log(Request request, Response response) {
+		int status = response.getStatus();
+		// Failed requests are always kept, sampling only thins out successful ones
+		if (sampleRate < 1.0 && status < 400 && ThreadLocalRandom.current().nextDouble() >= sampleRate) return;
+		long sequence;
+		do {
+			sequence = head.get();
+			if (sequence - tail >= ring.length) {
+				dropped.increment();
+				return;
+			}
+		} while (!head.compareAndSet(sequence, sequence + 1L));
+		Event event = ring[(int) sequence & (ring.length - 1)];
+		event.time = request.getTimeStamp();
+		event.millis = System.currentTimeMillis() - event.time;
+		event.remote = request.getRemoteInetSocketAddress();
+		event.method = request.getMethod();
+		event.uri = request.getRequestURI();
+		event.query = request.getQueryString();
+		event.protocol = request.getProtocol();
+		event.status = status;
+		event.bytes = response.getHttpChannel().getBytesWritten();
+		event.detail = request.getAttribute(DETAIL_ATTRIBUTE);
+		for (int i = 0; i < headers.length; i++) {
+			event.headers[i] = request.getHeader(headers[i]);
+		}
+		event.sequence = sequence;
+	}
+
+	@Override
+	public void close() {
+		running = false;
+		LockSupport.unpark(thread);
+		try {
+			thread.join(TimeUnit.SECONDS.toMillis(5L));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		try {
+			writer.close();
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Could not close access log", e);
+		}
+	}
+
+	private void drainLoop() {
+		while (running) {
+			if (drain() == 0) LockSupport.parkNanos(this, FLUSH_INTERVAL_NANOS);
+		}
+		while (drain() > 0) {
+			// Flush what was logged before close
+		}
+	}
+
+	private int drain() {
+		long next = tail;
+		int count = 0;
+		try {
+			while (count < BATCH_SIZE) {
+				Event event = ring[(int) next & (ring.length - 1)];
+				if (event.sequence != next) break;
+				format(event);
+				writer.write(line.toString());
+				event.clear();
+				next++;
+				count++;
+			}
+			if (count > 0) writer.flush();
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Could not write access log", e);
+			// Skip the batch that could not be written rather than retrying it forever
+			while (ring[(int) next & (ring.length - 1)].sequence == next && count < BATCH_SIZE) {
+				ring[(int) next & (ring.length - 1)].clear();
+				next++;
+				count++;
+			}
+		}
+		written.add(count);
+		tail = next;
+		return count;
+	}
+
+	private void format(Event event) {
+		line.setLength(0);
+		for (Token token : tokens) {
+			switch (token.type) {
+				case LITERAL:
+					line.append(token.text);
+					break;
+				case REMOTE:
+					line.append(event.remote == null ? "-" : event.remote.getAddress() != null ? event.remote.getAddress().getHostAddress() : event.remote.getHostString());
+					break;
+				case TIME:
+					line.append('[');
+					TIME_FORMAT.formatTo(Instant.ofEpochMilli(event.time), line);
+					line.append(']');
+					break;
+				case REQUEST:
+					line.append(event.method).append(' ').append(event.uri);
+					if (event.query != null) line.append('?').append(event.query);
+					line.append(' ').append(event.protocol);
+					break;
+				case METHOD:
+					line.append(event.method);
+					break;
+				case PATH:
+					line.append(event.uri);
+					break;
+				case QUERY:
+					if (event.query != null) line.append('?').append(event.query);
+					break;
+				case PROTOCOL:
+					line.append(event.protocol);
+					break;
+				case STATUS:
+					line.append(event.status);
+					break;
+				case BYTES_CLF:
+					if (event.bytes > 0L) {
+						line.append(event.bytes);
+					} else {
+						line.append('-');
+					}
+					break;
+				case BYTES:
+					line.append(event.bytes);
+					break;
+				case DURATION_SECONDS:
+					line.append(event.millis / 1000L);
+					break;
+				case DURATION_MILLIS:
+					line.append(event.millis);
+					break;
+				case DURATION_MICROS:
+					line.append(TimeUnit.MILLISECONDS.toMicros(event.millis));
+					break;
+				case HEADER:
+					String value = event.headers[token.header];
+					line.append(value == null ? "-" : value);
+					break;
+				case DETAIL:
+					line.append(event.detail == null ? "-" : event.detail);
+					break;
+			}
+		}
+		line.append(System.lineSeparator());
+	}
+
+	private static List<Token> parse(String format, List<String> headers) {
+		List<Token> tokens = new ArrayList<>();
+		StringBuilder literal = new StringBuilder();
+		int i = 0;
+		while (i < format.length()) {
+			char c = format.charAt(i++);
+			if (c != '%') {
+				literal.append(c);
+				continue;
+			}
+			if (i >= format.length()) throw new IllegalArgumentException("Access log format ends with %");
+			String argument = null;
+			if (format.charAt(i) == '{') {
+				int end = format.indexOf('}', i);
+				if (end < 0) throw new IllegalArgumentException("Unclosed { in access log format");
+				argument = format.substring(i + 1, end);
+				i = end + 1;
+				if (i >= format.length()) throw new IllegalArgumentException("Access log format ends with %{" + argument + "}");
+			}
+			char code = format.charAt(i++);
+			if (code == '%') {
+				literal.append('%');
+				continue;
+			}
+			TokenType type = TokenType.of(code);
+			// Like Apache, %{UNIT}T takes the duration in s, ms or us
+			if (type == TokenType.DURATION_SECONDS && argument != null) {
+				type = TokenType.ofDurationUnit(argument);
+				if (type != null) argument = null;
+			}
+			if (type == null || (type == TokenType.HEADER) != (argument != null)) {
+				throw new IllegalArgumentException("Unknown access log format token %" + (argument != null ? "{" + argument + "}" : "") + code);
+			}
+			if (literal.length() > 0) {
+				tokens.add(new Token(TokenType.LITERAL, literal.toString(), -1));
+				literal.setLength(0);
+			}
+			if (type == TokenType.HEADER) {
+				tokens.add(new Token(type, null, headers.size()));
+				headers.add(argument);
+			} else {
+				tokens.add(new Token(type, null, -1));
+			}
+		}
+		if (literal.length() > 0) tokens.add(new Token(TokenType.LITERAL, literal.toString(), -1));
+		return tokens;
+	}
+
+	private enum TokenType {
+		LITERAL('\0'),
+		REMOTE('h'),
+		TIME('t'),
+		REQUEST('r'),
+		METHOD('m'),
+		PATH('U'),
+		QUERY('q'),
+		PROTOCOL('H'),
+		STATUS('s'),
+		BYTES_CLF('b'),
+		BYTES('B'),
+		DURATION_SECONDS('T'),
+		DURATION_MILLIS('\0'),
+		DURATION_MICROS('D'),
+		HEADER('i'),
+		DETAIL('x');
+
+		private final char code;
+
+		TokenType(char code) {
+			this.code = code;
+		}
+
+		static TokenType of(char code) {
+			for (TokenType type : values()) {
+				if (type.code != '\0' && type.code == code) return type;
+			}
+			return null;
+		}
+
+		static TokenType ofDurationUnit(String unit) {
+			switch (unit) {
+				case "s":
+					return DURATION_SECONDS;
+				case "ms":
+					return DURATION_MILLIS;
+				case "us":
+					return DURATION_MICROS;
+				default:
+					return null;
+			}
+		}
+	}
+
+	private static final class Token {
+		final TokenType type;
+		final String text;
+		final int header;
+
+		Token(TokenType type, String text, int header) {
+			this.type = type;
+			this.text = text;
+			this.header = header;
+		}
+	}
+
+	private static final class Event {
+		volatile long sequence = -1L;
+		long time;
+		long millis;
+		InetSocketAddress remote;
+		String method;
+		String uri;
+		String query;
+		String protocol;
+		int status;
+		long bytes;
+		Object detail;
+		final String[] headers;
+
+		Event(int headers) {
+			this.headers = new String[headers];
+		}
+
+		void clear() {
+			remote = null;
+			method = null;
+			uri = null;
+			query = null;
+			protocol = null;
+			detail = null;
+			for (int i = 0; i < headers.length; i++) {
+				headers[i] = null;
+			}
+		}
+	}
+}
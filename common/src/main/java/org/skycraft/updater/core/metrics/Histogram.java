@@ -0,0 +1,58 @@
+package org.skycraft.updater.core.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+public final class Histogram {
+	// 0.5 ms to about 2 minutes, each bucket twice the previous one
+	private static final long[] LATENCY_BOUNDS = exponentialBounds(TimeUnit.MICROSECONDS.toNanos(500L), 2L, 19);
+
+	private final long[] bounds;
+	private final LongAdder[] buckets;
+	private final LongAdder sum = new LongAdder();
+
+	public Histogram() {
+		this(LATENCY_BOUNDS);
+	}
+
+	public Histogram(long[] bounds) {
+		this.bounds = bounds.clone();
+		this.buckets = new LongAdder[bounds.length + 1];
+		for (int i = 0; i < buckets.length; i++) {
+			buckets[i] = new LongAdder();
+		}
+	}
+
+	public void record(long nanos) {
+		int index = Arrays.binarySearch(bounds, nanos);
+		buckets[index < 0 ? -index - 1 : index].increment();
+		sum.add(nanos);
+	}
+
+	public int getBucketCount() {
+		return buckets.length;
+	}
+
+	public long getBound(int bucket) {
+		return bucket < bounds.length ? bounds[bucket] : Long.MAX_VALUE;
+	}
+
+	public long getCount(int bucket) {
+		return buckets[bucket].sum();
+	}
+
+	public long getSum() {
+		return sum.sum();
+	}
+
+	private static long[] exponentialBounds(long start, long factor, int count) {
+		long[] bounds = new long[count];
+		long bound = start;
+		for (int i = 0; i < count; i++) {
+			bounds[i] = bound;
+			bound *= factor;
+		}
+		return bounds;
+	}
+}
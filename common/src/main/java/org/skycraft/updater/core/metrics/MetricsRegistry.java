@@ -0,0 +1,124 @@
+package org.skycraft.updater.core.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+
+public final class MetricsRegistry {
+	public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	private final Map<String, Family> families = new ConcurrentSkipListMap<>();
+
+	public LongAdder counter(String name, String help, String... labels) {
+		return (LongAdder) family(name, help, "counter").metrics.computeIfAbsent(labels(labels), key -> new LongAdder());
+	}
+
+	public void counter(String name, String help, LongSupplier value, String... labels) {
+		family(name, help, "counter").metrics.put(labels(labels), value);
+	}
+
+	public void gauge(String name, String help, DoubleSupplier value, String... labels) {
+		family(name, help, "gauge").metrics.put(labels(labels), value);
+	}
+
+	public Histogram histogram(String name, String help, String... labels) {
+		return (Histogram) family(name, help, "histogram").metrics.computeIfAbsent(labels(labels), key -> new Histogram());
+	}
+
+	public void histogram(String name, String help, Histogram histogram, String... labels) {
+		family(name, help, "histogram").metrics.put(labels(labels), histogram);
+	}
+
+	public void write(Writer writer) throws IOException {
+		for (Family family : families.values()) {
+			writer.write("# HELP " + family.name + " " + family.help + "\n");
+			writer.write("# TYPE " + family.name + " " + family.type + "\n");
+			for (Map.Entry<String, Object> metric : family.metrics.entrySet()) {
+				String labels = metric.getKey();
+				Object value = metric.getValue();
+				if (value instanceof Histogram) {
+					writeHistogram(writer, family.name, labels, (Histogram) value);
+				} else if (value instanceof LongAdder) {
+					writeSample(writer, family.name, labels, Long.toString(((LongAdder) value).sum()));
+				} else if (value instanceof LongSupplier) {
+					writeSample(writer, family.name, labels, Long.toString(((LongSupplier) value).getAsLong()));
+				} else {
+					writeSample(writer, family.name, labels, formatDouble(((DoubleSupplier) value).getAsDouble()));
+				}
+			}
+		}
+	}
+
+	private Family family(String name, String help, String type) {
+		Family family = families.computeIfAbsent(name, key -> new Family(name, help, type));
+		if (!family.type.equals(type)) throw new IllegalArgumentException("Metric " + name + " is already registered as " + family.type);
+		return family;
+	}
+
+	private static void writeHistogram(Writer writer, String name, String labels, Histogram histogram) throws IOException {
+		String prefix = labels.isEmpty() ? "" : labels + ",";
+		long count = 0L;
+		for (int i = 0; i < histogram.getBucketCount(); i++) {
+			count += histogram.getCount(i);
+			long bound = histogram.getBound(i);
+			String le = bound == Long.MAX_VALUE ? "+Inf" : formatDouble((double) bound / TimeUnit.SECONDS.toNanos(1L));
+			writeSample(writer, name + "_bucket", prefix + "le=\"" + le + "\"", Long.toString(count));
+		}
+		writeSample(writer, name + "_sum", labels, formatDouble((double) histogram.getSum() / TimeUnit.SECONDS.toNanos(1L)));
+		writeSample(writer, name + "_count", labels, Long.toString(count));
+	}
+
+	private static void writeSample(Writer writer, String name, String labels, String value) throws IOException {
+		writer.write(name);
+		if (!labels.isEmpty()) writer.write("{" + labels + "}");
+		writer.write(" ");
+		writer.write(value);
+		writer.write("\n");
+	}
+
+	private static String labels(String... labels) {
+		if (labels.length % 2 != 0) throw new IllegalArgumentException("Labels must be name and value pairs");
+		StringBuilder builder = new StringBuilder();
+		for (int i = 0; i < labels.length; i += 2) {
+			if (builder.length() > 0) builder.append(',');
+			builder.append(labels[i]).append("=\"");
+			String value = labels[i + 1];
+			for (int j = 0; j < value.length(); j++) {
+				char c = value.charAt(j);
+				if (c == '\\' || c == '"') {
+					builder.append('\\').append(c);
+				} else if (c == '\n') {
+					builder.append("\\n");
+				} else {
+					builder.append(c);
+				}
+			}
+			builder.append('"');
+		}
+		return builder.toString();
+	}
+
+	private static String formatDouble(double value) {
+		if (Double.isNaN(value)) return "NaN";
+		if (Double.isInfinite(value)) return value > 0 ? "+Inf" : "-Inf";
+		return value == Math.rint(value) && Math.abs(value) < 1e15 ? Long.toString((long) value) : Double.toString(value);
+	}
+
+	private static final class Family {
+		final String name;
+		final String help;
+		final String type;
+		final Map<String, Object> metrics = new ConcurrentSkipListMap<>();
+
+		Family(String name, String help, String type) {
+			this.name = name;
+			this.help = help;
+			this.type = type;
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package org.skycraft.updater.core.metrics;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.servlet.http.HttpServletRequest;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.RequestLog;
+import org.eclipse.jetty.server.Response;
+import org.skycraft.updater.core.protocol.NotFoundReason;
+
+public final class ProviderMetrics implements RequestLog {
+	private static final String REQUEST_ATTRIBUTE = ProviderMetrics.class.getName();
+
+	private final MetricsRegistry registry = new MetricsRegistry();
+	private final Map<NotFoundReason, LongAdder> notFound = new EnumMap<>(NotFoundReason.class);
+
+	public ProviderMetrics() {
+		for (NotFoundReason reason : NotFoundReason.values()) {
+			notFound.put(reason, registry.counter("updater_not_found_total", "Requests answered with 404 by reason", "reason", reason.getLabel()));
+		}
+	}
+
+	public MetricsRegistry getRegistry() {
+		return registry;
+	}
+
+	public Endpoint endpoint(String protocol, String name) {
+		return new Endpoint(protocol, name);
+	}
+
+	public void notFound(NotFoundReason reason) {
+		notFound.get(reason).increment();
+	}
+
+	@Override
+	public void log(Request request, Response response) {
+		// Called once the response is complete, including asynchronous transfers
+		Object attribute = request.getAttribute(REQUEST_ATTRIBUTE);
+		if (attribute instanceof ActiveRequest) ((ActiveRequest) attribute).complete(response.getStatus(), response.getHttpChannel().getBytesWritten());
+	}
+
+	public final class Endpoint {
+		private final String protocol;
+		private final String name;
+		private final LongAdder active;
+		private final LongAdder sentBytes;
+		private final Histogram latency;
+		private final Map<Integer, LongAdder> responses = new ConcurrentHashMap<>();
+
+		private Endpoint(String protocol, String name) {
+			this.protocol = protocol;
+			this.name = name;
+			this.active = new LongAdder();
+			registry.gauge("updater_requests_active", "Requests currently being served", active::sum, "protocol", protocol, "endpoint", name);
+			this.sentBytes = registry.counter("updater_sent_bytes_total", "Response body bytes sent", "protocol", protocol, "endpoint", name);
+			this.latency = registry.histogram("updater_request_duration_seconds", "Time from request start until the response is complete", "protocol", protocol, "endpoint", name);
+		}
+
+		public void begin(HttpServletRequest req) {
+			active.increment();
+			req.setAttribute(REQUEST_ATTRIBUTE, new ActiveRequest(this, System.nanoTime()));
+		}
+
+		private void complete(int status, long bytes, long nanos) {
+			active.decrement();
+			sentBytes.add(bytes);
+			latency.record(nanos);
+			LongAdder counter = responses.get(status);
+			if (counter == null) {
+				counter = responses.computeIfAbsent(status, code -> registry.counter("updater_requests_total", "Completed requests by status code",
+					"protocol", protocol, "endpoint", name, "status", Integer.toString(code)));
+			}
+			counter.increment();
+		}
+	}
+
+	private static final class ActiveRequest {
+		final Endpoint endpoint;
+		final long startNanos;
+
+		ActiveRequest(Endpoint endpoint, long startNanos) {
+			this.endpoint = endpoint;
+			this.startNanos = startNanos;
+		}
+
+		void complete(int status, long bytes) {
+			endpoint.complete(status, bytes, System.nanoTime() - startNanos);
+		}
+	}
+}
@@ -0,0 +1,190 @@
+package org.skycraft.updater.core.precache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+import org.skycraft.updater.core.hash.HashAlgorithm;
+
+public final class HashIndex {
+	private static final int MAGIC = 0x53434849;
+	private static final int VERSION = 2;
+	// Written before digests were added, with the MD5 hash of every file only
+	private static final int MD5_VERSION = 1;
+	// Files modified this close to the moment they were hashed may change again
+	// without a visible mtime change, so their stored hashes are never trusted
+	private static final long RACY_WINDOW_MILLIS = 2000L;
+
+	private final Logger logger;
+	private final Path indexPath;
+	private final Map<String, Entry> entries;
+	private final AtomicInteger hits = new AtomicInteger();
+	private final AtomicInteger misses = new AtomicInteger();
+
+	private HashIndex(Logger logger, Path indexPath, Map<String, Entry> entries) {
+		this.logger = logger;
+		this.indexPath = indexPath;
+		this.entries = entries;
+	}
+
+	public Path getIndexPath() {
+		return indexPath;
+	}
+
+	// Hashes of an unchanged file, which may lack some of the algorithms so only those are left to calculate
+	public Optional<Map<String, String>> lookup(String key, BasicFileAttributes attributes, Collection<String> algorithms) {
+		Entry entry = entries.get(key);
+		if (entry == null || !entry.matches(attributes) || entry.lastModified >= entry.hashedAt - RACY_WINDOW_MILLIS) {
+			misses.incrementAndGet();
+			return Optional.empty();
+		}
+		entry.touched = true;
+		if (entry.hashes.keySet().containsAll(algorithms)) {
+			hits.incrementAndGet();
+		} else {
+			misses.incrementAndGet();
+		}
+		return Optional.of(entry.hashes);
+	}
+
+	public void update(String key, BasicFileAttributes attributes, Map<String, String> hashes) {
+		Entry entry = new Entry(attributes.size(), attributes.lastModifiedTime().toMillis(), fileKeyOf(attributes), hashes, System.currentTimeMillis());
+		entry.touched = true;
+		entries.put(key, entry);
+	}
+
+	public boolean save(boolean prune) {
+		if (prune) entries.values().removeIf(entry -> !entry.touched);
+		try {
+			Path parent = indexPath.toAbsolutePath().getParent();
+			Path tempPath = Files.createTempFile(parent, indexPath.getFileName().toString(), ".tmp");
+			try {
+				CRC32 checksum = new CRC32();
+				try (OutputStream file = Files.newOutputStream(tempPath);
+					CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(file), checksum);
+					DataOutputStream out = new DataOutputStream(checked)) {
+					Map<String, Entry> snapshot = new HashMap<>(entries);
+					out.writeInt(MAGIC);
+					out.writeInt(VERSION);
+					out.writeInt(snapshot.size());
+					for (Map.Entry<String, Entry> mapEntry : snapshot.entrySet()) {
+						Entry entry = mapEntry.getValue();
+						out.writeUTF(mapEntry.getKey());
+						out.writeLong(entry.size);
+						out.writeLong(entry.lastModified);
+						out.writeUTF(entry.fileKey == null ? "" : entry.fileKey);
+						out.writeByte(entry.hashes.size());
+						for (Map.Entry<String, String> hash : entry.hashes.entrySet()) {
+							out.writeUTF(hash.getKey());
+							out.writeUTF(hash.getValue());
+						}
+						out.writeLong(entry.hashedAt);
+					}
+					out.writeLong(checksum.getValue());
+				}
+				try {
+					Files.move(tempPath, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				} catch (AtomicMoveNotSupportedException e) {
+					Files.move(tempPath, indexPath, StandardCopyOption.REPLACE_EXISTING);
+				}
+			} finally {
+				Files.deleteIfExists(tempPath);
+			}
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Could not save hash index", e);
+			return false;
+		}
+		entries.values().forEach(entry -> entry.touched = false);
+		logger.log(Level.INFO, "Hash index saved with " + entries.size() + " entries (" + hits.getAndSet(0) + " hashes reused, " + misses.getAndSet(0) + " files hashed)");
+		return true;
+	}
+
+	public static HashIndex load(Logger logger, Path indexPath) {
+		Map<String, Entry> entries = new ConcurrentHashMap<>();
+		CRC32 checksum = new CRC32();
+		try (DataInputStream in = new DataInputStream(new CheckedInputStream(new BufferedInputStream(Files.newInputStream(indexPath)), checksum))) {
+			int magic = in.readInt();
+			int version = in.readInt();
+			if (magic != MAGIC || (version != VERSION && version != MD5_VERSION)) {
+				logger.log(Level.WARNING, "Hash index has unknown format, rebuilding");
+				return new HashIndex(logger, indexPath, new ConcurrentHashMap<>());
+			}
+			int size = in.readInt();
+			if (size < 0) throw new IOException("Illegal entry count " + size);
+			for (int i = 0; i < size; i++) {
+				String key = in.readUTF();
+				long fileSize = in.readLong();
+				long lastModified = in.readLong();
+				String fileKey = in.readUTF();
+				int hashCount = version == MD5_VERSION ? 1 : in.readUnsignedByte();
+				Map<String, String> hashes = new HashMap<>(hashCount * 2);
+				for (int j = 0; j < hashCount; j++) {
+					hashes.put(version == MD5_VERSION ? HashAlgorithm.MD5.getName() : in.readUTF(), in.readUTF());
+				}
+				long hashedAt = in.readLong();
+				entries.put(key, new Entry(fileSize, lastModified, fileKey.isEmpty() ? null : fileKey, hashes, hashedAt));
+			}
+			long expected = checksum.getValue();
+			if (in.readLong() != expected || in.read() >= 0) throw new IOException("Checksum mismatch");
+			logger.log(Level.INFO, "Loaded hash index with " + entries.size() + " entries" + (version == MD5_VERSION ? ", digests will be added" : ""));
+			return new HashIndex(logger, indexPath, entries);
+		} catch (NoSuchFileException e) {
+			logger.log(Level.INFO, "No hash index found, all files will be hashed");
+		} catch (EOFException e) {
+			logger.log(Level.WARNING, "Hash index is truncated, rebuilding", e);
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Hash index is corrupt, rebuilding", e);
+		}
+		return new HashIndex(logger, indexPath, new ConcurrentHashMap<>());
+	}
+
+	private static String fileKeyOf(BasicFileAttributes attributes) {
+		Object fileKey = attributes.fileKey();
+		return fileKey == null ? null : fileKey.toString();
+	}
+
+	private static final class Entry {
+		final long size;
+		final long lastModified;
+		final String fileKey;
+		final Map<String, String> hashes;
+		final long hashedAt;
+		volatile boolean touched;
+
+		Entry(long size, long lastModified, String fileKey, Map<String, String> hashes, long hashedAt) {
+			this.size = size;
+			this.lastModified = lastModified;
+			this.fileKey = fileKey;
+			this.hashes = hashes;
+			this.hashedAt = hashedAt;
+		}
+
+		boolean matches(BasicFileAttributes attributes) {
+			if (size != attributes.size()) return false;
+			if (lastModified != attributes.lastModifiedTime().toMillis()) return false;
+			String fileKey = fileKeyOf(attributes);
+			return this.fileKey == null || fileKey == null || Objects.equals(this.fileKey, fileKey);
+		}
+	}
+}
@@ -0,0 +1,216 @@
+package org.skycraft.updater.core.precache;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.skycraft.updater.core.data.ManifestEntry;
+import org.skycraft.updater.core.data.PrecachedFile;
+import org.skycraft.updater.core.hash.HashAlgorithm;
+import org.skycraft.updater.core.metrics.Histogram;
+import org.skycraft.updater.utils.IgnoreMatcher;
+
+public final class PrecacheEngine implements Closeable {
+	private static final int BUFFER_BYTES = 64 * 1024;
+
+	private final Logger logger;
+	private final ForkJoinPool pool;
+	private final HashIndex hashIndex;
+	private final List<HashAlgorithm> digestAlgorithms;
+	private final List<HashAlgorithm> algorithms = new ArrayList<>();
+	private final List<String> algorithmNames = new ArrayList<>();
+	private final LongAdder filesHashed = new LongAdder();
+	private final LongAdder filesIndexed = new LongAdder();
+	private final LongAdder bytesHashed = new LongAdder();
+	private final Histogram durations = new Histogram();
+
+	public PrecacheEngine(Logger logger, int parallelism, HashIndex hashIndex, List<HashAlgorithm> digestAlgorithms) {
+		this.logger = logger;
+		this.hashIndex = hashIndex;
+		this.digestAlgorithms = digestAlgorithms;
+		algorithms.add(HashAlgorithm.MD5);
+		algorithms.addAll(digestAlgorithms);
+		for (HashAlgorithm algorithm : algorithms) {
+			algorithmNames.add(algorithm.getName());
+		}
+		AtomicInteger threadCounter = new AtomicInteger();
+		this.pool = new ForkJoinPool(
+			parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors(),
+			pool -> {
+				ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+				thread.setName("Updater-Precache-" + threadCounter.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			},
+			null,
+			false
+		);
+	}
+
+	public List<HashAlgorithm> getDigestAlgorithms() {
+		return digestAlgorithms;
+	}
+
+	public int getParallelism() {
+		return pool.getParallelism();
+	}
+
+	public HashIndex getHashIndex() {
+		return hashIndex;
+	}
+
+	public long getFilesHashed() {
+		return filesHashed.sum();
+	}
+
+	public long getFilesIndexed() {
+		return filesIndexed.sum();
+	}
+
+	public long getBytesHashed() {
+		return bytesHashed.sum();
+	}
+
+	public Histogram getDurations() {
+		return durations;
+	}
+
+	public Optional<Map<String, List<PrecachedFile>>> precache(Path clientPath, Collection<ManifestEntry> entries) {
+		long start = System.nanoTime();
+		Map<String, ForkJoinTask<Optional<List<PrecachedFile>>>> tasks = new LinkedHashMap<>();
+		for (ManifestEntry entry : entries) {
+			tasks.put(entry.getCategory(), pool.submit(() -> precacheCategory(clientPath, entry)));
+		}
+		Map<String, List<PrecachedFile>> categories = new HashMap<>();
+		boolean failed = false;
+		for (Map.Entry<String, ForkJoinTask<Optional<List<PrecachedFile>>>> task : tasks.entrySet()) {
+			Optional<List<PrecachedFile>> files = task.getValue().join();
+			if (files.isPresent()) {
+				categories.put(task.getKey(), files.get());
+			} else {
+				failed = true;
+			}
+		}
+		if (failed) return Optional.empty();
+		long duration = System.nanoTime() - start;
+		durations.record(duration);
+		logger.log(Level.INFO, "Precached " + categories.size() + " categories in " + TimeUnit.NANOSECONDS.toMillis(duration) + " ms using " + pool.getParallelism() + " threads");
+		return Optional.of(categories);
+	}
+
+	private Optional<List<PrecachedFile>> precacheCategory(Path clientPath, ManifestEntry entry) {
+		long start = System.nanoTime();
+		Path categoryPath = clientPath.resolve(entry.getPath());
+		List<ForkJoinTask<Optional<PrecachedFile>>> tasks = new ArrayList<>();
+		if (Files.exists(categoryPath)) {
+			IgnoreMatcher ignoreMatcher = entry.getIgnoreServerMatcher();
+			try {
+				Files.walkFileTree(categoryPath, new SimpleFileVisitor<Path>() {
+					@Override
+					public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+						if (dir.equals(categoryPath)) return FileVisitResult.CONTINUE;
+						String relativePath = categoryPath.relativize(dir).toString().replace('\\', '/');
+						return ignoreMatcher.matchesDirectory(relativePath) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+					}
+
+					@Override
+					public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+						if (!attrs.isRegularFile() && !(attrs.isSymbolicLink() && Files.isRegularFile(file))) return FileVisitResult.CONTINUE;
+						String relativePath = categoryPath.relativize(file).toString().replace('\\', '/');
+						if (ignoreMatcher.matches(relativePath)) return FileVisitResult.CONTINUE;
+						String indexKey = clientPath.relativize(file).toString().replace('\\', '/');
+						tasks.add(ForkJoinTask.adapt(() -> hashFile(relativePath, indexKey, file)).fork());
+						return FileVisitResult.CONTINUE;
+					}
+				});
+			} catch (IOException e) {
+				logger.log(Level.SEVERE, "Error occurred while precaching category \"" + entry.getCategory() + "\" file hashes", e);
+				for (ForkJoinTask<Optional<PrecachedFile>> task : tasks) task.cancel(false);
+				return Optional.empty();
+			}
+		}
+		List<PrecachedFile> files = new ArrayList<>(tasks.size());
+		for (ForkJoinTask<Optional<PrecachedFile>> task : tasks) {
+			task.join().ifPresent(files::add);
+		}
+		files.sort(Comparator.comparing(PrecachedFile::getRelativePath));
+		logger.log(Level.INFO, "Precached category \"" + entry.getCategory() + "\" with " + files.size() + " files in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+		return Optional.of(files);
+	}
+
+	private Optional<PrecachedFile> hashFile(String relativePath, String indexKey, Path path) {
+		BasicFileAttributes attributes;
+		try {
+			attributes = Files.readAttributes(path, BasicFileAttributes.class);
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Could not read file attributes", e);
+			return Optional.empty();
+		}
+		Map<String, String> indexedHashes = hashIndex.lookup(indexKey, attributes, algorithmNames).orElse(Collections.emptyMap());
+		List<HashAlgorithm> missingAlgorithms = new ArrayList<>();
+		for (HashAlgorithm algorithm : algorithms) {
+			if (!indexedHashes.containsKey(algorithm.getName())) missingAlgorithms.add(algorithm);
+		}
+		if (missingAlgorithms.isEmpty()) {
+			filesIndexed.increment();
+			return Optional.of(new PrecachedFile(relativePath, path, indexedHashes, attributes.size()));
+		}
+		Map<String, String> hashes = new HashMap<>(indexedHashes);
+		try (InputStream stream = Files.newInputStream(path)) {
+			hashes.putAll(hashAll(stream, missingAlgorithms));
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Could not calculate file hash", e);
+			return Optional.empty();
+		}
+		filesHashed.increment();
+		bytesHashed.add(attributes.size());
+		hashIndex.update(indexKey, attributes, hashes);
+		return Optional.of(new PrecachedFile(relativePath, path, hashes, attributes.size()));
+	}
+
+	// Every algorithm is fed from the same read so each file is only read once
+	private static Map<String, String> hashAll(InputStream stream, List<HashAlgorithm> algorithms) throws IOException {
+		HashAlgorithm.Hasher[] hashers = new HashAlgorithm.Hasher[algorithms.size()];
+		for (int i = 0; i < algorithms.size(); i++) {
+			hashers[i] = algorithms.get(i).newHasher();
+		}
+		byte[] buffer = new byte[BUFFER_BYTES];
+		int len;
+		while ((len = stream.read(buffer)) >= 0) {
+			for (HashAlgorithm.Hasher hasher : hashers) {
+				hasher.update(buffer, 0, len);
+			}
+		}
+		Map<String, String> hashes = new HashMap<>(hashers.length * 2);
+		for (int i = 0; i < hashers.length; i++) {
+			hashes.put(algorithms.get(i).getName(), hashers[i].hexDigest());
+		}
+		return hashes;
+	}
+
+	@Override
+	public void close() {
+		pool.shutdownNow();
+	}
+}
@@ -0,0 +1,186 @@
+package org.skycraft.updater.core.precache;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.skycraft.updater.core.Protocol;
+import org.skycraft.updater.core.Provider;
+import org.skycraft.updater.core.data.ManifestEntry;
+import org.skycraft.updater.core.data.ManifestSnapshot;
+
+public final class PrecacheWatcher implements Runnable, Closeable {
+	private static final long MAX_DELAY_FACTOR = 30L;
+
+	private final Provider provider;
+	private final Logger logger;
+	private final long delayMillis;
+	private final Path clientPath;
+	private final Path manifestPath;
+	private final Map<WatchKey, Path> watchedDirectories = new HashMap<>();
+	private WatchService watchService;
+	private Thread thread;
+
+	public PrecacheWatcher(Provider provider, long delayMillis) {
+		this.provider = provider;
+		this.logger = provider.getLogger();
+		this.delayMillis = delayMillis;
+		this.clientPath = provider.getClientPath().toAbsolutePath().normalize();
+		this.manifestPath = provider.getManifestPath().toAbsolutePath().normalize();
+	}
+
+	public boolean start() {
+		try {
+			watchService = FileSystems.getDefault().newWatchService();
+			register(manifestPath.getParent(), false);
+			register(clientPath, true);
+		} catch (IOException e) {
+			logger.log(Level.SEVERE, "Could not watch client folder for changes", e);
+			close();
+			return false;
+		}
+		thread = new Thread(this, "Updater-Precache-Watcher");
+		thread.setDaemon(true);
+		thread.start();
+		logger.log(Level.INFO, "Watching " + watchedDirectories.size() + " folders for changes");
+		return true;
+	}
+
+	@Override
+	public void run() {
+		// A failed reload is retried together with the next change
+		boolean retryManifest = false;
+		Set<String> retryCategories = new HashSet<>();
+		try {
+			while (!Thread.currentThread().isInterrupted()) {
+				WatchKey key = watchService.take();
+				boolean manifestChanged = false;
+				boolean allChanged = false;
+				Set<Path> changedPaths = new HashSet<>();
+				long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delayMillis * MAX_DELAY_FACTOR);
+				while (key != null) {
+					Path directory = watchedDirectories.get(key);
+					for (WatchEvent<?> event : key.pollEvents()) {
+						if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+							allChanged = true;
+							continue;
+						}
+						if (directory == null) continue;
+						Path path = directory.resolve((Path) event.context());
+						if (path.equals(manifestPath)) {
+							manifestChanged = true;
+						} else if (path.startsWith(clientPath) && !isProviderFile(path)) {
+							changedPaths.add(path);
+							if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+								try {
+									register(path, true);
+								} catch (IOException e) {
+									logger.log(Level.WARNING, "Could not watch folder \"" + path + "\" for changes", e);
+								}
+							}
+						}
+					}
+					if (!key.reset()) watchedDirectories.remove(key);
+					if (System.nanoTime() - deadline >= 0L) break;
+					key = watchService.poll(delayMillis, TimeUnit.MILLISECONDS);
+				}
+				if (manifestChanged || retryManifest) {
+					logger.log(Level.INFO, manifestChanged ? "Manifest changed, reloading provider manifest" : "Retrying to reload provider manifest");
+					retryManifest = !reload(true, new HashSet<>());
+					retryCategories.clear();
+					continue;
+				}
+				Set<String> categories = allChanged ? allCategories() : affectedCategories(changedPaths);
+				categories.addAll(retryCategories);
+				retryCategories.clear();
+				if (categories.isEmpty()) continue;
+				logger.log(Level.INFO, "Detected changes in categories " + categories + ", reloading manifest hashes");
+				if (!reload(false, categories)) retryCategories.addAll(categories);
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			// Watcher closed
+		}
+	}
+
+	private boolean reload(boolean manifestChanged, Set<String> categories) {
+		try {
+			if (provider.reload(manifestChanged, categories)) return true;
+			logger.log(Level.WARNING, "Could not reload provider, retrying on the next change");
+		} catch (RuntimeException e) {
+			logger.log(Level.SEVERE, "Error occurred while reloading provider, retrying on the next change", e);
+		}
+		return false;
+	}
+
+	private Set<String> allCategories() {
+		ManifestSnapshot snapshot = Protocol.CURRENT_PROTOCOL.getHandler().getSnapshot();
+		return snapshot == null ? new HashSet<>() : new HashSet<>(snapshot.getEntryMap().keySet());
+	}
+
+	private Set<String> affectedCategories(Set<Path> changedPaths) {
+		Set<String> categories = new HashSet<>();
+		ManifestSnapshot snapshot = Protocol.CURRENT_PROTOCOL.getHandler().getSnapshot();
+		if (snapshot == null) return categories;
+		for (ManifestEntry entry : snapshot.getEntryMap().values()) {
+			Path categoryPath = clientPath.resolve(entry.getPath()).normalize();
+			for (Path path : changedPaths) {
+				if (path.startsWith(categoryPath) || categoryPath.startsWith(path)) {
+					categories.add(entry.getCategory());
+					break;
+				}
+			}
+		}
+		return categories;
+	}
+
+	private boolean isProviderFile(Path path) {
+		if (path.startsWith(provider.getHistoryPath().toAbsolutePath().normalize())) return true;
+		return path.getFileName().toString().startsWith(provider.getHashIndexPath().getFileName().toString());
+	}
+
+	private void register(Path root, boolean recursive) throws IOException {
+		if (!recursive) {
+			watchedDirectories.put(root.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE), root);
+			return;
+		}
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				register(dir, false);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	@Override
+	public void close() {
+		if (thread != null) {
+			thread.interrupt();
+			thread = null;
+		}
+		if (watchService != null) {
+			try {
+				watchService.close();
+			} catch (IOException e) {
+				logger.log(Level.WARNING, "Could not close watch service", e);
+			}
+			watchService = null;
+		}
+	}
+}
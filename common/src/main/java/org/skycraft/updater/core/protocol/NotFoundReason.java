@@ -0,0 +1,21 @@
+package org.skycraft.updater.core.protocol;
+
+public enum NotFoundReason {
+	NOT_PRECACHED("not-precached"),
+	UNSUPPORTED("unsupported"),
+	MISSING_PARAMETER("missing-parameter"),
+	UNKNOWN_CATEGORY("unknown-category"),
+	UNKNOWN_FILE("unknown-file"),
+	NO_DELTA("no-delta"),
+	NO_CHUNKS("no-chunks");
+
+	private final String label;
+
+	NotFoundReason(String label) {
+		this.label = label;
+	}
+
+	public String getLabel() {
+		return label;
+	}
+}
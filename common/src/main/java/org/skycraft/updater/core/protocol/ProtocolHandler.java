@@ -2,14 +2,48 @@ package org.skycraft.updater.core.protocol;
 
 import com.google.gson.stream.JsonReader;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.skycraft.updater.core.Protocol;
 import org.skycraft.updater.core.Provider;
+import org.skycraft.updater.core.data.EncodedBody;
+import org.skycraft.updater.core.data.ManifestEntry;
+import org.skycraft.updater.core.data.ManifestPrecached;
+import org.skycraft.updater.core.data.ManifestSnapshot;
+import org.skycraft.updater.core.data.PrecachedFile;
+import org.skycraft.updater.core.download.AsyncTransfer;
+import org.skycraft.updater.core.download.CompressedFileStore;
+import org.skycraft.updater.core.download.HotFileCache;
+import org.skycraft.updater.core.hash.HashAlgorithm;
+import org.skycraft.updater.utils.HttpUtils;
 
 public abstract class ProtocolHandler {
+	public static final String CAPABILITIES_HEADER = "X-Updater-Capabilities";
+	public static final String CAPABILITY_ALL = "all";
+	public static final String CAPABILITY_BATCH = "batch";
+	public static final String CAPABILITY_DELTA = "delta";
+	public static final String CAPABILITY_CHUNKS = "chunks";
+	public static final String CAPABILITY_H2C = "h2c";
+	public static final String CAPABILITY_DIGESTS = "digests";
+	public static final String CAPABILITY_TREE = "tree";
+	public static final String CAPABILITY_GENERATION = "generation";
+
 	private final Protocol protocol;
 	private final String protocolURLPath;
+	private volatile ManifestSnapshot snapshot;
+	private volatile long generation;
 
 	protected ProtocolHandler(Protocol protocol) {
 		this(protocol, null);
@@ -32,13 +66,132 @@ public abstract class ProtocolHandler {
 		}
 	}
 
+	public final ManifestSnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	public final long getGeneration() {
+		return generation;
+	}
+
+	// Derived from the published content alone, so reloads and provider restarts serving the same files keep the generation
+	protected final synchronized void publishSnapshot(ManifestSnapshot snapshot) {
+		this.snapshot = snapshot;
+		HashAlgorithm.Hasher hasher = HashAlgorithm.MD5.newHasher();
+		update(hasher, snapshot.getPrecachedManifest().getETag());
+		for (Map.Entry<String, ManifestPrecached> category : new TreeMap<>(snapshot.getPrecachedMap()).entrySet()) {
+			update(hasher, category.getKey());
+			update(hasher, category.getValue().getPrecachedHashes().getETag());
+		}
+		generation = ByteBuffer.wrap(hasher.digest()).getLong() & Long.MAX_VALUE;
+	}
+
+	private static void update(HashAlgorithm.Hasher hasher, String value) {
+		byte[] bytes = (value + "\n").getBytes(StandardCharsets.UTF_8);
+		hasher.update(bytes, 0, bytes.length);
+	}
+
+	public Set<String> getCapabilities(Provider provider) {
+		return Collections.emptySet();
+	}
+
+	// Digests served next to the MD5 hash, the provider only calculates those some protocol advertises
+	public List<HashAlgorithm> getDigestAlgorithms(Provider provider) {
+		return Collections.emptyList();
+	}
+
 	public abstract boolean precacheManifest(Provider provider, JsonReader reader) throws IOException, IllegalStateException;
 
-	public abstract boolean precacheHashes(Provider provider);
+	public abstract Map<String, ManifestEntry> getEntryMap();
+
+	// Categories missing from the precached files are taken over unchanged from the current snapshot
+	public abstract boolean precacheHashes(Provider provider, Map<String, List<PrecachedFile>> precachedFiles);
+
+	// The snapshot was built from the loaded manifest, so categories without changes can be reused
+	public final boolean isSnapshotCurrent() {
+		ManifestSnapshot snapshot = this.snapshot;
+		return snapshot != null && snapshot.getEntryMap() == getEntryMap();
+	}
 
 	public abstract void handleManifest(Provider provider, HttpServletRequest req, HttpServletResponse resp) throws IOException;
 
 	public abstract void handleHashes(Provider provider, HttpServletRequest req, HttpServletResponse resp) throws IOException;
 
 	public abstract void handleDownload(Provider provider, HttpServletRequest req, HttpServletResponse resp) throws IOException;
+
+	public void handleAll(Provider provider, HttpServletRequest req, HttpServletResponse resp) throws IOException {
+		sendNotFound(provider, resp, NotFoundReason.UNSUPPORTED);
+	}
+
+	public void handleBatch(Provider provider, HttpServletRequest req, HttpServletResponse resp) throws IOException {
+		sendNotFound(provider, resp, NotFoundReason.UNSUPPORTED);
+	}
+
+	public void handleDelta(Provider provider, HttpServletRequest req, HttpServletResponse resp) throws IOException {
+		sendNotFound(provider, resp, NotFoundReason.UNSUPPORTED);
+	}
+
+	public void handleChunks(Provider provider, HttpServletRequest req, HttpServletResponse resp) throws IOException {
+		sendNotFound(provider, resp, NotFoundReason.UNSUPPORTED);
+	}
+
+	public void handleChunk(Provider provider, HttpServletRequest req, HttpServletResponse resp) throws IOException {
+		sendNotFound(provider, resp, NotFoundReason.UNSUPPORTED);
+	}
+
+	public void handleTree(Provider provider, HttpServletRequest req, HttpServletResponse resp) throws IOException {
+		sendNotFound(provider, resp, NotFoundReason.UNSUPPORTED);
+	}
+
+	public void handleGeneration(Provider provider, HttpServletRequest req, HttpServletResponse resp) throws IOException {
+		sendNotFound(provider, resp, NotFoundReason.UNSUPPORTED);
+	}
+
+	protected static void sendNotFound(Provider provider, HttpServletResponse resp, NotFoundReason reason) throws IOException {
+		provider.getMetrics().notFound(reason);
+		resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+	}
+
+	protected static void sendFile(Provider provider, HttpServletRequest req, HttpServletResponse resp, Path path, String hash) throws IOException {
+		resp.setHeader("Vary", "Accept-Encoding");
+		CompressedFileStore compressedFileStore = provider.getCompressedFileStore();
+		if (compressedFileStore != null && req.getHeader("Range") == null && HttpUtils.acceptsGzip(req)) {
+			Optional<Path> compressed = compressedFileStore.getCompressed(hash, path);
+			if (compressed.isPresent()) {
+				provider.getFileSender().sendEncoded(req, resp, compressed.get(), hash + "-gzip", "gzip", provider.getHotFileCache());
+				return;
+			}
+		}
+		HotFileCache hotFileCache = provider.getHotFileCache();
+		if (hotFileCache != null && req.getHeader("Range") == null) {
+			BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+			Optional<ByteBuffer> cached = hotFileCache.get(hash, path, attributes.size(), hash);
+			if (cached.isPresent()) {
+				provider.getFileSender().sendBuffer(req, resp, cached.get(), hash, attributes);
+				return;
+			}
+		}
+		provider.getFileSender().send(req, resp, path, hash);
+	}
+
+	protected static void sendEncodedBody(HttpServletRequest req, HttpServletResponse resp, EncodedBody body, String contentType) throws IOException {
+		boolean gzip = body.hasGzip() && HttpUtils.acceptsGzip(req);
+		resp.setHeader("Vary", "Accept-Encoding");
+		resp.setHeader("ETag", gzip ? body.getGzipETag() : body.getETag());
+		if (HttpUtils.matchesIfNoneMatch(req, body.getETag(), body.getGzipETag())) {
+			resp.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+		byte[] content = gzip ? body.getGzip() : body.getIdentity();
+		resp.setContentType(contentType);
+		if (gzip) resp.setHeader("Content-Encoding", "gzip");
+		resp.setContentLength(content.length);
+		if (content.length > resp.getBufferSize()) {
+			AsyncTransfer.send(req, resp, Collections.singletonList(ByteBuffer.wrap(content)).iterator(), null);
+			return;
+		}
+		try (OutputStream out = resp.getOutputStream()) {
+			out.write(content);
+		}
+	}
 }
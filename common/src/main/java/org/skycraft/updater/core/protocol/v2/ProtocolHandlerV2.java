@@ -2,37 +2,35 @@ package org.skycraft.updater.core.protocol.v2;
 
 import com.google.gson.stream.JsonReader;
 import com.google.gson.stream.JsonWriter;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.io.PrintWriter;
-import java.io.StringWriter;
-import java.nio.file.Files;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import org.apache.commons.codec.digest.DigestUtils;
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringEscapeUtils;
 import org.skycraft.updater.core.Protocol;
 import org.skycraft.updater.core.Provider;
+import org.skycraft.updater.core.data.EncodedBody;
 import org.skycraft.updater.core.data.ManifestEntry;
 import org.skycraft.updater.core.data.ManifestPrecached;
+import org.skycraft.updater.core.data.ManifestSnapshot;
+import org.skycraft.updater.core.data.PrecachedFile;
+import org.skycraft.updater.core.protocol.NotFoundReason;
 import org.skycraft.updater.core.protocol.ProtocolHandler;
-import org.skycraft.updater.utils.PathUtils;
 
 public final class ProtocolHandlerV2 extends ProtocolHandler {
 	private Map<String, ManifestEntry> entryMap;
-	private Map<String, ManifestPrecached> precachedMap;
-	private String precachedManifestJSON;
-	private Map<String, Path> globalFiles;
+	private EncodedBody precachedManifest;
 
 	public ProtocolHandlerV2() {
 		super(Protocol.V2, "v2");
@@ -41,9 +39,8 @@ public final class ProtocolHandlerV2 extends ProtocolHandler {
 	@Override
 	public boolean precacheManifest(Provider provider, JsonReader reader) throws IOException, IllegalStateException {
 		Map<String, ManifestEntry> entryMap = new HashMap<>();
-		StringWriter out = new StringWriter();
-		try (JsonWriter writer = new JsonWriter(out)) {
-			writer.setIndent("    ");
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (JsonWriter writer = new JsonWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
 			reader.beginArray();
 			writer.beginArray();
 			while (reader.hasNext()) {
@@ -103,115 +100,105 @@ public final class ProtocolHandlerV2 extends ProtocolHandler {
 			writer.endArray();
 			reader.endArray();
 		}
-		this.entryMap = entryMap;
-		this.precachedManifestJSON = out.toString();
+		this.entryMap = Collections.unmodifiableMap(entryMap);
+		this.precachedManifest = EncodedBody.of(out.toByteArray());
 		return true;
 	}
 
 	@Override
-	public boolean precacheHashes(Provider provider) {
+	public Map<String, ManifestEntry> getEntryMap() {
+		return entryMap;
+	}
+
+	@Override
+	public boolean precacheHashes(Provider provider, Map<String, List<PrecachedFile>> precachedFiles) {
+		ManifestSnapshot previous = getSnapshot();
 		Map<String, ManifestPrecached> precachedMap = new HashMap<>();
-		Map<String, Path> globalFiles = new HashMap<>();
 		for (Map.Entry<String, ManifestEntry> mapEntry : entryMap.entrySet()) {
 			String category = mapEntry.getKey();
 			ManifestEntry entry = mapEntry.getValue();
+			List<PrecachedFile> precachedCategory = precachedFiles.get(category);
+			if (precachedCategory == null) {
+				precachedMap.put(category, previous.getPrecachedMap().get(category));
+				continue;
+			}
 			HashMap<String, Path> files = new HashMap<>();
-			StringWriter out = new StringWriter();
-			try (JsonWriter writer = new JsonWriter(out)) {
-				writer.setIndent("    ");
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			try (JsonWriter writer = new JsonWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
 				writer.beginArray();
-				Path categoryPath = provider.getClientPath().resolve(entry.getPath());
-				if (Files.exists(categoryPath)) {
-					for (Path path : (Iterable<? extends Path>) Files.walk(categoryPath)::iterator) {
-						if (!Files.isRegularFile(path)) continue;
-						String relativePath = categoryPath.relativize(path).toString().replace('\\', '/');
-						if (entry.getIgnoreServer().stream().anyMatch(ignore -> PathUtils.matchWildcard(relativePath, ignore.replace('\\', '/')))) continue;
-						String hash;
-						try (InputStream stream = Files.newInputStream(path)) {
-							hash = DigestUtils.md5Hex(stream);
-						} catch (IOException e) {
-							provider.getLogger().log(Level.WARNING, "Could not calculate file hash", e);
-							continue;
-						}
-						files.put(hash, path);
-						globalFiles.put(hash, path);
-						writer.beginObject();
-						writer.name("path").value(relativePath);
-						writer.name("hash").value(hash);
-						writer.endObject();
-						provider.getLogger().log(Level.INFO, "Found category \"" + category + "\" file \"" + relativePath + "\" with hash \"" + hash + "\"");
-					}
+				for (PrecachedFile file : precachedCategory) {
+					files.put(file.getHash(), file.getPath());
+					writer.beginObject();
+					writer.name("path").value(file.getRelativePath());
+					writer.name("hash").value(file.getHash());
+					writer.endObject();
+					if (provider.getLogger().isLoggable(Level.FINE)) provider.getLogger().log(Level.FINE, "Found category \"" + category + "\" file \"" + file.getRelativePath() + "\" with hash \"" + file.getHash() + "\"");
 				}
 				writer.endArray();
 			} catch (IOException e) {
 				provider.getLogger().log(Level.SEVERE, "Error occurred while precaching file hashes", e);
 				return false;
 			}
-			ManifestPrecached precached = new ManifestPrecached(entry, files, out.toString());
+			ManifestPrecached precached = new ManifestPrecached(entry, files, EncodedBody.of(out.toByteArray()));
 			precachedMap.put(category, precached);
 		}
-		this.precachedMap = precachedMap;
-		this.globalFiles = globalFiles;
+		Map<String, Path> globalFiles = new HashMap<>();
+		for (ManifestPrecached precached : precachedMap.values()) {
+			globalFiles.putAll(precached.getFiles());
+		}
+		publishSnapshot(new ManifestSnapshot(entryMap, precachedManifest, precachedMap, globalFiles));
 		return true;
 	}
 
 	@Override
 	public void handleManifest(Provider provider, HttpServletRequest req, HttpServletResponse resp) throws IOException {
-		if (precachedManifestJSON == null) {
-			resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+		ManifestSnapshot snapshot = getSnapshot();
+		if (snapshot == null) {
+			sendNotFound(provider, resp, NotFoundReason.NOT_PRECACHED);
 			return;
 		}
-		provider.getLogger().log(Level.INFO, "Sending manifest to client " + req.getRemoteAddr());
-		resp.setContentType("application/json; charset=utf-8");
-		try (PrintWriter out = resp.getWriter()) {
-			out.write(precachedManifestJSON);
-		}
+		sendEncodedBody(req, resp, snapshot.getPrecachedManifest(), "application/json; charset=utf-8");
 	}
 
 	@Override
 	public void handleHashes(Provider provider, HttpServletRequest req, HttpServletResponse resp) throws IOException {
-		if (precachedMap == null) {
-			resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+		ManifestSnapshot snapshot = getSnapshot();
+		if (snapshot == null) {
+			sendNotFound(provider, resp, NotFoundReason.NOT_PRECACHED);
 			return;
 		}
 		String categoryName = req.getParameter("category");
 		if (categoryName == null) {
-			resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+			sendNotFound(provider, resp, NotFoundReason.MISSING_PARAMETER);
 			return;
 		}
-		ManifestPrecached category = precachedMap.get(categoryName);
+		ManifestPrecached category = snapshot.getPrecachedMap().get(categoryName);
 		if (category == null) {
-			resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+			sendNotFound(provider, resp, NotFoundReason.UNKNOWN_CATEGORY);
 			return;
 		}
-		provider.getLogger().log(Level.INFO, "Sending category \"" + category.getEntry().getCategory() + "\" hashes to client " + req.getRemoteAddr());
-		resp.setContentType("application/json; charset=utf-8");
-		try (PrintWriter out = resp.getWriter()) {
-			out.write(category.getPrecachedHashes());
-		}
+		sendEncodedBody(req, resp, category.getPrecachedHashes(), "application/json; charset=utf-8");
 	}
 
 	@Override
 	public void handleDownload(Provider provider, HttpServletRequest req, HttpServletResponse resp) throws IOException {
-		if (globalFiles == null) {
-			resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+		ManifestSnapshot snapshot = getSnapshot();
+		if (snapshot == null) {
+			sendNotFound(provider, resp, NotFoundReason.NOT_PRECACHED);
 			return;
 		}
 		String hash = req.getParameter("hash");
 		if (hash == null) {
-			resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+			sendNotFound(provider, resp, NotFoundReason.MISSING_PARAMETER);
 			return;
 		}
-		Path path = globalFiles.get(hash);
+		Path path = snapshot.getGlobalFiles().get(hash);
 		if (path == null) {
-			resp.sendError(HttpServletResponse.SC_NOT_FOUND);
+			sendNotFound(provider, resp, NotFoundReason.UNKNOWN_FILE);
 			return;
 		}
-		provider.getLogger().log(Level.INFO, "Sending category file \"" + path + "\" with hash \"" + hash + "\" to client " + req.getRemoteAddr());
 		resp.setContentType("application/octet-stream");
 		resp.setHeader("Content-Disposition", "attachment; filename=" + StringEscapeUtils.escapeJava(path.getFileName().toString()));
-		try (InputStream in = Files.newInputStream(path); OutputStream out = resp.getOutputStream()) {
-			IOUtils.copy(in, out);
-		}
+		sendFile(provider, req, resp, path, hash);
 	}
 }
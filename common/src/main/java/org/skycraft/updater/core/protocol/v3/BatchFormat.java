@@ -0,0 +1,12 @@
+package org.skycraft.updater.core.protocol.v3;
+
+public final class BatchFormat {
+	public static final int MAGIC = 0x53434842;
+	public static final int VERSION = 1;
+	public static final String CONTENT_TYPE = "application/x-skycraft-batch";
+	public static final int MAX_FILES = 4096;
+	public static final long MISSING_FILE = -1L;
+
+	private BatchFormat() {
+	}
+}
@@ -0,0 +1,22 @@
+package org.skycraft.updater.core.protocol.v3;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.skycraft.updater.core.hash.HashAlgorithm;
+
+public final class HashListFormat {
+	public static final int HASH_LIST_MAGIC = 0x53434848;
+	public static final int ALL_MAGIC = 0x53434841;
+	public static final int TREE_MAGIC = 0x53434854;
+	public static final int VERSION = 1;
+	// Adds extra per-file digests after the download hash, served when the client asks for them
+	public static final int DIGESTS_VERSION = 2;
+	public static final String DIGESTS_PARAMETER = "digests";
+	public static final List<HashAlgorithm> DIGEST_ALGORITHMS = Collections.unmodifiableList(Arrays.asList(HashAlgorithm.XXH64, HashAlgorithm.SHA256));
+	public static final String CONTENT_TYPE = "application/x-skycraft-hashes";
+	public static final String TREE_CONTENT_TYPE = "application/x-skycraft-tree";
+
+	private HashListFormat() {
+	}
+}
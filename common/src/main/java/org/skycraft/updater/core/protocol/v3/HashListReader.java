@@ -0,0 +1,193 @@
+package org.skycraft.updater.core.protocol.v3;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import org.skycraft.updater.core.hash.HashAlgorithm;
+
+public final class HashListReader implements Closeable {
+	private static final int BUFFER_BYTES = 8192;
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+	private final InputStream in;
+	private final byte[] buffer = new byte[BUFFER_BYTES];
+	private int position;
+	private int limit;
+	private byte[] path = new byte[256];
+	private int pathLength;
+	private byte[] digest = new byte[0];
+	private char[] hex = new char[0];
+	private String[] extraNames = new String[0];
+	private byte[][] extraDigests = new byte[0][];
+	private long size;
+	private long remaining;
+
+	public HashListReader(InputStream in) {
+		this.in = in;
+	}
+
+	public void readAllHeader() throws IOException {
+		readHeader(HashListFormat.ALL_MAGIC);
+	}
+
+	public void readTreeHeader() throws IOException {
+		readHeader(HashListFormat.TREE_MAGIC);
+	}
+
+	public long beginHashList() throws IOException {
+		int version = readHeader(HashListFormat.HASH_LIST_MAGIC);
+		int digestLength = readByte();
+		if (digest.length != digestLength) {
+			digest = new byte[digestLength];
+			hex = new char[digestLength * 2];
+		}
+		int extraCount = version >= HashListFormat.DIGESTS_VERSION ? readByte() : 0;
+		extraNames = new String[extraCount];
+		extraDigests = new byte[extraCount][];
+		for (int i = 0; i < extraCount; i++) {
+			extraNames[i] = readString();
+			extraDigests[i] = new byte[readByte()];
+		}
+		remaining = readVarLong();
+		pathLength = 0;
+		return remaining;
+	}
+
+	public boolean next() throws IOException {
+		if (remaining <= 0L) return false;
+		remaining--;
+		int shared = readLength();
+		int suffix = readLength();
+		if (shared > pathLength) throw new IOException("Illegal shared path prefix " + shared);
+		if (path.length < shared + suffix) {
+			byte[] grown = new byte[Math.max(path.length * 2, shared + suffix)];
+			System.arraycopy(path, 0, grown, 0, shared);
+			path = grown;
+		}
+		readFully(path, shared, suffix);
+		pathLength = shared + suffix;
+		size = readVarLong();
+		readFully(digest, 0, digest.length);
+		for (byte[] extra : extraDigests) {
+			readFully(extra, 0, extra.length);
+		}
+		return true;
+	}
+
+	public String getPath() {
+		return new String(path, 0, pathLength, StandardCharsets.UTF_8);
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	public byte[] getDigest() {
+		return digest;
+	}
+
+	public String getHash() {
+		for (int i = 0; i < digest.length; i++) {
+			hex[i * 2] = HEX_DIGITS[(digest[i] >>> 4) & 0xF];
+			hex[i * 2 + 1] = HEX_DIGITS[digest[i] & 0xF];
+		}
+		return new String(hex);
+	}
+
+	public boolean hasHash(HashAlgorithm algorithm) {
+		return indexOf(algorithm) >= 0;
+	}
+
+	public String getHash(HashAlgorithm algorithm) {
+		int index = indexOf(algorithm);
+		if (index < 0) throw new IllegalStateException("Hash list has no " + algorithm + " digests");
+		byte[] extra = extraDigests[index];
+		char[] extraHex = new char[extra.length * 2];
+		for (int i = 0; i < extra.length; i++) {
+			extraHex[i * 2] = HEX_DIGITS[(extra[i] >>> 4) & 0xF];
+			extraHex[i * 2 + 1] = HEX_DIGITS[extra[i] & 0xF];
+		}
+		return new String(extraHex);
+	}
+
+	public byte[] readBlock() throws IOException {
+		byte[] block = new byte[readLength()];
+		readFully(block, 0, block.length);
+		return block;
+	}
+
+	public String readString() throws IOException {
+		return new String(readBlock(), StandardCharsets.UTF_8);
+	}
+
+	public long readVarLong() throws IOException {
+		long value = 0L;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = readByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) return value;
+		}
+		throw new IOException("Malformed varint");
+	}
+
+	public void skip(long length) throws IOException {
+		while (length > 0L) {
+			if (position == limit && !fill()) throw new EOFException();
+			int skipped = (int) Math.min(length, limit - position);
+			position += skipped;
+			length -= skipped;
+		}
+	}
+
+	private int readHeader(int magic) throws IOException {
+		int actual = (readByte() << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+		if (actual != magic) throw new IOException("Illegal hash list magic " + Integer.toHexString(actual));
+		int version = readByte();
+		if (version != HashListFormat.VERSION && version != HashListFormat.DIGESTS_VERSION) throw new IOException("Unsupported hash list version " + version);
+		return version;
+	}
+
+	private int indexOf(HashAlgorithm algorithm) {
+		for (int i = 0; i < extraNames.length; i++) {
+			if (extraNames[i].equals(algorithm.getName())) return i;
+		}
+		return -1;
+	}
+
+	private int readLength() throws IOException {
+		long length = readVarLong();
+		if (length < 0L || length > Integer.MAX_VALUE) throw new IOException("Illegal length " + length);
+		return (int) length;
+	}
+
+	private int readByte() throws IOException {
+		if (position == limit && !fill()) throw new EOFException();
+		return buffer[position++] & 0xFF;
+	}
+
+	private void readFully(byte[] bytes, int offset, int length) throws IOException {
+		while (length > 0) {
+			if (position == limit && !fill()) throw new EOFException();
+			int count = Math.min(length, limit - position);
+			System.arraycopy(buffer, position, bytes, offset, count);
+			position += count;
+			offset += count;
+			length -= count;
+		}
+	}
+
+	private boolean fill() throws IOException {
+		int count = in.read(buffer, 0, buffer.length);
+		if (count <= 0) return false;
+		position = 0;
+		limit = count;
+		return true;
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+}
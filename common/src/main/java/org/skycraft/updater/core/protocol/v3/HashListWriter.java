@@ -0,0 +1,118 @@
+package org.skycraft.updater.core.protocol.v3;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+import org.skycraft.updater.core.data.MerkleTree;
+import org.skycraft.updater.core.data.PrecachedFile;
+import org.skycraft.updater.core.hash.HashAlgorithm;
+
+public final class HashListWriter {
+	private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+	public HashListWriter writeHashList(List<PrecachedFile> files, int digestLength) {
+		return writeHashList(files, digestLength, Collections.emptyList());
+	}
+
+	public HashListWriter writeHashList(List<PrecachedFile> files, int digestLength, List<HashAlgorithm> digests) {
+		writeInt(HashListFormat.HASH_LIST_MAGIC);
+		out.write(digests.isEmpty() ? HashListFormat.VERSION : HashListFormat.DIGESTS_VERSION);
+		out.write(digestLength);
+		if (!digests.isEmpty()) {
+			out.write(digests.size());
+			for (HashAlgorithm algorithm : digests) {
+				writeBlock(algorithm.getName().getBytes(StandardCharsets.UTF_8));
+				out.write(algorithm.getDigestLength());
+			}
+		}
+		writeVarLong(files.size());
+		byte[] previous = new byte[0];
+		for (PrecachedFile file : files) {
+			byte[] path = file.getRelativePath().getBytes(StandardCharsets.UTF_8);
+			int shared = 0;
+			int limit = Math.min(previous.length, path.length);
+			while (shared < limit && previous[shared] == path[shared]) shared++;
+			writeVarLong(shared);
+			writeVarLong(path.length - shared);
+			out.write(path, shared, path.length - shared);
+			writeVarLong(file.getSize());
+			byte[] digest = decodeDigest(file.getHash());
+			if (digest.length != digestLength) throw new IllegalArgumentException("Unexpected digest length " + digest.length + " for file \"" + file.getRelativePath() + "\"");
+			out.write(digest, 0, digest.length);
+			for (HashAlgorithm algorithm : digests) {
+				String hash = file.getHash(algorithm);
+				if (hash == null) throw new IllegalArgumentException("Missing " + algorithm + " hash for file \"" + file.getRelativePath() + "\"");
+				byte[] extra = decodeDigest(hash);
+				if (extra.length != algorithm.getDigestLength()) throw new IllegalArgumentException("Unexpected " + algorithm + " digest length " + extra.length + " for file \"" + file.getRelativePath() + "\"");
+				out.write(extra, 0, extra.length);
+			}
+			previous = path;
+		}
+		return this;
+	}
+
+	public HashListWriter writeAll(byte[] manifest, Map<String, byte[]> hashLists) {
+		return writeAll(manifest, hashLists, HashListFormat.VERSION);
+	}
+
+	public HashListWriter writeAll(byte[] manifest, Map<String, byte[]> hashLists, int version) {
+		writeInt(HashListFormat.ALL_MAGIC);
+		out.write(version);
+		writeBlock(manifest);
+		writeVarLong(hashLists.size());
+		for (Map.Entry<String, byte[]> hashList : hashLists.entrySet()) {
+			writeBlock(hashList.getKey().getBytes(StandardCharsets.UTF_8));
+			writeBlock(hashList.getValue());
+		}
+		return this;
+	}
+
+	// One directory of a category tree: its own digest, the digests of its subdirectories and the hash list of its files
+	public HashListWriter writeTreeNode(MerkleTree.Node node, int digestLength, List<HashAlgorithm> digests) {
+		writeInt(HashListFormat.TREE_MAGIC);
+		out.write(HashListFormat.VERSION);
+		writeBlock(node.getDigest());
+		writeVarLong(node.getDirectories().size());
+		for (Map.Entry<String, MerkleTree.Node> directory : node.getDirectories().entrySet()) {
+			writeBlock(directory.getKey().getBytes(StandardCharsets.UTF_8));
+			writeBlock(directory.getValue().getDigest());
+		}
+		return writeHashList(node.getFiles(), digestLength, digests);
+	}
+
+	public byte[] toByteArray() {
+		return out.toByteArray();
+	}
+
+	private void writeBlock(byte[] block) {
+		writeVarLong(block.length);
+		out.write(block, 0, block.length);
+	}
+
+	private void writeInt(int value) {
+		out.write(value >>> 24);
+		out.write(value >>> 16);
+		out.write(value >>> 8);
+		out.write(value);
+	}
+
+	private void writeVarLong(long value) {
+		while ((value & ~0x7FL) != 0L) {
+			out.write((int) (value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write((int) value);
+	}
+
+	private static byte[] decodeDigest(String hash) {
+		try {
+			return Hex.decodeHex(hash.toCharArray());
+		} catch (DecoderException e) {
+			throw new IllegalArgumentException("Illegal hash \"" + hash + "\"", e);
+		}
+	}
+}
@@ -0,0 +1,494 @@
+package org.skycraft.updater.core.protocol.v3;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.commons.lang.StringEscapeUtils;
+import org.skycraft.updater.core.Protocol;
+import org.skycraft.updater.core.Provider;
+import org.skycraft.updater.core.chunk.ChunkFormat;
+import org.skycraft.updater.core.chunk.ChunkList;
+import org.skycraft.updater.core.data.EncodedBody;
+import org.skycraft.updater.core.data.ManifestEntry;
+import org.skycraft.updater.core.data.ManifestPrecached;
+import org.skycraft.updater.core.data.MerkleTree;
+import org.skycraft.updater.core.data.ManifestSnapshot;
+import org.skycraft.updater.core.data.PrecachedFile;
+import org.skycraft.updater.core.delta.DeltaFormat;
+import org.skycraft.updater.core.delta.DeltaStore;
+import org.skycraft.updater.core.download.ResponseBody;
+import org.skycraft.updater.core.hash.HashAlgorithm;
+import org.skycraft.updater.core.log.AccessLog;
+import org.skycraft.updater.core.protocol.NotFoundReason;
+import org.skycraft.updater.core.protocol.ProtocolHandler;
+
+public final class ProtocolHandlerV3 extends ProtocolHandler {
+	private static final int DIGEST_LENGTH = 16;
+	private static final Set<String> CAPABILITIES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(CAPABILITY_ALL, CAPABILITY_BATCH, CAPABILITY_CHUNKS, CAPABILITY_TREE, CAPABILITY_GENERATION)));
+
+	private Map<String, ManifestEntry> entryMap;
+
+	public ProtocolHandlerV3() {
+		super(Protocol.V3, "v3");
+	}
+
+	@Override
+	public Set<String> getCapabilities(Provider provider) {
+		Set<String> capabilities = new HashSet<>(CAPABILITIES);
+		if (provider.getDeltaStore() != null) capabilities.add(CAPABILITY_DELTA);
+		if (provider.getOptions().isHttp2()) capabilities.add(CAPABILITY_H2C);
+		if (provider.getOptions().isDigests()) capabilities.add(CAPABILITY_DIGESTS);
+		return capabilities;
+	}
+
+	@Override
+	public List<HashAlgorithm> getDigestAlgorithms(Provider provider) {
+		return provider.getOptions().isDigests() ? HashListFormat.DIGEST_ALGORITHMS : Collections.emptyList();
+	}
+
+	@Override
+	public boolean precacheManifest(Provider provider, JsonReader reader) throws IOException, IllegalStateException {
+		Map<String, ManifestEntry> entryMap = new LinkedHashMap<>();
+		reader.beginArray();
+		while (reader.hasNext()) {
+			reader.beginObject();
+			String category = null;
+			Path path = null;
+			List<String> ignoreServer = new ArrayList<>();
+			List<String> ignoreClient = new ArrayList<>();
+			while (reader.hasNext()) {
+				switch (reader.nextName()) {
+				case "category":
+					category = reader.nextString();
+					break;
+				case "path":
+					try {
+						path = Paths.get(reader.nextString());
+					} catch (InvalidPathException e) {
+						provider.getLogger().log(Level.WARNING, "Illegal manifest format", e);
+						return false;
+					}
+					break;
+				case "ignore-server":
+					reader.beginArray();
+					while (reader.hasNext()) {
+						String ignore = reader.nextString();
+						ignoreServer.add(ignore);
+					}
+					reader.endArray();
+					break;
+				case "ignore-client":
+					reader.beginArray();
+					while (reader.hasNext()) {
+						String ignore = reader.nextString();
+						ignoreClient.add(ignore);
+					}
+					reader.endArray();
+					break;
+				default:
+					reader.skipValue();
+				}
+			}
+			if (category == null || path == null) {
+				provider.getLogger().log(Level.WARNING, "Illegal manifest format");
+				return false;
+			}
+			ManifestEntry entry = new ManifestEntry(category, path, ignoreServer, ignoreClient);
+			entryMap.put(category, entry);
+			reader.endObject();
+		}
+		reader.endArray();
+		this.entryMap = Collections.unmodifiableMap(entryMap);
+		return true;
+	}
+
+	@Override
+	public Map<String, ManifestEntry> getEntryMap() {
+		return entryMap;
+	}
+
+	@Override
+	public boolean precacheHashes(Provider provider, Map<String, List<PrecachedFile>> precachedFiles) {
+		ManifestSnapshot previous = getSnapshot();
+		Map<String, ManifestPrecached> precachedMap = new HashMap<>();
+		for (Map.Entry<String, ManifestEntry> mapEntry : entryMap.entrySet()) {
+			String category = mapEntry.getKey();
+			ManifestEntry entry = mapEntry.getValue();
+			List<PrecachedFile> precachedCategory = precachedFiles.get(category);
+			if (precachedCategory == null) {
+				precachedMap.put(category, previous.getPrecachedMap().get(category));
+				continue;
+			}
+			HashMap<String, Path> files = new HashMap<>();
+			for (PrecachedFile file : precachedCategory) {
+				files.put(file.getHash(), file.getPath());
+				if (provider.getLogger().isLoggable(Level.FINE)) provider.getLogger().log(Level.FINE, "Found category \"" + category + "\" file \"" + file.getRelativePath() + "\" with hash \"" + file.getHash() + "\"");
+			}
+			byte[] hashList;
+			byte[] digestHashList;
+			MerkleTree tree;
+			try {
+				hashList = new HashListWriter().writeHashList(precachedCategory, DIGEST_LENGTH).toByteArray();
+				digestHashList = new HashListWriter().writeHashList(precachedCategory, DIGEST_LENGTH, provider.getPrecacheEngine().getDigestAlgorithms()).toByteArray();
+				tree = MerkleTree.build(precachedCategory);
+			} catch (IllegalArgumentException e) {
+				provider.getLogger().log(Level.SEVERE, "Error occurred while precaching file hashes", e);
+				return false;
+			}
+			ManifestPrecached precached = new ManifestPrecached(entry, files, EncodedBody.of(hashList), EncodedBody.of(digestHashList), tree);
+			precachedMap.put(category, precached);
+		}
+		Map<String, Path> globalFiles = new HashMap<>();
+		for (ManifestPrecached precached : precachedMap.values()) {
+			globalFiles.putAll(precached.getFiles());
+		}
+		Map<String, byte[]> hashLists = new TreeMap<>();
+		Map<String, byte[]> digestHashLists = new TreeMap<>();
+		for (Map.Entry<String, ManifestPrecached> mapEntry : precachedMap.entrySet()) {
+			hashLists.put(mapEntry.getKey(), mapEntry.getValue().getPrecachedHashes().getIdentity());
+			digestHashLists.put(mapEntry.getKey(), mapEntry.getValue().getPrecachedDigestHashes().getIdentity());
+		}
+		EncodedBody precachedManifest = EncodedBody.of(writeManifest(precachedMap));
+		EncodedBody precachedAll = EncodedBody.of(new HashListWriter().writeAll(precachedManifest.getIdentity(), hashLists).toByteArray());
+		EncodedBody precachedDigestAll = EncodedBody.of(new HashListWriter().writeAll(precachedManifest.getIdentity(), digestHashLists, HashListFormat.DIGESTS_VERSION).toByteArray());
+		publishSnapshot(new ManifestSnapshot(entryMap, precachedManifest, precachedMap, globalFiles, precachedAll, precachedDigestAll));
+		return true;
+	}
+
+	// Each category carries the root of its tree, clients skip categories whose root they already synchronized
+	private byte[] writeManifest(Map<String, ManifestPrecached> precachedMap) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (JsonWriter writer = new JsonWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
+			writer.beginArray();
+			for (ManifestEntry entry : entryMap.values()) {
+				writer.beginObject();
+				writer.name("category").value(entry.getCategory());
+				writer.name("path").value(entry.getPath().toString().replace('\\', '/'));
+				writer.name("ignore-client").beginArray();
+				for (String ignore : entry.getIgnoreClient()) {
+					writer.value(ignore);
+				}
+				writer.endArray();
+				writer.name("root").value(precachedMap.get(entry.getCategory()).getTree().getRoot().getHash());
+				writer.endObject();
+			}
+			writer.endArray();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return out.toByteArray();
+	}
+
+	@Override
+	public void handleManifest(Provider provider, HttpServletRequest req, HttpServletResponse resp) throws IOException {
+		ManifestSnapshot snapshot = getSnapshot();
+		if (snapshot == null) {
+			sendNotFound(provider, resp, NotFoundReason.NOT_PRECACHED);
+			return;
+		}
+		sendEncodedBody(req, resp, snapshot.getPrecachedManifest(), "application/json; charset=utf-8");
+	}
+
+	@Override
+	public void handleHashes(Provider provider, HttpServletRequest req, HttpServletResponse resp) throws IOException {
+		ManifestSnapshot snapshot = getSnapshot();
+		if (snapshot == null) {
+			sendNotFound(provider, resp, NotFoundReason.NOT_PRECACHED);
+			return;
+		}
+		String categoryName = req.getParameter("category");
+		if (categoryName == null) {
+			sendNotFound(provider, resp, NotFoundReason.MISSING_PARAMETER);
+			return;
+		}
+		ManifestPrecached category = snapshot.getPrecachedMap().get(categoryName);
+		if (category == null) {
+			sendNotFound(provider, resp, NotFoundReason.UNKNOWN_CATEGORY);
+			return;
+		}
+		sendEncodedBody(req, resp, wantsDigests(req) ? category.getPrecachedDigestHashes() : category.getPrecachedHashes(), HashListFormat.CONTENT_TYPE);
+	}
+
+	@Override
+	public void handleAll(Provider provider, HttpServletRequest req, HttpServletResponse resp) throws IOException {
+		ManifestSnapshot snapshot = getSnapshot();
+		if (snapshot == null) {
+			sendNotFound(provider, resp, NotFoundReason.NOT_PRECACHED);
+			return;
+		}
+		sendEncodedBody(req, resp, wantsDigests(req) ? snapshot.getPrecachedDigestAll() : snapshot.getPrecachedAll(), HashListFormat.CONTENT_TYPE);
+	}
+
+	@Override
+	public void handleGeneration(Provider provider, HttpServletRequest req, HttpServletResponse resp) throws IOException {
+		if (getSnapshot() == null) {
+			sendNotFound(provider, resp, NotFoundReason.NOT_PRECACHED);
+			return;
+		}
+		byte[] content = Long.toString(getGeneration()).getBytes(StandardCharsets.UTF_8);
+		resp.setHeader("Cache-Control", "no-cache");
+		resp.setContentType("text/plain; charset=utf-8");
+		resp.setContentLength(content.length);
+		try (OutputStream out = resp.getOutputStream()) {
+			out.write(content);
+		}
+	}
+
+	@Override
+	public void handleTree(Provider provider, HttpServletRequest req, HttpServletResponse resp) throws IOException {
+		ManifestSnapshot snapshot = getSnapshot();
+		if (snapshot == null) {
+			sendNotFound(provider, resp, NotFoundReason.NOT_PRECACHED);
+			return;
+		}
+		String categoryName = req.getParameter("category");
+		if (categoryName == null) {
+			sendNotFound(provider, resp, NotFoundReason.MISSING_PARAMETER);
+			return;
+		}
+		ManifestPrecached category = snapshot.getPrecachedMap().get(categoryName);
+		if (category == null) {
+			sendNotFound(provider, resp, NotFoundReason.UNKNOWN_CATEGORY);
+			return;
+		}
+		String path = req.getParameter("path");
+		Optional<MerkleTree.Node> node = category.getTree().getDirectory(path == null ? "" : path);
+		if (!node.isPresent()) {
+			sendNotFound(provider, resp, NotFoundReason.UNKNOWN_FILE);
+			return;
+		}
+		List<HashAlgorithm> digests = wantsDigests(req) ? provider.getPrecacheEngine().getDigestAlgorithms() : Collections.emptyList();
+		byte[] content = new HashListWriter().writeTreeNode(node.get(), DIGEST_LENGTH, digests).toByteArray();
+		resp.setContentType(HashListFormat.TREE_CONTENT_TYPE);
+		resp.setContentLength(content.length);
+		try (OutputStream out = resp.getOutputStream()) {
+			out.write(content);
+		}
+	}
+
+	// Clients list the digests they understand, older clients send nothing and keep getting version 1 lists
+	private static boolean wantsDigests(HttpServletRequest req) {
+		String digests = req.getParameter(HashListFormat.DIGESTS_PARAMETER);
+		if (digests == null) return false;
+		for (String name : digests.split(",")) {
+			if (HashAlgorithm.forName(name.trim()).isPresent()) return true;
+		}
+		return false;
+	}
+
+	@Override
+	public void handleBatch(Provider provider, HttpServletRequest req, HttpServletResponse resp) throws IOException {
+		ManifestSnapshot snapshot = getSnapshot();
+		if (snapshot == null) {
+			sendNotFound(provider, resp, NotFoundReason.NOT_PRECACHED);
+			return;
+		}
+		List<String> hashes = new ArrayList<>();
+		try (BufferedReader reader = req.getReader()) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.isEmpty()) continue;
+				if (hashes.size() >= BatchFormat.MAX_FILES) {
+					resp.sendError(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+					return;
+				}
+				hashes.add(line);
+			}
+		}
+		AccessLog.detail(req, hashes.size());
+		resp.setContentType(BatchFormat.CONTENT_TYPE);
+		ResponseBody body = new ResponseBody();
+		DataOutputStream frames = body.data();
+		frames.writeInt(BatchFormat.MAGIC);
+		frames.writeByte(BatchFormat.VERSION);
+		frames.writeInt(hashes.size());
+		for (String hash : hashes) {
+			frames.writeUTF(hash);
+			Path path = snapshot.getGlobalFiles().get(hash);
+			BasicFileAttributes attributes = null;
+			if (path != null) {
+				try {
+					attributes = Files.readAttributes(path, BasicFileAttributes.class);
+				} catch (IOException e) {
+					provider.getLogger().log(Level.WARNING, "Could not read file attributes", e);
+				}
+			}
+			if (attributes == null) {
+				frames.writeLong(BatchFormat.MISSING_FILE);
+				continue;
+			}
+			frames.writeLong(attributes.size());
+			body.append(provider.getFileSender().regions(path, attributes));
+		}
+		provider.getFileSender().sendContent(req, resp, body);
+	}
+
+	@Override
+	public void handleDelta(Provider provider, HttpServletRequest req, HttpServletResponse resp) throws IOException {
+		ManifestSnapshot snapshot = getSnapshot();
+		DeltaStore deltaStore = provider.getDeltaStore();
+		if (snapshot == null) {
+			sendNotFound(provider, resp, NotFoundReason.NOT_PRECACHED);
+			return;
+		}
+		if (deltaStore == null) {
+			sendNotFound(provider, resp, NotFoundReason.UNSUPPORTED);
+			return;
+		}
+		String from = req.getParameter("from");
+		String to = req.getParameter("to");
+		if (from == null || to == null) {
+			sendNotFound(provider, resp, NotFoundReason.MISSING_PARAMETER);
+			return;
+		}
+		Path path = snapshot.getGlobalFiles().get(to);
+		if (path == null) {
+			sendNotFound(provider, resp, NotFoundReason.UNKNOWN_FILE);
+			return;
+		}
+		Optional<Path> delta = deltaStore.getDelta(from, to, path);
+		if (!delta.isPresent()) {
+			sendNotFound(provider, resp, NotFoundReason.NO_DELTA);
+			return;
+		}
+		resp.setContentType(DeltaFormat.CONTENT_TYPE);
+		provider.getFileSender().send(req, resp, delta.get(), from + "-" + to);
+	}
+
+	@Override
+	public void handleChunks(Provider provider, HttpServletRequest req, HttpServletResponse resp) throws IOException {
+		ManifestSnapshot snapshot = getSnapshot();
+		if (snapshot == null) {
+			sendNotFound(provider, resp, NotFoundReason.NOT_PRECACHED);
+			return;
+		}
+		String hash = req.getParameter("hash");
+		if (hash == null) {
+			sendNotFound(provider, resp, NotFoundReason.MISSING_PARAMETER);
+			return;
+		}
+		Path path = snapshot.getGlobalFiles().get(hash);
+		if (path == null) {
+			sendNotFound(provider, resp, NotFoundReason.UNKNOWN_FILE);
+			return;
+		}
+		Optional<ChunkList> chunkList = provider.getChunkStore().getChunks(hash, path);
+		if (!chunkList.isPresent()) {
+			sendNotFound(provider, resp, NotFoundReason.NO_CHUNKS);
+			return;
+		}
+		byte[] content = chunkList.get().encode();
+		resp.setContentType(ChunkFormat.LIST_CONTENT_TYPE);
+		resp.setHeader("ETag", "\"" + hash + "-chunks\"");
+		resp.setContentLength(content.length);
+		try (OutputStream out = resp.getOutputStream()) {
+			out.write(content);
+		}
+	}
+
+	@Override
+	public void handleChunk(Provider provider, HttpServletRequest req, HttpServletResponse resp) throws IOException {
+		ManifestSnapshot snapshot = getSnapshot();
+		if (snapshot == null) {
+			sendNotFound(provider, resp, NotFoundReason.NOT_PRECACHED);
+			return;
+		}
+		String hash = req.getParameter("hash");
+		if (hash == null) {
+			sendNotFound(provider, resp, NotFoundReason.MISSING_PARAMETER);
+			return;
+		}
+		Path path = snapshot.getGlobalFiles().get(hash);
+		if (path == null) {
+			sendNotFound(provider, resp, NotFoundReason.UNKNOWN_FILE);
+			return;
+		}
+		Optional<ChunkList> chunkList = provider.getChunkStore().getChunks(hash, path);
+		if (!chunkList.isPresent()) {
+			sendNotFound(provider, resp, NotFoundReason.NO_CHUNKS);
+			return;
+		}
+		List<Integer> indexes = new ArrayList<>();
+		try (BufferedReader reader = req.getReader()) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.isEmpty()) continue;
+				int index;
+				try {
+					index = Integer.parseInt(line);
+				} catch (NumberFormatException e) {
+					index = -1;
+				}
+				if (index < 0 || index >= chunkList.get().size() || indexes.size() >= chunkList.get().size()) {
+					resp.sendError(HttpServletResponse.SC_BAD_REQUEST);
+					return;
+				}
+				indexes.add(index);
+			}
+		}
+		BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+		AccessLog.detail(req, indexes.size());
+		resp.setContentType(ChunkFormat.DATA_CONTENT_TYPE);
+		ResponseBody body = new ResponseBody();
+		DataOutputStream frames = body.data();
+		frames.writeInt(ChunkFormat.DATA_MAGIC);
+		frames.writeByte(ChunkFormat.VERSION);
+		frames.writeInt(indexes.size());
+		for (int index : indexes) {
+			frames.writeInt(index);
+			frames.writeInt(chunkList.get().getLength(index));
+			body.append(provider.getFileSender().regions(path, attributes, chunkList.get().getOffset(index), chunkList.get().getLength(index)));
+		}
+		provider.getFileSender().sendContent(req, resp, body);
+	}
+
+	@Override
+	public void handleDownload(Provider provider, HttpServletRequest req, HttpServletResponse resp) throws IOException {
+		ManifestSnapshot snapshot = getSnapshot();
+		if (snapshot == null) {
+			sendNotFound(provider, resp, NotFoundReason.NOT_PRECACHED);
+			return;
+		}
+		String hash = req.getParameter("hash");
+		if (hash == null) {
+			sendNotFound(provider, resp, NotFoundReason.MISSING_PARAMETER);
+			return;
+		}
+		Path path = snapshot.getGlobalFiles().get(hash);
+		if (path == null) {
+			sendNotFound(provider, resp, NotFoundReason.UNKNOWN_FILE);
+			return;
+		}
+		resp.setContentType("application/octet-stream");
+		resp.setHeader("Content-Disposition", "attachment; filename=" + StringEscapeUtils.escapeJava(path.getFileName().toString()));
+		sendFile(provider, req, resp, path, hash);
+	}
+}
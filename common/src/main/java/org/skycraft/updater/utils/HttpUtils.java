@@ -0,0 +1,58 @@
+package org.skycraft.updater.utils;
+
+import java.util.Enumeration;
+import javax.servlet.http.HttpServletRequest;
+
+public final class HttpUtils {
+	private HttpUtils() {
+
+	}
+
+	public static boolean acceptsGzip(HttpServletRequest req) {
+		boolean accepted = false;
+		Enumeration<String> headers = req.getHeaders("Accept-Encoding");
+		while (headers != null && headers.hasMoreElements()) {
+			for (String coding : headers.nextElement().split(",")) {
+				String[] parameters = coding.split(";");
+				String name = parameters[0].trim();
+				boolean acceptable = true;
+				for (int i = 1; i < parameters.length; i++) {
+					String parameter = parameters[i].trim();
+					if (parameter.startsWith("q=")) acceptable = isNonZeroQuality(parameter.substring(2));
+				}
+				if (name.equalsIgnoreCase("gzip") || name.equalsIgnoreCase("x-gzip")) {
+					if (!acceptable) return false;
+					accepted = true;
+				} else if (name.equals("*")) {
+					accepted |= acceptable;
+				}
+			}
+		}
+		return accepted;
+	}
+
+	public static boolean matchesIfNoneMatch(HttpServletRequest req, String... etags) {
+		String ifNoneMatch = req.getHeader("If-None-Match");
+		if (ifNoneMatch == null) return false;
+		for (String candidate : ifNoneMatch.split(",")) {
+			candidate = stripWeak(candidate.trim());
+			if (candidate.equals("*")) return true;
+			for (String etag : etags) {
+				if (etag != null && stripWeak(etag).equals(candidate)) return true;
+			}
+		}
+		return false;
+	}
+
+	private static String stripWeak(String etag) {
+		return etag.startsWith("W/") ? etag.substring(2) : etag;
+	}
+
+	private static boolean isNonZeroQuality(String quality) {
+		try {
+			return Double.parseDouble(quality.trim()) > 0.0D;
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+}
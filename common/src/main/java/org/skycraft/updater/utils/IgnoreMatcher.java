@@ -0,0 +1,261 @@
+package org.skycraft.updater.utils;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Compiled form of a wildcard ignore list, matches exactly what PathUtils.matchWildcard matches for any of the patterns
+public final class IgnoreMatcher {
+	private static final IgnoreMatcher EMPTY = new IgnoreMatcher(Collections.emptyList(), null);
+
+	private final List<Literal> literals;
+	private final Automaton automaton;
+
+	private IgnoreMatcher(List<Literal> literals, Automaton automaton) {
+		this.literals = literals;
+		this.automaton = automaton;
+	}
+
+	public static IgnoreMatcher compile(Collection<String> patterns) {
+		List<Literal> literals = new ArrayList<>();
+		List<String> wildcards = new ArrayList<>();
+		for (String pattern : patterns) {
+			String normalized = pattern.replace('\\', '/');
+			if (normalized.indexOf('*') < 0 && normalized.indexOf('?') < 0) {
+				literals.add(new Literal(normalized));
+			} else {
+				wildcards.add(normalized);
+			}
+		}
+		if (literals.isEmpty() && wildcards.isEmpty()) return EMPTY;
+		return new IgnoreMatcher(literals, wildcards.isEmpty() ? null : new Automaton(wildcards));
+	}
+
+	public boolean isEmpty() {
+		return literals.isEmpty() && automaton == null;
+	}
+
+	// Paths are relative to the category and separated by '/'
+	public boolean matches(String path) {
+		for (Literal literal : literals) {
+			if (literal.matches(path)) return true;
+		}
+		return automaton != null && automaton.matches(path);
+	}
+
+	// True only when every file below the directory is ignored, so walks can skip the whole subtree
+	public boolean matchesDirectory(String path) {
+		String prefix = path + "/";
+		for (Literal literal : literals) {
+			if (literal.matchesDirectory(prefix)) return true;
+		}
+		return automaton != null && automaton.matchesAll(prefix);
+	}
+
+	private static final class Literal {
+		private final boolean anchored;
+		private final boolean directory;
+		private final String text;
+		private final String textSlash;
+
+		Literal(String pattern) {
+			this.anchored = pattern.startsWith("/");
+			this.text = anchored ? pattern.substring(1) : pattern;
+			this.directory = text.endsWith("/");
+			this.textSlash = text + "/";
+		}
+
+		boolean matches(String path) {
+			if (directory) return anchored ? path.startsWith(text) : path.contains(text);
+			if (text.isEmpty()) return path.isEmpty();
+			if (anchored) return path.equals(text) || path.startsWith(textSlash);
+			return path.endsWith(text) || path.contains(textSlash);
+		}
+
+		boolean matchesDirectory(String prefix) {
+			if (!directory && text.isEmpty()) return false;
+			String needle = directory ? text : textSlash;
+			return anchored ? prefix.startsWith(needle) : prefix.contains(needle);
+		}
+	}
+
+	// All wildcard patterns share one NFA, determinized lazily while paths are matched
+	private static final class Automaton {
+		private static final int SEPARATOR = -1;
+		private static final int ANY = -2;
+		private static final int STAR = -3;
+		private static final int GLOBSTAR = -4;
+		private static final int END = -5;
+		private static final int MAX_STATES = 4096;
+
+		private final int[] elements;
+		private final boolean[] accepting;
+		private final boolean[] acceptingAll;
+		private final Map<BitSet, State> states = new ConcurrentHashMap<>();
+		private final State start;
+
+		Automaton(List<String> patterns) {
+			List<Integer> elements = new ArrayList<>();
+			List<Integer> optionalEnds = new ArrayList<>();
+			List<Integer> starts = new ArrayList<>();
+			for (String pattern : patterns) {
+				starts.add(elements.size());
+				compile(pattern, elements, optionalEnds);
+				elements.add(END);
+			}
+			int size = elements.size();
+			this.elements = new int[size];
+			this.accepting = new boolean[size];
+			this.acceptingAll = new boolean[size];
+			for (int i = size - 1; i >= 0; i--) {
+				int element = elements.get(i);
+				this.elements[i] = element;
+				accepting[i] = element == END;
+				acceptingAll[i] = element == GLOBSTAR && (elements.get(i + 1) == END || acceptingAll[i + 1]);
+			}
+			for (int optionalEnd : optionalEnds) {
+				accepting[optionalEnd] = true;
+			}
+			BitSet initial = new BitSet(size);
+			for (int position : starts) {
+				add(initial, position);
+			}
+			this.start = intern(initial);
+		}
+
+		// Mirrors the regex PathUtils builds: unanchored patterns start with ".*", a trailing name also matches as a directory
+		private static void compile(String pattern, List<Integer> elements, List<Integer> optionalEnds) {
+			int[] codePoints = pattern.codePoints().toArray();
+			boolean plain = false;
+			for (int i = 0; i < codePoints.length; i++) {
+				int c = codePoints[i];
+				if (i == 0) {
+					if (c == '/') continue;
+					elements.add(GLOBSTAR);
+				}
+				plain = false;
+				if (c == '?') {
+					elements.add(ANY);
+				} else if (c == '*') {
+					if (i > 0 && i + 1 < codePoints.length && codePoints[i + 1] == '*') {
+						i++;
+						elements.add(GLOBSTAR);
+					} else {
+						elements.add(STAR);
+					}
+				} else if (c == '/') {
+					elements.add(SEPARATOR);
+					if (i == codePoints.length - 1) elements.add(GLOBSTAR);
+				} else {
+					elements.add(c);
+					plain = true;
+				}
+			}
+			if (plain) {
+				optionalEnds.add(elements.size());
+				elements.add(SEPARATOR);
+				elements.add(GLOBSTAR);
+			}
+		}
+
+		boolean matches(String path) {
+			State state = start;
+			for (int i = 0; i < path.length(); ) {
+				if (state.acceptingAll) return true;
+				if (state.dead) return false;
+				int c = path.codePointAt(i);
+				i += Character.charCount(c);
+				state = transition(state, c);
+			}
+			return state.accepting;
+		}
+
+		boolean matchesAll(String prefix) {
+			State state = start;
+			for (int i = 0; i < prefix.length() && !state.acceptingAll && !state.dead; ) {
+				int c = prefix.codePointAt(i);
+				i += Character.charCount(c);
+				state = transition(state, c);
+			}
+			return state.acceptingAll;
+		}
+
+		private State transition(State state, int c) {
+			State next = c < State.ASCII ? state.ascii[c] : state.others.get(c);
+			if (next != null) return next;
+			boolean separator = c == '/' || c == '\\';
+			BitSet positions = new BitSet(elements.length);
+			for (int i = state.positions.nextSetBit(0); i >= 0; i = state.positions.nextSetBit(i + 1)) {
+				int element = elements[i];
+				if (element == GLOBSTAR) {
+					add(positions, i);
+				} else if (element == STAR) {
+					if (!separator) add(positions, i);
+				} else if (element == ANY) {
+					if (!separator) add(positions, i + 1);
+				} else if (element == SEPARATOR) {
+					if (separator) add(positions, i + 1);
+				} else if (element == c) {
+					add(positions, i + 1);
+				}
+			}
+			next = states.get(positions);
+			if (next == null) {
+				// Pathological pattern sets stop growing the cache and evaluate the remaining states directly
+				if (states.size() >= MAX_STATES) return newState(positions);
+				next = intern(positions);
+			}
+			if (c < State.ASCII) {
+				state.ascii[c] = next;
+			} else {
+				state.others.put(c, next);
+			}
+			return next;
+		}
+
+		private void add(BitSet positions, int position) {
+			while (!positions.get(position)) {
+				positions.set(position);
+				int element = elements[position];
+				if (element != STAR && element != GLOBSTAR) return;
+				position++;
+			}
+		}
+
+		private State intern(BitSet positions) {
+			return states.computeIfAbsent(positions, this::newState);
+		}
+
+		private State newState(BitSet positions) {
+			boolean stateAccepting = false;
+			boolean stateAcceptingAll = false;
+			for (int i = positions.nextSetBit(0); i >= 0; i = positions.nextSetBit(i + 1)) {
+				stateAccepting |= accepting[i];
+				stateAcceptingAll |= acceptingAll[i];
+			}
+			return new State(positions, stateAccepting, stateAcceptingAll);
+		}
+	}
+
+	private static final class State {
+		private static final int ASCII = 128;
+
+		private final BitSet positions;
+		private final boolean accepting;
+		private final boolean acceptingAll;
+		private final boolean dead;
+		private final State[] ascii = new State[ASCII];
+		private final Map<Integer, State> others = new ConcurrentHashMap<>();
+
+		State(BitSet positions, boolean accepting, boolean acceptingAll) {
+			this.positions = positions;
+			this.accepting = accepting;
+			this.acceptingAll = acceptingAll;
+			this.dead = positions.isEmpty();
+		}
+	}
+}
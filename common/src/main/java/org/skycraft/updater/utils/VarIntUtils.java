@@ -0,0 +1,31 @@
+package org.skycraft.updater.utils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+public final class VarIntUtils {
+	private VarIntUtils() {
+
+	}
+
+	public static void writeVarLong(OutputStream out, long value) throws IOException {
+		while ((value & ~0x7FL) != 0L) {
+			out.write((int) (value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write((int) value);
+	}
+
+	public static long readVarLong(InputStream in) throws IOException {
+		long value = 0L;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.read();
+			if (b < 0) throw new EOFException();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) return value;
+		}
+		throw new IOException("Malformed varint");
+	}
+}
@@ -1,5 +1,6 @@
 package org.skycraft.updater.velocity;
 
+import ch.jalu.configme.Comment;
 import ch.jalu.configme.SettingsHolder;
 import ch.jalu.configme.properties.Property;
 
@@ -13,6 +14,25 @@ public class VelocityConfigProperties implements SettingsHolder {
     public static final Property<String> MANIFEST_PATH = newProperty("updater.manifestPath", "client_manifest.json");
     public static final Property<String> LISTEN_IP = newProperty("updater.listenIp", "0.0.0.0");
     public static final Property<Integer> LISTEN_PORT = newProperty("updater.listenPort", 80);
+    public static final Property<Integer> PRECACHE_THREADS = newProperty("updater.precacheThreads", 0);
+    public static final Property<Boolean> WATCH_CHANGES = newProperty("updater.watchChanges", false);
+    public static final Property<Integer> WATCH_DELAY = newProperty("updater.watchDelay", 2000);
+    public static final Property<Integer> MAPPED_CACHE_SIZE = newProperty("updater.mappedCacheSize", 1024);
+    public static final Property<Boolean> DELTAS = newProperty("updater.deltas", true);
+    public static final Property<Integer> DELTA_RETENTION_DAYS = newProperty("updater.deltaRetentionDays", 30);
+    public static final Property<Boolean> COMPRESSION = newProperty("updater.compression", true);
+    public static final Property<Boolean> DIGESTS = newProperty("updater.digests", true);
+    public static final Property<Integer> HOT_CACHE_SIZE = newProperty("updater.hotCacheSize", 128);
+    public static final Property<Integer> BANDWIDTH_LIMIT = newProperty("updater.bandwidthLimit", 0);
+    public static final Property<Integer> CLIENT_BANDWIDTH_LIMIT = newProperty("updater.clientBandwidthLimit", 0);
+    public static final Property<Integer> MIN_THREADS = newProperty("updater.minThreads", 4);
+    public static final Property<Integer> MAX_THREADS = newProperty("updater.maxThreads", 32);
+    public static final Property<Boolean> HTTP2 = newProperty("updater.http2", true);
+    public static final Property<Boolean> METRICS = newProperty("updater.metrics", false);
+    public static final Property<String> ACCESS_LOG = newProperty("updater.accessLog", "skycraft-updater-access.log");
+    @Comment("Apache style tokens, the request duration is %D in microseconds, %T in whole seconds or %{ms}T in milliseconds")
+    public static final Property<String> ACCESS_LOG_FORMAT = newProperty("updater.accessLogFormat", "%h - - %t \"%r\" %s %b %D %x");
+    public static final Property<Integer> ACCESS_LOG_SAMPLING = newProperty("updater.accessLogSampling", 100);
     public static final Property<Boolean> REQUIRE_UPDATER = newProperty("updater.requireUpdater", true);
     public static final Property<String> KICK_MESSAGE = newProperty("updater.kickMessage", "SkyCraft Updater is required to enter this server");
     public static final Property<List<String>> CHECK_SERVERS = newListProperty("updater.checkServers", "lobby", "login");
@@ -19,11 +19,13 @@ import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.format.NamedTextColor;
 import org.skycraft.updater.core.Provider;
+import org.skycraft.updater.core.ProviderOptions;
 
 @Plugin(id = "skycraftupdater", name = "SkyCraftUpdater")
 public class VelocityMain {
@@ -92,7 +94,26 @@ public class VelocityMain {
                 logger,
 				clientPath,
 				manifestPath,
-				new InetSocketAddress(settings.getProperty(VelocityConfigProperties.LISTEN_IP), settings.getProperty(VelocityConfigProperties.LISTEN_PORT))
+				new InetSocketAddress(settings.getProperty(VelocityConfigProperties.LISTEN_IP), settings.getProperty(VelocityConfigProperties.LISTEN_PORT)),
+				new ProviderOptions()
+					.setPrecacheThreads(settings.getProperty(VelocityConfigProperties.PRECACHE_THREADS))
+					.setWatchChanges(settings.getProperty(VelocityConfigProperties.WATCH_CHANGES))
+					.setWatchDelayMillis(settings.getProperty(VelocityConfigProperties.WATCH_DELAY))
+					.setMappedCacheBytes(settings.getProperty(VelocityConfigProperties.MAPPED_CACHE_SIZE) * 1024L * 1024L)
+					.setDeltas(settings.getProperty(VelocityConfigProperties.DELTAS))
+					.setDeltaRetentionMillis(TimeUnit.DAYS.toMillis(settings.getProperty(VelocityConfigProperties.DELTA_RETENTION_DAYS)))
+					.setCompression(settings.getProperty(VelocityConfigProperties.COMPRESSION))
+					.setDigests(settings.getProperty(VelocityConfigProperties.DIGESTS))
+					.setHotCacheBytes(settings.getProperty(VelocityConfigProperties.HOT_CACHE_SIZE) * 1024L * 1024L)
+					.setBandwidthLimitBytes(settings.getProperty(VelocityConfigProperties.BANDWIDTH_LIMIT) * 1024L)
+					.setClientBandwidthLimitBytes(settings.getProperty(VelocityConfigProperties.CLIENT_BANDWIDTH_LIMIT) * 1024L)
+					.setMinThreads(settings.getProperty(VelocityConfigProperties.MIN_THREADS))
+					.setMaxThreads(settings.getProperty(VelocityConfigProperties.MAX_THREADS))
+					.setHttp2(settings.getProperty(VelocityConfigProperties.HTTP2))
+					.setMetrics(settings.getProperty(VelocityConfigProperties.METRICS))
+					.setAccessLog(settings.getProperty(VelocityConfigProperties.ACCESS_LOG))
+					.setAccessLogFormat(settings.getProperty(VelocityConfigProperties.ACCESS_LOG_FORMAT))
+					.setAccessLogSampling(settings.getProperty(VelocityConfigProperties.ACCESS_LOG_SAMPLING))
 			);
 			provider.run();
 		}
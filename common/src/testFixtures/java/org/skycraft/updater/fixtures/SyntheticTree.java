@@ -0,0 +1,148 @@
+package org.skycraft.updater.fixtures;
+
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+// Client directory shaped like a mod pack, one third jars in mods and the rest nested config files
+public final class SyntheticTree {
+	public static final List<String> MODS_IGNORE_SERVER = Arrays.asList("*.txt", "*.log", ".cache/", "optifine*");
+	public static final List<String> MODS_IGNORE_CLIENT = Arrays.asList("optifine*", "journeymap/**", "*.disabled");
+	public static final List<String> CONFIG_IGNORE_SERVER = Arrays.asList("**/local.cfg", "/saves/", "screenshots/", "options.txt", "*.bak");
+
+	private static final byte[] TEXT = "abcdefghijklmnopqrstuvwxyz0123456789 =\n".getBytes(StandardCharsets.US_ASCII);
+
+	private final Path root;
+	private final Path clientPath;
+	private final Path manifestPath;
+
+	private SyntheticTree(Path root, Path clientPath, Path manifestPath) {
+		this.root = root;
+		this.clientPath = clientPath;
+		this.manifestPath = manifestPath;
+	}
+
+	// Every file is fileBytes of random data
+	public static SyntheticTree create(int files, int fileBytes) throws IOException {
+		return create(files, fileBytes, false);
+	}
+
+	// Jars are 4 to 12 times fileBytes of random data and config files up to fileBytes of text, like a real pack
+	public static SyntheticTree createMixed(int files, int fileBytes) throws IOException {
+		return create(files, fileBytes, true);
+	}
+
+	private static SyntheticTree create(int files, int fileBytes, boolean mixed) throws IOException {
+		Path root = Files.createTempDirectory("updater-fixture");
+		Path clientPath = root.resolve("client");
+		Random random = new Random(files * 31L + fileBytes);
+		for (int i = 0; i < files; i++) {
+			boolean jar = i % 3 == 0;
+			Path path = clientPath.resolve((jar ? "mods/" : "config/") + relativePath(i));
+			byte[] content;
+			if (!mixed) {
+				content = new byte[fileBytes];
+				random.nextBytes(content);
+			} else if (jar) {
+				content = new byte[fileBytes * (4 + random.nextInt(9))];
+				random.nextBytes(content);
+			} else {
+				content = new byte[1 + random.nextInt(fileBytes)];
+				for (int j = 0; j < content.length; j++) {
+					content[j] = TEXT[random.nextInt(TEXT.length)];
+				}
+			}
+			Files.createDirectories(path.getParent());
+			Files.write(path, content);
+		}
+		Path manifestPath = root.resolve("manifest.json");
+		writeManifest(manifestPath);
+		return new SyntheticTree(root, clientPath, manifestPath);
+	}
+
+	// Relative to the category, a few names in every hundred hit the ignore lists
+	public static String relativePath(int index) {
+		if (index % 3 == 0) {
+			if (index % 50 == 0) return "optifine-HD-" + index + ".jar";
+			if (index % 21 == 0) return "mod-" + index + "-1.16.5.jar.disabled";
+			return "mod-" + index + "-1.16.5.jar";
+		}
+		String directory = "mod" + (index % 97) + "/group" + (index % 7) + "/";
+		if (index % 20 == 1) return directory + "local.cfg";
+		if (index % 25 == 2) return directory + "setting-" + index + ".bak";
+		return directory + "setting-" + index + ".cfg";
+	}
+
+	public static void writeManifest(Path manifestPath) throws IOException {
+		try (JsonWriter writer = new JsonWriter(Files.newBufferedWriter(manifestPath, StandardCharsets.UTF_8))) {
+			writeManifest(writer, 1);
+		}
+	}
+
+	public static void writeManifest(Writer out, int copies) throws IOException {
+		try (JsonWriter writer = new JsonWriter(out)) {
+			writeManifest(writer, copies);
+		}
+	}
+
+	private static void writeManifest(JsonWriter writer, int copies) throws IOException {
+		writer.beginArray();
+		for (int i = 0; i < copies; i++) {
+			String suffix = i == 0 ? "" : "-" + i;
+			writeEntry(writer, "mods" + suffix, "mods", MODS_IGNORE_SERVER, MODS_IGNORE_CLIENT);
+			writeEntry(writer, "config" + suffix, "config", CONFIG_IGNORE_SERVER, Collections.emptyList());
+		}
+		writer.endArray();
+	}
+
+	private static void writeEntry(JsonWriter writer, String category, String path, List<String> ignoreServer, List<String> ignoreClient) throws IOException {
+		writer.beginObject();
+		writer.name("category").value(category);
+		writer.name("path").value(path);
+		writer.name("ignore-server").beginArray();
+		for (String ignore : ignoreServer) {
+			writer.value(ignore);
+		}
+		writer.endArray();
+		writer.name("ignore-client").beginArray();
+		for (String ignore : ignoreClient) {
+			writer.value(ignore);
+		}
+		writer.endArray();
+		writer.endObject();
+	}
+
+	public Path getClientPath() {
+		return clientPath;
+	}
+
+	public Path getManifestPath() {
+		return manifestPath;
+	}
+
+	public void delete() throws IOException {
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+}
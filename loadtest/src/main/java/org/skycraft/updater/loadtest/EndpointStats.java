@@ -0,0 +1,88 @@
+package org.skycraft.updater.loadtest;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import org.skycraft.updater.core.metrics.Histogram;
+
+final class EndpointStats {
+	// 50 us to about 10 minutes, each bucket 10% wider than the previous one so percentiles stay within 10%
+	private static final long[] LATENCY_BOUNDS = fineBounds(TimeUnit.MICROSECONDS.toNanos(50L), TimeUnit.MINUTES.toNanos(10L));
+
+	private final String name;
+	private final Histogram latency = new Histogram(LATENCY_BOUNDS);
+	private final LongAdder errors = new LongAdder();
+	private final LongAdder bytes = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0L);
+
+	EndpointStats(String name) {
+		this.name = name;
+	}
+
+	void record(long nanos, long received, boolean success) {
+		latency.record(nanos);
+		max.accumulate(nanos);
+		bytes.add(received);
+		if (!success) errors.increment();
+	}
+
+	String getName() {
+		return name;
+	}
+
+	long getRequests() {
+		long requests = 0L;
+		for (int i = 0; i < latency.getBucketCount(); i++) {
+			requests += latency.getCount(i);
+		}
+		return requests;
+	}
+
+	long getErrors() {
+		return errors.sum();
+	}
+
+	long getBytes() {
+		return bytes.sum();
+	}
+
+	long getMaxNanos() {
+		return max.get();
+	}
+
+	long getMeanNanos() {
+		long requests = getRequests();
+		return requests == 0L ? 0L : latency.getSum() / requests;
+	}
+
+	// Upper bound of the bucket holding the quantile, never more than the slowest request seen
+	long getPercentileNanos(double quantile) {
+		long requests = getRequests();
+		if (requests == 0L) return 0L;
+		long rank = Math.max(1L, (long) Math.ceil(quantile * requests));
+		long seen = 0L;
+		for (int i = 0; i < latency.getBucketCount(); i++) {
+			seen += latency.getCount(i);
+			if (seen >= rank) return Math.min(latency.getBound(i), getMaxNanos());
+		}
+		return getMaxNanos();
+	}
+
+	private static long[] fineBounds(long start, long end) {
+		int count = 0;
+		for (long bound = start; bound < end; bound = nextBound(bound)) {
+			count++;
+		}
+		long[] bounds = new long[count];
+		long bound = start;
+		for (int i = 0; i < count; i++) {
+			bounds[i] = bound;
+			bound = nextBound(bound);
+		}
+		return bounds;
+	}
+
+	private static long nextBound(long bound) {
+		return bound + Math.max(1L, bound / 10L);
+	}
+}
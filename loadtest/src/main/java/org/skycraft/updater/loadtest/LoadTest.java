@@ -0,0 +1,254 @@
+package org.skycraft.updater.loadtest;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.skycraft.updater.core.client.ClientTransport;
+import org.skycraft.updater.fixtures.SyntheticTree;
+
+// Starts a provider over a synthetic client tree and launches simulated clients against it, see the README for usage
+public final class LoadTest {
+	static final String HOST = "127.0.0.1";
+
+	private static final String USAGE = "Arguments: [--clients <count>] [--concurrency <threads>] [--ramp-seconds <seconds>]"
+		+ " [--stale-percent <0-100>] [--stale-files-percent <0-100>] [--first-launch-percent <0-100>] [--revalidate-percent <0-100>]"
+		+ " [--files <count>] [--file-bytes <bytes>] [--http2] [--provider-jvm-args \"<args>\"] [--seed <seed>]";
+	private static final double MIB = 1024.0 * 1024.0;
+
+	private LoadTest() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		Options options;
+		try {
+			options = Options.parse(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			System.exit(2);
+			return;
+		}
+		Logger logger = Logger.getLogger("LoadTest");
+		logger.setLevel(Level.SEVERE);
+		System.out.println("Generating synthetic tree of " + options.files + " files...");
+		SyntheticTree tree = SyntheticTree.createMixed(options.files, options.fileBytes);
+		try {
+			options.port = findFreePort();
+			System.out.println("Starting provider on " + HOST + ":" + options.port + "...");
+			try (ProviderProcess provider = ProviderProcess.start(tree, options.port, options.providerJvmArgs)) {
+				SimulatedClient.Release release;
+				try (ClientTransport transport = ClientTransport.open(logger, HOST, options.port, options.http2)) {
+					release = SimulatedClient.Release.fetch(transport);
+				}
+				provider.resetStats();
+				System.out.println("Running " + options.clients + " clients...");
+				Map<String, EndpointStats> stats = SimulatedClient.createStats();
+				AtomicInteger stale = new AtomicInteger();
+				AtomicInteger failed = new AtomicInteger();
+				long start = System.nanoTime();
+				run(options, logger, release, stats, stale, failed);
+				long elapsed = System.nanoTime() - start;
+				ProviderProcess.Stats providerStats = provider.readStats();
+				report(options, release, stats, stale.get(), failed.get(), elapsed, providerStats);
+			}
+		} finally {
+			tree.delete();
+		}
+		System.exit(0);
+	}
+
+	// Client i starts ramp * i / clients after the run began, or as soon as a thread frees up when that is later
+	private static void run(Options options, Logger logger, SimulatedClient.Release release, Map<String, EndpointStats> stats, AtomicInteger stale, AtomicInteger failed) throws InterruptedException {
+		ExecutorService executor = Executors.newFixedThreadPool(options.concurrency);
+		long start = System.nanoTime();
+		long rampNanos = TimeUnit.SECONDS.toNanos(options.rampSeconds);
+		for (int i = 0; i < options.clients; i++) {
+			long startAt = start + rampNanos * i / options.clients;
+			SimulatedClient client = new SimulatedClient(logger, options, release, stats, options.seed + i);
+			executor.execute(() -> {
+				long delay = startAt - System.nanoTime();
+				try {
+					if (delay > 0L) TimeUnit.NANOSECONDS.sleep(delay);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+				client.run();
+				if (client.isStale()) stale.incrementAndGet();
+				if (client.isFailed()) failed.incrementAndGet();
+			});
+		}
+		executor.shutdown();
+		executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+	}
+
+	private static void report(Options options, SimulatedClient.Release release, Map<String, EndpointStats> stats, int stale, int failed, long elapsed, ProviderProcess.Stats providerStats) {
+		double seconds = elapsed / 1e9;
+		long requests = 0L;
+		long bytes = 0L;
+		for (EndpointStats endpoint : stats.values()) {
+			if (endpoint.getName().equals(SimulatedClient.LAUNCH)) continue;
+			requests += endpoint.getRequests();
+			bytes += endpoint.getBytes();
+		}
+		System.out.println();
+		System.out.printf("Tree: %d files in %d categories, %.1f MiB%n", release.getFiles(), release.getCategories(), release.getTotalBytes() / MIB);
+		System.out.printf("Clients: %d (%d stale, %d fresh), concurrency %d, ramp %d s, %s%n",
+			options.clients, stale, options.clients - stale, options.concurrency, options.rampSeconds, options.http2 ? "HTTP/2" : "HTTP/1.1");
+		System.out.printf("Duration: %.2f s, %d clients failed (%.2f%%)%n", seconds, failed, percent(failed, options.clients));
+		System.out.printf("Throughput: %.1f clients/s, %.1f requests/s, %.1f MiB/s%n", options.clients / seconds, requests / seconds, bytes / MIB / seconds);
+		System.out.println();
+		System.out.printf("%-12s %10s %8s %8s %10s %10s %10s %10s %10s %10s%n", "Endpoint", "Requests", "Errors", "Error%", "Mean ms", "p50 ms", "p99 ms", "p999 ms", "Max ms", "MiB");
+		for (EndpointStats endpoint : stats.values()) {
+			if (endpoint.getRequests() == 0L) continue;
+			System.out.printf("%-12s %10d %8d %8.2f %10.2f %10.2f %10.2f %10.2f %10.2f %10.1f%n",
+				endpoint.getName(),
+				endpoint.getRequests(),
+				endpoint.getErrors(),
+				percent(endpoint.getErrors(), endpoint.getRequests()),
+				endpoint.getMeanNanos() / 1e6,
+				endpoint.getPercentileNanos(0.5) / 1e6,
+				endpoint.getPercentileNanos(0.99) / 1e6,
+				endpoint.getPercentileNanos(0.999) / 1e6,
+				endpoint.getMaxNanos() / 1e6,
+				endpoint.getBytes() / MIB
+			);
+		}
+		System.out.println();
+		System.out.printf("Provider heap: %.1f MiB used, %.1f MiB peak, %.1f MiB committed, %.1f MiB max%n",
+			providerStats.getHeapUsed() / MIB, providerStats.getHeapPeak() / MIB, providerStats.getHeapCommitted() / MIB, providerStats.getHeapMax() / MIB);
+		System.out.printf("Provider threads: %d live, %d peak%n", providerStats.getThreads(), providerStats.getPeakThreads());
+		long collections = 0L;
+		long collectionMillis = 0L;
+		List<String> collectors = new ArrayList<>();
+		for (Map.Entry<String, long[]> collector : providerStats.getCollectors().entrySet()) {
+			collections += collector.getValue()[0];
+			collectionMillis += collector.getValue()[1];
+			collectors.add(collector.getKey() + " " + collector.getValue()[0] + " / " + collector.getValue()[1] + " ms");
+		}
+		System.out.printf("Provider GC: %d collections, %d ms (%.2f%% of the run) [%s]%n", collections, collectionMillis, percent(collectionMillis, elapsed / 1_000_000L), String.join(", ", collectors));
+	}
+
+	private static double percent(long part, long total) {
+		return total == 0L ? 0.0 : part * 100.0 / total;
+	}
+
+	private static int findFreePort() throws IOException {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+
+	static final class Options {
+		private int clients = 2000;
+		private int concurrency = 200;
+		private int rampSeconds;
+		private int stalePercent = 20;
+		private int staleFilesPercent = 10;
+		private int firstLaunchPercent = 20;
+		private int revalidatePercent = 50;
+		private int files = 2000;
+		private int fileBytes = 64 * 1024;
+		private boolean http2;
+		private List<String> providerJvmArgs = new ArrayList<>();
+		private long seed = 1L;
+		private int port;
+
+		static Options parse(String[] args) {
+			Options options = new Options();
+			for (int i = 0; i < args.length; i++) {
+				String name = args[i];
+				if (name.equals("--http2")) {
+					options.http2 = true;
+					continue;
+				}
+				if (i + 1 >= args.length) throw new IllegalArgumentException("Missing value for " + name);
+				String value = args[++i];
+				switch (name) {
+				case "--clients":
+					options.clients = parseInt(name, value, 1, Integer.MAX_VALUE);
+					break;
+				case "--concurrency":
+					options.concurrency = parseInt(name, value, 1, Integer.MAX_VALUE);
+					break;
+				case "--ramp-seconds":
+					options.rampSeconds = parseInt(name, value, 0, Integer.MAX_VALUE);
+					break;
+				case "--stale-percent":
+					options.stalePercent = parseInt(name, value, 0, 100);
+					break;
+				case "--stale-files-percent":
+					options.staleFilesPercent = parseInt(name, value, 0, 100);
+					break;
+				case "--first-launch-percent":
+					options.firstLaunchPercent = parseInt(name, value, 0, 100);
+					break;
+				case "--revalidate-percent":
+					options.revalidatePercent = parseInt(name, value, 0, 100);
+					break;
+				case "--files":
+					options.files = parseInt(name, value, 1, Integer.MAX_VALUE);
+					break;
+				case "--file-bytes":
+					options.fileBytes = parseInt(name, value, 1, 64 * 1024 * 1024);
+					break;
+				case "--provider-jvm-args":
+					options.providerJvmArgs = value.trim().isEmpty() ? new ArrayList<>() : Arrays.asList(value.trim().split("\\s+"));
+					break;
+				case "--seed":
+					try {
+						options.seed = Long.parseLong(value);
+					} catch (NumberFormatException e) {
+						throw new IllegalArgumentException("Invalid value for " + name + ": " + value);
+					}
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown argument " + name);
+				}
+			}
+			return options;
+		}
+
+		private static int parseInt(String name, String value, int min, int max) {
+			try {
+				int parsed = Integer.parseInt(value);
+				if (parsed >= min && parsed <= max) return parsed;
+			} catch (NumberFormatException ignored) {
+			}
+			throw new IllegalArgumentException("Invalid value for " + name + ": " + value);
+		}
+
+		int getStalePercent() {
+			return stalePercent;
+		}
+
+		int getStaleFilesPercent() {
+			return staleFilesPercent;
+		}
+
+		int getFirstLaunchPercent() {
+			return firstLaunchPercent;
+		}
+
+		int getRevalidatePercent() {
+			return revalidatePercent;
+		}
+
+		boolean isHttp2() {
+			return http2;
+		}
+
+		int getPort() {
+			return port;
+		}
+	}
+}
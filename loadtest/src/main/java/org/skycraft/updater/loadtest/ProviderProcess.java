@@ -0,0 +1,207 @@
+package org.skycraft.updater.loadtest;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.skycraft.updater.core.Provider;
+import org.skycraft.updater.core.ProviderOptions;
+import org.skycraft.updater.fixtures.SyntheticTree;
+
+// Provider in its own JVM so the heap and GC figures are not mixed up with the simulated clients
+final class ProviderProcess implements Closeable {
+	private static final String READY = "ready";
+	private static final String END = "end";
+
+	private final Process process;
+	private final BufferedReader in;
+	private final PrintWriter out;
+
+	private ProviderProcess(Process process) {
+		this.process = process;
+		this.in = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+		this.out = new PrintWriter(process.getOutputStream(), true);
+	}
+
+	static ProviderProcess start(SyntheticTree tree, int port, List<String> jvmArgs) throws IOException {
+		List<String> command = new ArrayList<>();
+		command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+		command.addAll(jvmArgs);
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(ProviderProcess.class.getName());
+		command.add(tree.getClientPath().toString());
+		command.add(tree.getManifestPath().toString());
+		command.add(Integer.toString(port));
+		Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+		ProviderProcess provider = new ProviderProcess(process);
+		String line = provider.in.readLine();
+		if (!READY.equals(line)) {
+			provider.close();
+			throw new IOException("Provider process exited before it was ready");
+		}
+		return provider;
+	}
+
+	// Clears peak heap usage and starts counting collections from zero
+	void resetStats() throws IOException {
+		out.println("reset");
+		readLine();
+	}
+
+	Stats readStats() throws IOException {
+		out.println("stats");
+		Stats stats = new Stats();
+		String line;
+		while (!END.equals(line = readLine())) {
+			String[] parts = line.split(" ", 4);
+			switch (parts[0]) {
+			case "heap":
+				stats.heapUsed = Long.parseLong(parts[1]);
+				stats.heapCommitted = Long.parseLong(parts[2]);
+				stats.heapMax = Long.parseLong(parts[3]);
+				break;
+			case "peak":
+				stats.heapPeak = Long.parseLong(parts[1]);
+				break;
+			case "threads":
+				stats.threads = Integer.parseInt(parts[1]);
+				stats.peakThreads = Integer.parseInt(parts[2]);
+				break;
+			case "gc":
+				stats.collectors.put(parts[3], new long[] { Long.parseLong(parts[1]), Long.parseLong(parts[2]) });
+				break;
+			default:
+				throw new IOException("Unexpected provider process output \"" + line + "\"");
+			}
+		}
+		return stats;
+	}
+
+	private String readLine() throws IOException {
+		String line = in.readLine();
+		if (line == null) throw new IOException("Provider process exited unexpectedly");
+		return line;
+	}
+
+	@Override
+	public void close() {
+		out.println("stop");
+		try {
+			if (!process.waitFor(30L, TimeUnit.SECONDS)) process.destroyForcibly();
+		} catch (InterruptedException e) {
+			process.destroyForcibly();
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	static final class Stats {
+		private long heapUsed;
+		private long heapCommitted;
+		private long heapMax;
+		private long heapPeak;
+		private int threads;
+		private int peakThreads;
+		private final Map<String, long[]> collectors = new HashMap<>();
+
+		long getHeapUsed() {
+			return heapUsed;
+		}
+
+		long getHeapCommitted() {
+			return heapCommitted;
+		}
+
+		long getHeapMax() {
+			return heapMax;
+		}
+
+		long getHeapPeak() {
+			return heapPeak;
+		}
+
+		int getThreads() {
+			return threads;
+		}
+
+		int getPeakThreads() {
+			return peakThreads;
+		}
+
+		// Collection count and time in milliseconds since the last reset, by collector name
+		Map<String, long[]> getCollectors() {
+			return Collections.unmodifiableMap(collectors);
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		PrintStream out = new PrintStream(System.out, true, "UTF-8");
+		System.setOut(System.err);
+		Logger logger = Logger.getLogger("Provider");
+		logger.setLevel(Level.WARNING);
+		Provider provider = new Provider(
+			logger,
+			Paths.get(args[0]),
+			Paths.get(args[1]),
+			new InetSocketAddress("127.0.0.1", Integer.parseInt(args[2])),
+			new ProviderOptions().setAccessLog("")
+		);
+		provider.run();
+		out.println(READY);
+		Map<String, long[]> baseline = readCollectors();
+		BufferedReader in = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8));
+		String command;
+		while ((command = in.readLine()) != null && !command.equals("stop")) {
+			if (command.equals("reset")) {
+				for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+					pool.resetPeakUsage();
+				}
+				ManagementFactory.getThreadMXBean().resetPeakThreadCount();
+				baseline = readCollectors();
+				out.println(END);
+			} else if (command.equals("stats")) {
+				MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+				out.println("heap " + heap.getUsed() + " " + heap.getCommitted() + " " + heap.getMax());
+				long peak = 0L;
+				for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+					if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) peak += pool.getPeakUsage().getUsed();
+				}
+				out.println("peak " + peak);
+				out.println("threads " + ManagementFactory.getThreadMXBean().getThreadCount() + " " + ManagementFactory.getThreadMXBean().getPeakThreadCount());
+				for (Map.Entry<String, long[]> collector : readCollectors().entrySet()) {
+					long[] start = baseline.getOrDefault(collector.getKey(), new long[2]);
+					out.println("gc " + (collector.getValue()[0] - start[0]) + " " + (collector.getValue()[1] - start[1]) + " " + collector.getKey());
+				}
+				out.println(END);
+			}
+		}
+		provider.close();
+		System.exit(0);
+	}
+
+	private static Map<String, long[]> readCollectors() {
+		Map<String, long[]> collectors = new HashMap<>();
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			collectors.put(collector.getName(), new long[] { Math.max(0L, collector.getCollectionCount()), Math.max(0L, collector.getCollectionTime()) });
+		}
+		return collectors;
+	}
+}
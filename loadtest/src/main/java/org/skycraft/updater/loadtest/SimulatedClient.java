@@ -0,0 +1,352 @@
+package org.skycraft.updater.loadtest;
+
+import com.google.gson.stream.JsonReader;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
+import org.apache.commons.io.IOUtils;
+import org.skycraft.updater.core.Protocol;
+import org.skycraft.updater.core.client.ClientTransport;
+import org.skycraft.updater.core.hash.HashAlgorithm;
+import org.skycraft.updater.core.protocol.v3.BatchFormat;
+import org.skycraft.updater.core.protocol.v3.HashListFormat;
+import org.skycraft.updater.core.protocol.v3.HashListReader;
+
+// One game launch going through the same requests as the Updater and Patcher, without touching the disk
+final class SimulatedClient implements Runnable {
+	static final String GENERATION = "generation";
+	static final String MANIFEST = "manifest";
+	static final String HASHES = "hashes";
+	static final String TREE = "tree";
+	static final String BATCH = "batch";
+	static final String DOWNLOAD = "download";
+	static final String LAUNCH = "launch";
+
+	private static final long BATCH_FILE_MAX_BYTES = 256L * 1024L;
+	private static final long BATCH_MAX_BYTES = 8L * 1024L * 1024L;
+	private static final int BATCH_MAX_FILES = 512;
+	private static final String DIGESTS = HashListFormat.DIGEST_ALGORITHMS.stream().map(HashAlgorithm::getName).collect(Collectors.joining(","));
+
+	private final Logger logger;
+	private final LoadTest.Options options;
+	private final Release release;
+	private final Map<String, EndpointStats> stats;
+	private final Random random;
+	private final boolean stale;
+	private final boolean firstLaunch;
+	private final boolean revalidating;
+	private ClientTransport transport;
+	private boolean failed;
+
+	SimulatedClient(Logger logger, LoadTest.Options options, Release release, Map<String, EndpointStats> stats, long seed) {
+		this.logger = logger;
+		this.options = options;
+		this.release = release;
+		this.stats = stats;
+		this.random = new Random(seed);
+		this.stale = random.nextInt(100) < options.getStalePercent();
+		this.firstLaunch = stale && random.nextInt(100) < options.getFirstLaunchPercent();
+		this.revalidating = !stale && random.nextInt(100) < options.getRevalidatePercent();
+	}
+
+	static Map<String, EndpointStats> createStats() {
+		Map<String, EndpointStats> stats = new LinkedHashMap<>();
+		for (String name : new String[] { GENERATION, MANIFEST, HASHES, TREE, BATCH, DOWNLOAD, LAUNCH }) {
+			stats.put(name, new EndpointStats(name));
+		}
+		return stats;
+	}
+
+	boolean isStale() {
+		return stale;
+	}
+
+	boolean isFailed() {
+		return failed;
+	}
+
+	@Override
+	public void run() {
+		long start = System.nanoTime();
+		try (ClientTransport transport = ClientTransport.open(logger, LoadTest.HOST, options.getPort(), options.isHttp2())) {
+			this.transport = transport;
+			launch();
+		} catch (IOException | RuntimeException e) {
+			failed = true;
+		}
+		stats.get(LAUNCH).record(System.nanoTime() - start, 0L, !failed);
+	}
+
+	// Fresh clients stop at the generation check, and a local change only costs a revalidation of the manifest since the
+	// unchanged roots let the cached trees be reused. Stale clients either start without cached trees and download every
+	// hash list, or walk the tree from the root down to the directories holding their outdated files
+	private void launch() throws IOException {
+		if (!fetch(GENERATION, url(GENERATION), Collections.emptyMap()) || !(stale || revalidating)) return;
+		if (!fetch(MANIFEST, url(MANIFEST), conditional(release.manifestETag)) || !stale) return;
+		List<FileInfo> staleFiles = new ArrayList<>();
+		for (FileInfo file : release.files) {
+			if (random.nextInt(100) < options.getStaleFilesPercent()) staleFiles.add(file);
+		}
+		if (firstLaunch) {
+			for (String category : release.hashETags.keySet()) {
+				String file = url(HASHES) + "?category=" + URLEncoder.encode(category, "UTF-8") + "&" + HashListFormat.DIGESTS_PARAMETER + "=" + DIGESTS;
+				if (!fetch(HASHES, file, conditional(null))) return;
+			}
+		} else if (!syncTrees(staleFiles)) {
+			return;
+		}
+		downloadMissing(staleFiles);
+	}
+
+	private boolean syncTrees(List<FileInfo> staleFiles) throws IOException {
+		Map<String, Set<String>> directories = new LinkedHashMap<>();
+		for (FileInfo file : staleFiles) {
+			Set<String> categoryDirectories = directories.computeIfAbsent(file.category, category -> new TreeSet<>(Comparator.comparingInt(SimulatedClient::getDepth).thenComparing(Comparator.naturalOrder())));
+			categoryDirectories.add("");
+			for (int slash = file.path.indexOf('/'); slash >= 0; slash = file.path.indexOf('/', slash + 1)) {
+				categoryDirectories.add(file.path.substring(0, slash));
+			}
+		}
+		for (Map.Entry<String, Set<String>> category : directories.entrySet()) {
+			for (String directory : category.getValue()) {
+				String file = url(TREE) + "?category=" + URLEncoder.encode(category.getKey(), "UTF-8") + "&path=" + URLEncoder.encode(directory, "UTF-8") + "&" + HashListFormat.DIGESTS_PARAMETER + "=" + DIGESTS;
+				if (!fetch(TREE, file, Collections.emptyMap())) return false;
+			}
+		}
+		return true;
+	}
+
+	private static int getDepth(String directory) {
+		if (directory.isEmpty()) return 0;
+		int depth = 1;
+		for (int i = 0; i < directory.length(); i++) {
+			if (directory.charAt(i) == '/') depth++;
+		}
+		return depth;
+	}
+
+	private Map<String, String> conditional(String etag) {
+		Map<String, String> headers = new HashMap<>();
+		headers.put("Accept-Encoding", "gzip");
+		if (!stale && etag != null) headers.put("If-None-Match", etag);
+		return headers;
+	}
+
+	private boolean fetch(String endpoint, String file, Map<String, String> headers) throws IOException {
+		long start = System.nanoTime();
+		long received = 0L;
+		boolean success = false;
+		try (ClientTransport.Response response = transport.get(file, headers)) {
+			int status = response.getStatus();
+			if (status == HttpURLConnection.HTTP_OK) {
+				try (InputStream in = response.getBody()) {
+					received = drain(in);
+				}
+				success = true;
+			} else {
+				success = status == HttpURLConnection.HTTP_NOT_MODIFIED && headers.containsKey("If-None-Match");
+			}
+		} finally {
+			record(endpoint, start, received, success);
+		}
+		return success;
+	}
+
+	private void downloadMissing(List<FileInfo> staleFiles) throws IOException {
+		List<FileInfo> batch = new ArrayList<>();
+		long batchBytes = 0L;
+		for (FileInfo file : staleFiles) {
+			if (file.size > BATCH_FILE_MAX_BYTES) {
+				download(file);
+				continue;
+			}
+			batch.add(file);
+			batchBytes += file.size;
+			if (batch.size() >= BATCH_MAX_FILES || batchBytes >= BATCH_MAX_BYTES) {
+				downloadBatch(batch);
+				batch.clear();
+				batchBytes = 0L;
+			}
+		}
+		if (!batch.isEmpty()) downloadBatch(batch);
+	}
+
+	private void download(FileInfo file) throws IOException {
+		long start = System.nanoTime();
+		long received = 0L;
+		boolean success = false;
+		Map<String, String> headers = Collections.singletonMap("Accept-Encoding", "gzip");
+		try (ClientTransport.Response response = transport.get(url(DOWNLOAD) + "?hash=" + URLEncoder.encode(file.hash, "UTF-8"), headers)) {
+			if (response.getStatus() == HttpURLConnection.HTTP_OK) {
+				boolean gzip = "gzip".equalsIgnoreCase(response.getHeader("Content-Encoding"));
+				try (InputStream in = gzip ? new GZIPInputStream(response.getBody()) : response.getBody()) {
+					received = drain(in);
+				}
+				success = received == file.size;
+			}
+		} finally {
+			record(DOWNLOAD, start, received, success);
+		}
+	}
+
+	private void downloadBatch(List<FileInfo> files) throws IOException {
+		StringBuilder request = new StringBuilder();
+		for (FileInfo file : files) {
+			request.append(file.hash).append('\n');
+		}
+		long start = System.nanoTime();
+		long received = 0L;
+		boolean success = false;
+		try (ClientTransport.Response response = transport.post(url(BATCH), "text/plain; charset=utf-8", request.toString().getBytes(StandardCharsets.UTF_8))) {
+			if (response.getStatus() == HttpURLConnection.HTTP_OK) {
+				try (DataInputStream in = new DataInputStream(new BufferedInputStream(response.getBody(), 1024 * 64))) {
+					if (in.readInt() != BatchFormat.MAGIC || in.readUnsignedByte() != BatchFormat.VERSION) throw new IOException("Illegal batch response header");
+					int count = in.readInt();
+					success = count == files.size();
+					for (int i = 0; i < count; i++) {
+						in.readUTF();
+						long size = in.readLong();
+						if (size == BatchFormat.MISSING_FILE) {
+							success = false;
+							continue;
+						}
+						IOUtils.skipFully(in, size);
+						received += size;
+					}
+				}
+			}
+		} finally {
+			record(BATCH, start, received, success);
+		}
+	}
+
+	private void record(String endpoint, long start, long received, boolean success) {
+		stats.get(endpoint).record(System.nanoTime() - start, received, success);
+		if (!success) failed = true;
+	}
+
+	private static long drain(InputStream in) throws IOException {
+		byte[] buffer = new byte[1024 * 64];
+		long total = 0L;
+		int read;
+		while ((read = in.read(buffer)) >= 0) {
+			total += read;
+		}
+		return total;
+	}
+
+	private static String url(String endpoint) {
+		return Protocol.CURRENT_PROTOCOL.getHandler().getProtocolURL(endpoint);
+	}
+
+	// What the provider serves right now, fetched once before the run so fresh clients can hold valid ETags
+	static final class Release {
+		private final String manifestETag;
+		private final Map<String, String> hashETags;
+		private final List<FileInfo> files;
+
+		private Release(String manifestETag, Map<String, String> hashETags, List<FileInfo> files) {
+			this.manifestETag = manifestETag;
+			this.hashETags = hashETags;
+			this.files = files;
+		}
+
+		static Release fetch(ClientTransport transport) throws IOException {
+			Map<String, String> headers = Collections.singletonMap("Accept-Encoding", "gzip");
+			List<String> categories = new ArrayList<>();
+			String manifestETag;
+			try (ClientTransport.Response response = transport.get(url(MANIFEST), headers)) {
+				if (response.getStatus() != HttpURLConnection.HTTP_OK) throw new IOException("Could not download manifest, response code = " + response.getStatus());
+				manifestETag = response.getHeader("ETag");
+				try (JsonReader json = new JsonReader(new InputStreamReader(readBody(response), StandardCharsets.UTF_8))) {
+					json.beginArray();
+					while (json.hasNext()) {
+						json.beginObject();
+						while (json.hasNext()) {
+							if (json.nextName().equals("category")) {
+								categories.add(json.nextString());
+							} else {
+								json.skipValue();
+							}
+						}
+						json.endObject();
+					}
+					json.endArray();
+				}
+			}
+			Map<String, String> hashETags = new LinkedHashMap<>();
+			List<FileInfo> files = new ArrayList<>();
+			for (String category : categories) {
+				String file = url(HASHES) + "?category=" + URLEncoder.encode(category, "UTF-8") + "&" + HashListFormat.DIGESTS_PARAMETER + "=" + DIGESTS;
+				try (ClientTransport.Response response = transport.get(file, headers)) {
+					if (response.getStatus() != HttpURLConnection.HTTP_OK) throw new IOException("Could not download hashes of \"" + category + "\", response code = " + response.getStatus());
+					hashETags.put(category, response.getHeader("ETag"));
+					try (HashListReader reader = new HashListReader(readBody(response))) {
+						reader.beginHashList();
+						while (reader.next()) {
+							files.add(new FileInfo(category, reader.getPath(), reader.getHash(), reader.getSize()));
+						}
+					}
+				}
+			}
+			return new Release(manifestETag, hashETags, files);
+		}
+
+		private static InputStream readBody(ClientTransport.Response response) throws IOException {
+			try (InputStream in = response.getBody()) {
+				byte[] body = IOUtils.toByteArray(in);
+				InputStream content = new ByteArrayInputStream(body);
+				return "gzip".equalsIgnoreCase(response.getHeader("Content-Encoding")) ? new GZIPInputStream(content) : content;
+			}
+		}
+
+		int getCategories() {
+			return hashETags.size();
+		}
+
+		int getFiles() {
+			return files.size();
+		}
+
+		long getTotalBytes() {
+			long totalBytes = 0L;
+			for (FileInfo file : files) {
+				totalBytes += file.size;
+			}
+			return totalBytes;
+		}
+	}
+
+	private static final class FileInfo {
+		private final String category;
+		private final String path;
+		private final String hash;
+		private final long size;
+
+		FileInfo(String category, String path, String hash, long size) {
+			this.category = category;
+			this.path = path;
+			this.hash = hash;
+			this.size = size;
+		}
+	}
+}